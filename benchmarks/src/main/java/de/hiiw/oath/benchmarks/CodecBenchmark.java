@@ -0,0 +1,85 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the base32 and hex codecs, single threaded and contended
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    /**
+     * Encoded forms of the secret
+     */
+    @State(Scope.Benchmark)
+    public static class EncodedState {
+        public String base32;
+        public String hex;
+
+        @Setup
+        public void setup(OATHState state){
+            base32 = state.oath.base32Encode(state.secret);
+            hex = state.oath.bin2Hex(state.secret);
+        }
+    }
+
+    @Benchmark
+    public String base32Encode(OATHState state){
+        return state.oath.base32Encode(state.secret);
+    }
+
+    @Benchmark
+    public byte[] base32Decode(OATHState state, EncodedState encoded){
+        return state.oath.base32Decode(encoded.base32);
+    }
+
+    @Benchmark
+    public String bin2Hex(OATHState state){
+        return state.oath.bin2Hex(state.secret);
+    }
+
+    @Benchmark
+    public byte[] hex2Bin(OATHState state, EncodedState encoded){
+        return state.oath.hex2Bin(encoded.hex);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[] base32DecodeContended(OATHState state, EncodedState encoded){
+        return state.oath.base32Decode(encoded.base32);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath.benchmarks;
+
+import de.hiiw.oath.OATH;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Shared benchmark state, selects the engine before OATH is initialized.
+ * Every parameter combination runs in its own fork, so forks must be at least 1
+ */
+@State(Scope.Benchmark)
+public class OATHState {
+    /**
+     * The engine, see {@link OATH#ENGINE_PROPERTY}
+     */
+    @Param({"java", "native"})
+    public String engine;
+
+    public OATH oath;
+    public byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    public long unixTimestamp = 1111111109L;
+
+    @Setup
+    public void setup(){
+        System.setProperty(OATH.ENGINE_PROPERTY, engine);
+        oath = OATH.getInstance();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath.benchmarks;
+
+import de.hiiw.oath.LibOATH;
+import de.hiiw.oath.OATHKey;
+import de.hiiw.oath.OATHTotpFlag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the totp and hotp operations, single threaded and contended
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OTPBenchmark {
+    /**
+     * Window sizes and the otps to validate
+     */
+    @State(Scope.Benchmark)
+    public static class WindowState {
+        @Param({"0", "1", "10"})
+        public int window;
+
+        public String validOtp;
+        public String invalidOtp = "000000";
+
+        @Setup
+        public void setup(OATHState state){
+            validOtp = state.oath.totpGenerate(state.secret, state.unixTimestamp, 30, 0, 6);
+        }
+    }
+
+    /**
+     * Prepared secrets and timestamps of a batch
+     */
+    @State(Scope.Benchmark)
+    public static class BatchState {
+        public OATHKey[] keys = new OATHKey[1024];
+        public long[] unixTimestamps = new long[1024];
+
+        @Setup
+        public void setup(OATHState state){
+            for(int i = 0; i < keys.length; i++){
+                byte[] secret = state.secret.clone();
+                secret[0] = (byte) i;
+                secret[1] = (byte) (i >>> 8);
+                keys[i] = new OATHKey(secret);
+                unixTimestamps[i] = state.unixTimestamp + i;
+            }
+        }
+    }
+
+    @Benchmark
+    public String totpGenerate(OATHState state){
+        return state.oath.totpGenerate(state.secret, state.unixTimestamp, 30, 0, 6, OATHTotpFlag.OATH_TOTP_HMAC_SHA1);
+    }
+
+    @Benchmark
+    public int totpValidate(OATHState state, WindowState window){
+        return state.oath.validateTotpPosition(state.secret, state.unixTimestamp, 30, 0, window.window,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, window.validOtp);
+    }
+
+    @Benchmark
+    public int totpValidateInvalid(OATHState state, WindowState window){
+        return state.oath.validateTotpPosition(state.secret, state.unixTimestamp, 30, 0, window.window,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, window.invalidOtp);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int totpValidateContended(OATHState state, WindowState window){
+        return state.oath.validateTotpPosition(state.secret, state.unixTimestamp, 30, 0, window.window,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, window.validOtp);
+    }
+
+    @Benchmark
+    public int[] totpGenerateBatch(OATHState state, BatchState batch){
+        return state.oath.totpGenerateBatch(batch.keys, batch.unixTimestamps, 30, 0, 6, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, false);
+    }
+
+    @Benchmark
+    public String[] totpGenerateLoop(OATHState state, BatchState batch){
+        String[] otps = new String[batch.keys.length];
+
+        for(int i = 0; i < otps.length; i++){
+            otps[i] = state.oath.totpGenerate(batch.keys[i], batch.unixTimestamps[i], 30, 0, 6, OATHTotpFlag.OATH_TOTP_HMAC_SHA1);
+        }
+
+        return otps;
+    }
+
+    @Benchmark
+    public String hotpGenerate(OATHState state){
+        return state.oath.hotpGenerate(state.secret, 1, 6, LibOATH.OATH_HOTP_DYNAMIC_TRUNCATION);
+    }
+
+    @Benchmark
+    public int hotpValidate(OATHState state, WindowState window){
+        return state.oath.validateHotpPosition(state.secret, 1, window.window, window.invalidOtp);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String hotpGenerateContended(OATHState state){
+        return state.oath.hotpGenerate(state.secret, 1, 6, LibOATH.OATH_HOTP_DYNAMIC_TRUNCATION);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+/**
+ * Store of the moving factors (HOTP counters or TOTP time steps) of credentials, shared by all nodes validating them,
+ * see {@link CounterValidator}. A stored value is the next accepted moving factor, it only grows and starts at 0.
+ * Implementations are called concurrently and must set a value atomically, {@link InMemoryCounterStore} keeps
+ * the values in process, {@link HotpCounterStore} in a file
+ */
+public interface CounterStore {
+    /**
+     * Returns the counter of a credential
+     * @param credentialId The credential
+     * @return the next accepted moving factor, 0 for unknown credentials
+     */
+    long getCounter(long credentialId);
+
+    /**
+     * Returns the counters of several credentials, stores with remote access should override it with a single round trip
+     * @param credentialIds The credentials
+     * @return the next accepted moving factors, 0 for unknown credentials
+     */
+    default long[] getCounters(long[] credentialIds){
+        long[] counters = new long[credentialIds.length];
+
+        for(int i = 0; i < credentialIds.length; i++){
+            counters[i] = getCounter(credentialIds[i]);
+        }
+
+        return counters;
+    }
+
+    /**
+     * Atomically sets the counter of a credential if it still has the expected value
+     * @param credentialId The credential
+     * @param expected The expected counter, 0 for unknown credentials
+     * @param next The new counter
+     * @return true if the counter was set, false if another node changed it
+     */
+    boolean compareAndSet(long credentialId, long expected, long next);
+}
@@ -0,0 +1,282 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+/**
+ * Validates one time tokens against the moving factors of a {@link CounterStore} shared by several nodes.
+ * A valid otp advances the stored moving factor past the otp with compare-and-set, so every otp is accepted once
+ * across all nodes and the moving factor never goes backwards. HOTP credentials store the next counter,
+ * TOTP credentials the time step after the last accepted otp, so a TOTP otp is only accepted if it is newer
+ * than the last accepted one. Use distinct credential ids for HOTP and TOTP.
+ * <p>
+ * Recently used moving factors are cached per node, a stale cached value costs one more round trip to the store
+ * but never accepts an otp twice. Instances are thread safe
+ */
+public class CounterValidator {
+    /**
+     * Cached value of credentials which are not cached
+     */
+    private static final long NOT_CACHED = -1;
+
+    /**
+     * The wrapper used for validation
+     */
+    private final OATH oath;
+
+    /**
+     * The shared moving factors
+     */
+    private final CounterStore store;
+
+    /**
+     * Recently used moving factors, stamped with the time of the last use, the oldest are evicted
+     */
+    private final StripedLongMap cache;
+
+    /**
+     * Constructs a new validator
+     * @param oath The wrapper used for validation
+     * @param store The shared moving factors
+     * @param maxCached Maximum number of cached moving factors
+     * @throws IllegalArgumentException if maxCached is not positive
+     */
+    public CounterValidator(OATH oath, CounterStore store, int maxCached){
+        this.oath = oath;
+        this.store = store;
+        this.cache = new StripedLongMap(maxCached, Long.MAX_VALUE);
+    }
+
+    /**
+     * Validates a HMAC-based one time token and advances the counter of the credential past it
+     * @param credentialId The credential
+     * @param key The prepared secret
+     * @param window Number of otps after the counter to check (look-ahead)
+     * @param otp The otp to validate
+     * @return the position of the otp relative to the stored counter, {@link OATH#INVALID_POSITION} if the otp is invalid
+     * or was already used, {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    public int validateHotpPosition(long credentialId, OATHKey key, long window, String otp){
+        return validateHotpPosition(credentialId, key, window, otp, cached(credentialId));
+    }
+
+    /**
+     * Validates HMAC-based one time tokens of several credentials, the counters which are not cached
+     * are read with a single {@link CounterStore#getCounters(long[])}
+     * @param credentialIds The credentials
+     * @param keys The prepared secrets
+     * @param window Number of otps after the counter to check (look-ahead)
+     * @param otps The otps to validate
+     * @return the positions, see {@link #validateHotpPosition(long, OATHKey, long, String)}
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public int[] validateHotpBatch(long[] credentialIds, OATHKey[] keys, long window, String[] otps){
+        if(credentialIds.length != keys.length || credentialIds.length != otps.length){
+            throw new IllegalArgumentException("Arrays differ in length");
+        }
+
+        long[] counters = cachedBatch(credentialIds);
+        int[] positions = new int[credentialIds.length];
+
+        for(int i = 0; i < credentialIds.length; i++){
+            positions[i] = validateHotpPosition(credentialIds[i], keys[i], window, otps[i], counters[i]);
+        }
+
+        return positions;
+    }
+
+    /**
+     * Validates a time based one time token and advances the time step of the credential past it
+     * @param credentialId The credential
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return the position of the otp relative to the timestamp, {@link OATH#INVALID_POSITION} if the otp is invalid
+     * or not newer than the last accepted one, {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    public int validateTotpPosition(long credentialId, OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window,
+                                    OATHTotpFlag flag, String otp){
+        int otpPos = oath.validateTotpPosition(key, unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+
+        if(!OATH.isValidPosition(otpPos)){
+            return otpPos;
+        }
+
+        long used = OATH.timeStep(unixTimestamp, timeStepSize, startOffset) + otpPos;
+        long counter = cached(credentialId);
+
+        return advance(credentialId, counter == NOT_CACHED ? load(credentialId) : counter, used) ? otpPos : OATH.INVALID_POSITION;
+    }
+
+    /**
+     * Drops the cached moving factor of a credential, e.g. after it was reset in the store
+     * @param credentialId The credential
+     */
+    public void invalidate(long credentialId){
+        cache.remove(credentialId);
+    }
+
+    /**
+     * Validates an otp starting at a counter, which may be stale (lower than the stored one) or not cached
+     * @param credentialId The credential
+     * @param key The prepared secret
+     * @param window Number of otps after the counter to check
+     * @param otp The otp to validate
+     * @param counter The cached counter or {@link #NOT_CACHED}
+     * @return the position relative to the stored counter
+     */
+    private int validateHotpPosition(long credentialId, OATHKey key, long window, String otp, long counter){
+        boolean fromCache = counter != NOT_CACHED;
+
+        if(!fromCache){
+            counter = load(credentialId);
+        }
+
+        while(true){
+            int otpPos = oath.validateHotpPosition(key, counter, window, otp);
+
+            if(!OATH.isValidPosition(otpPos)){
+                //A stale counter checks an older window, retry with the stored one
+                if(fromCache){
+                    fromCache = false;
+                    long stored = load(credentialId);
+
+                    if(stored != counter){
+                        counter = stored;
+                        continue;
+                    }
+                }
+
+                return otpPos;
+            }
+
+            long used = counter + otpPos;
+
+            if(store.compareAndSet(credentialId, counter, used + 1)){
+                cache(credentialId, used + 1, System.nanoTime());
+                return otpPos;
+            }
+
+            fromCache = false;
+            counter = load(credentialId);
+
+            //Another node accepted this otp or a later one
+            if(Long.compareUnsigned(counter, used) > 0){
+                return OATH.INVALID_POSITION;
+            }
+        }
+    }
+
+    /**
+     * Advances the moving factor past a used one unless it is already past it
+     * @param credentialId The credential
+     * @param counter The cached or stored moving factor
+     * @param used The moving factor of the valid otp
+     * @return true if the moving factor was advanced, false if the otp was already used or is older than the last accepted one
+     */
+    private boolean advance(long credentialId, long counter, long used){
+        while(Long.compareUnsigned(counter, used) <= 0){
+            if(store.compareAndSet(credentialId, counter, used + 1)){
+                cache(credentialId, used + 1, System.nanoTime());
+                return true;
+            }
+
+            counter = load(credentialId);
+        }
+
+        //A cached value is never ahead of the store, so the otp is not newer than the last accepted one
+        return false;
+    }
+
+    /**
+     * @param credentialId The credential
+     * @return the cached moving factor or {@link #NOT_CACHED}
+     */
+    private long cached(long credentialId){
+        return cache.get(credentialId, NOT_CACHED, System.nanoTime());
+    }
+
+    /**
+     * @param credentialIds The credentials
+     * @return the cached moving factors, the others read from the store with one batch
+     */
+    private long[] cachedBatch(long[] credentialIds){
+        long[] counters = new long[credentialIds.length];
+        int missing = 0;
+
+        for(int i = 0; i < credentialIds.length; i++){
+            counters[i] = cached(credentialIds[i]);
+
+            if(counters[i] == NOT_CACHED){
+                missing++;
+            }
+        }
+
+        if(missing == 0){
+            return counters;
+        }
+
+        long[] missingIds = new long[missing];
+
+        for(int i = 0, j = 0; i < credentialIds.length; i++){
+            if(counters[i] == NOT_CACHED){
+                missingIds[j++] = credentialIds[i];
+            }
+        }
+
+        long[] loaded = store.getCounters(missingIds);
+        long now = System.nanoTime();
+
+        for(int i = 0, j = 0; i < credentialIds.length; i++){
+            if(counters[i] == NOT_CACHED){
+                long counter = loaded[j++];
+                counters[i] = counter;
+                cache(credentialIds[i], counter, now);
+            }
+        }
+
+        return counters;
+    }
+
+    /**
+     * Reads the moving factor from the store and caches it
+     * @param credentialId The credential
+     * @return the stored moving factor
+     */
+    private long load(long credentialId){
+        long counter = store.getCounter(credentialId);
+        cache(credentialId, counter, System.nanoTime());
+        return counter;
+    }
+
+    /**
+     * Caches a moving factor unless a greater one is cached (by a concurrent validation)
+     * @param credentialId The credential
+     * @param counter The moving factor
+     * @param now The current time, see {@link System#nanoTime()}
+     */
+    private void cache(long credentialId, long counter, long now){
+        cache.getAndUpdate(credentialId, NOT_CACHED, now,
+                value -> value == NOT_CACHED || Long.compareUnsigned(counter, value) > 0 ? counter : value);
+    }
+}
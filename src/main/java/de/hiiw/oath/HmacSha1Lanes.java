@@ -0,0 +1,344 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * HMAC-SHA1 of 8 byte moving factors for several independent secrets at once.
+ * The SHA-1 state and message schedule are stored lane interleaved (structure of arrays). On Java 22 or newer
+ * with the module jdk.incubator.vector added (--add-modules jdk.incubator.vector) and 256 bit vectors the compression
+ * runs every round as one vector operation over all lanes (HmacSha1VectorCompressor of the multi release jar).
+ * Otherwise the schedule is expanded for all lanes in flat loops which the JIT can vectorize and the rounds run per lane.
+ * With the precomputed inner and outer pad state of a secret an otp costs exactly two compressions and no allocation.
+ * Instances are not thread safe, use {@link #get()}
+ */
+final class HmacSha1Lanes {
+    /**
+     * Number of secrets computed at once
+     */
+    static final int LANES = 8;
+
+    /**
+     * Per thread instance
+     */
+    private static final ThreadLocal<HmacSha1Lanes> INSTANCE = ThreadLocal.withInitial(HmacSha1Lanes::new);
+
+    /**
+     * Initial SHA-1 state (FIPS 180-4, section 5.3.1)
+     */
+    private static final int[] IV = {0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476, 0xC3D2E1F0};
+
+    /**
+     * Bit length of the inner message: pad block and moving factor
+     */
+    private static final int INNER_LENGTH = (64 + 8) * 8;
+
+    /**
+     * Bit length of the outer message: pad block and inner hash
+     */
+    private static final int OUTER_LENGTH = (64 + 20) * 8;
+
+    /**
+     * Powers of ten used for truncating the hmac to the requested digits
+     */
+    private static final int[] DIGITS_POWER = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000};
+
+    /**
+     * Vector API compression or null if not available
+     */
+    private static final Compressor VECTOR_COMPRESSOR = loadVectorCompressor();
+
+    /**
+     * Message schedule, word t of lane l at t * LANES + l
+     */
+    private final int[] w = new int[80 * LANES];
+
+    /**
+     * Hash state, word j of lane l at j * LANES + l
+     */
+    private final int[] h = new int[5 * LANES];
+
+    /**
+     * Pad states of the loaded lanes
+     */
+    private final int[][] padStates = new int[LANES][];
+
+    private HmacSha1Lanes(){
+    }
+
+    /**
+     * @return the instance of the current thread
+     */
+    static HmacSha1Lanes get(){
+        return INSTANCE.get();
+    }
+
+    /**
+     * Computes the SHA-1 state after the inner and after the outer key pad of a secret (RFC 2104)
+     * @param secret The secret
+     * @return inner state (5 words) followed by the outer state (5 words)
+     */
+    int[] padState(byte[] secret){
+        byte[] key = secret;
+
+        if(key.length > 64){
+            try {
+                key = MessageDigest.getInstance("SHA-1").digest(secret);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new OATHException(OATHReturnCode.OATH_CRYPTO_ERROR);
+            }
+        }
+
+        int[] state = new int[10];
+
+        for(int pad = 0; pad < 2; pad++){
+            int xor = pad == 0 ? 0x36363636 : 0x5C5C5C5C;
+
+            for(int t = 0; t < 16; t++){
+                int word = 0;
+
+                for(int i = t * 4; i < t * 4 + 4; i++){
+                    word = word << 8 | (i < key.length ? key[i] & 0xFF : 0);
+                }
+
+                w[t * LANES] = word ^ xor;
+            }
+
+            for(int j = 0; j < 5; j++){
+                h[j * LANES] = IV[j];
+            }
+
+            compress();
+
+            for(int j = 0; j < 5; j++){
+                state[pad * 5 + j] = h[j * LANES];
+            }
+        }
+
+        if(key != secret){
+            Arrays.fill(key, (byte) 0);
+        }
+
+        Arrays.fill(w, 0);
+        Arrays.fill(h, 0);
+        return state;
+    }
+
+    /**
+     * Computes the otps of up to {@link #LANES} secrets
+     * @param padStates Pad states of the secrets, see {@link #padState(byte[])}
+     * @param movingFactors The counters
+     * @param offset Index of the first secret and counter
+     * @param count Number of secrets, at most {@link #LANES}
+     * @param digits Digits of the otps (6-8, not checked)
+     * @param otps receives the otps at the same indexes
+     */
+    void generate(int[][] padStates, long[] movingFactors, int offset, int count, int digits, int[] otps){
+        for(int l = 0; l < count; l++){
+            load(l, padStates[offset + l], movingFactors[offset + l]);
+        }
+
+        run(count, digits, otps, offset);
+    }
+
+    /**
+     * Computes the otps of up to {@link #LANES} consecutive counters of one secret
+     * @param padState Pad state of the secret, see {@link #padState(byte[])}
+     * @param movingFactor The first counter
+     * @param count Number of counters, at most {@link #LANES}
+     * @param digits Digits of the otps (6-8, not checked)
+     * @param otps receives the otps
+     * @param offset Index of the first otp
+     */
+    void generateRange(int[] padState, long movingFactor, int count, int digits, int[] otps, int offset){
+        for(int l = 0; l < count; l++){
+            load(l, padState, movingFactor + l);
+        }
+
+        run(count, digits, otps, offset);
+    }
+
+    /**
+     * Loads a lane with the inner pad state and the moving factor block
+     * @param l The lane
+     * @param padState Pad state of the secret
+     * @param movingFactor The counter
+     */
+    private void load(int l, int[] padState, long movingFactor){
+        padStates[l] = padState;
+
+        for(int j = 0; j < 5; j++){
+            h[j * LANES + l] = padState[j];
+        }
+
+        w[l] = (int) (movingFactor >>> 32);
+        w[LANES + l] = (int) movingFactor;
+        w[2 * LANES + l] = 0x80000000;
+
+        for(int t = 3; t < 15; t++){
+            w[t * LANES + l] = 0;
+        }
+
+        w[15 * LANES + l] = INNER_LENGTH;
+    }
+
+    /**
+     * Computes the inner and outer hash of the loaded lanes and truncates them
+     * @param count Number of loaded lanes
+     * @param digits Digits of the otps (6-8, not checked)
+     * @param otps receives the otps
+     * @param offset Index of the otp of the first lane
+     */
+    private void run(int count, int digits, int[] otps, int offset){
+        compress();
+
+        //Outer hash: pad state continued with the inner hash block
+        for(int l = 0; l < count; l++){
+            for(int j = 0; j < 5; j++){
+                w[j * LANES + l] = h[j * LANES + l];
+                h[j * LANES + l] = padStates[l][5 + j];
+            }
+
+            w[5 * LANES + l] = 0x80000000;
+
+            for(int t = 6; t < 15; t++){
+                w[t * LANES + l] = 0;
+            }
+
+            w[15 * LANES + l] = OUTER_LENGTH;
+        }
+
+        compress();
+        Arrays.fill(padStates, null);
+
+        //Dynamic truncation (RFC 4226, section 5.3)
+        for(int l = 0; l < count; l++){
+            int truncation = h[4 * LANES + l] & 0x0F;
+            int word = truncation >>> 2;
+            long pair = (long) h[word * LANES + l] << 32 | (h[(word + 1) * LANES + l] & 0xFFFFFFFFL);
+            int binary = (int) (pair >>> (32 - 8 * (truncation & 3))) & 0x7FFFFFFF;
+
+            otps[offset + l] = binary % DIGITS_POWER[digits];
+        }
+
+        //The schedule holds the inner hash and the state the hmac, both derived from the key
+        Arrays.fill(w, 0);
+        Arrays.fill(h, 0);
+    }
+
+    /**
+     * @return true if the compression runs on the Vector API
+     */
+    static boolean isVectorized(){
+        return VECTOR_COMPRESSOR != null;
+    }
+
+    /**
+     * Loads the Vector API compression of the multi release jar
+     * @return the compression or null if the runtime is older than Java 22, the module jdk.incubator.vector
+     * is not added or the cpu has no 256 bit vectors
+     */
+    private static Compressor loadVectorCompressor(){
+        try {
+            return (Compressor) Class.forName("de.hiiw.oath.HmacSha1VectorCompressor").getMethod("create").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs the SHA-1 compression of the first 16 schedule words on the hash state of all lanes
+     */
+    private void compress(){
+        if(VECTOR_COMPRESSOR != null){
+            VECTOR_COMPRESSOR.compress(w, h);
+            return;
+        }
+
+        for(int t = 16; t < 80; t++){
+            for(int l = 0; l < LANES; l++){
+                w[t * LANES + l] = Integer.rotateLeft(w[(t - 3) * LANES + l] ^ w[(t - 8) * LANES + l]
+                        ^ w[(t - 14) * LANES + l] ^ w[(t - 16) * LANES + l], 1);
+            }
+        }
+
+        //The rounds are a dependency chain, run them per lane with the working variables in registers
+        for(int l = 0; l < LANES; l++){
+            int a = h[l], b = h[LANES + l], c = h[2 * LANES + l], d = h[3 * LANES + l], e = h[4 * LANES + l];
+
+            for(int t = 0; t < 20; t++){
+                int temp = Integer.rotateLeft(a, 5) + ((b & c) | (~b & d)) + e + 0x5A827999 + w[t * LANES + l];
+                e = d;
+                d = c;
+                c = Integer.rotateLeft(b, 30);
+                b = a;
+                a = temp;
+            }
+
+            for(int t = 20; t < 40; t++){
+                int temp = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + 0x6ED9EBA1 + w[t * LANES + l];
+                e = d;
+                d = c;
+                c = Integer.rotateLeft(b, 30);
+                b = a;
+                a = temp;
+            }
+
+            for(int t = 40; t < 60; t++){
+                int temp = Integer.rotateLeft(a, 5) + ((b & c) | (b & d) | (c & d)) + e + 0x8F1BBCDC + w[t * LANES + l];
+                e = d;
+                d = c;
+                c = Integer.rotateLeft(b, 30);
+                b = a;
+                a = temp;
+            }
+
+            for(int t = 60; t < 80; t++){
+                int temp = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + 0xCA62C1D6 + w[t * LANES + l];
+                e = d;
+                d = c;
+                c = Integer.rotateLeft(b, 30);
+                b = a;
+                a = temp;
+            }
+
+            h[l] += a;
+            h[LANES + l] += b;
+            h[2 * LANES + l] += c;
+            h[3 * LANES + l] += d;
+            h[4 * LANES + l] += e;
+        }
+    }
+
+    /**
+     * SHA-1 compression of all lanes
+     */
+    interface Compressor {
+        /**
+         * Runs the SHA-1 compression of the first 16 schedule words on the hash state of all lanes
+         * @param w Message schedule, word t of lane l at t * LANES + l
+         * @param h Hash state, word j of lane l at j * LANES + l
+         */
+        void compress(int[] w, int[] h);
+    }
+}
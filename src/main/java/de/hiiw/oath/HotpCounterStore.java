@@ -0,0 +1,875 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Persistent moving factors (counters) of HMAC-based one time token credentials.
+ * A valid otp atomically advances the counter of its credential past the otp, so every otp is accepted once,
+ * even if the same credential is validated concurrently. Lost counters can be resynchronized with
+ * two consecutive otps and a large look-ahead window (RFC 4226, section 7.4).
+ * <p>
+ * The counters are stored in a memory-mapped hash table, every update is appended to a journal before
+ * the table is changed, with sync the journal is forced before the update returns, outside of the stripe lock
+ * and shared by concurrent updates. On {@link #checkpoint()} (and automatically once the journal gets large) the table
+ * is forced to disk and the journal is truncated, on open the journal left by a crash is replayed.
+ * Removed credentials leave a tombstone which is reused by the next insert probing over it, stripes with many
+ * tombstones are rehashed on checkpoint (journaled first, so a crash during the rehash is replayed as well).
+ * Credentials are identified by a long id, counters are unsigned and start at 0.
+ * As {@link CounterStore} it backs a {@link CounterValidator}, e.g. standing in for a shared store in tests.
+ * Instances are thread safe
+ */
+public final class HotpCounterStore implements CounterStore, AutoCloseable {
+    /**
+     * Magic number of the table file ("OATH")
+     */
+    private static final int MAGIC = 0x4F415448;
+
+    /**
+     * File format version
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the table header: magic, version, slots per stripe and padding
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Size of a slot: credential id and state
+     */
+    private static final int SLOT_SIZE = 16;
+
+    /**
+     * Size of a journal record: credential id, state and checksum
+     */
+    private static final int RECORD_SIZE = 24;
+
+    /**
+     * Number of stripes, power of two. Every stripe owns a region of the table and has its own lock
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * State of a slot which was never used
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * State of a removed credential (tombstone), the slot is reused by the next insert probing over it.
+     * A journal record with the state {@link #EMPTY} clears the stripe given as credential id
+     */
+    private static final long REMOVED = 1;
+
+    /**
+     * Offset of the counter in a live state, counters of 2^64-2 (unsigned) or more cannot be stored
+     */
+    private static final long LIVE = 2;
+
+    /**
+     * The wrapper used for validation
+     */
+    private final OATH oath;
+
+    /**
+     * Channel of the table file
+     */
+    private final FileChannel tableChannel;
+
+    /**
+     * The mapped table
+     */
+    private final MappedByteBuffer table;
+
+    /**
+     * Slots per stripe, power of two
+     */
+    private final int slotsPerStripe;
+
+    /**
+     * Channel of the journal
+     */
+    private final FileChannel journal;
+
+    /**
+     * Force the journal record of an update to disk before the update returns
+     */
+    private final boolean sync;
+
+    /**
+     * Locks of the stripes
+     */
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * Used slots (live or removed) per stripe, guarded by the lock of the stripe
+     */
+    private final int[] usedSlots = new int[STRIPES];
+
+    /**
+     * Live credentials per stripe, guarded by the lock of the stripe
+     */
+    private final int[] liveSlots = new int[STRIPES];
+
+    /**
+     * Record buffer per stripe, guarded by the lock of the stripe
+     */
+    private final ByteBuffer[] records = new ByteBuffer[STRIPES];
+
+    /**
+     * Updates hold the read lock, checkpoints the write lock
+     */
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    /**
+     * Number of records in the journal
+     */
+    private final AtomicLong journalRecords = new AtomicLong();
+
+    /**
+     * Sequence number of the last record appended to the journal
+     */
+    private final AtomicLong appendedRecords = new AtomicLong();
+
+    /**
+     * Sequence number up to which the journal is forced to disk, written under forceLock or the write lock
+     */
+    private volatile long forcedRecords;
+
+    /**
+     * Held while forcing the journal, updates waiting for it are covered by the force of the current holder
+     */
+    private final Object forceLock = new Object();
+
+    /**
+     * Set if a stripe ran out of empty slots because of tombstones, the next update checkpoints and rehashes it
+     */
+    private volatile boolean compactionNeeded;
+
+    /**
+     * Set once closed, guarded by the checkpoint lock
+     */
+    private boolean closed;
+
+    private HotpCounterStore(OATH oath, FileChannel tableChannel, MappedByteBuffer table, int slotsPerStripe, FileChannel journal, boolean sync){
+        this.oath = oath;
+        this.tableChannel = tableChannel;
+        this.table = table;
+        this.slotsPerStripe = slotsPerStripe;
+        this.journal = journal;
+        this.sync = sync;
+
+        for(int i = 0; i < STRIPES; i++){
+            locks[i] = new Object();
+            records[i] = ByteBuffer.allocate(RECORD_SIZE);
+        }
+    }
+
+    /**
+     * Opens a counter store, creates it if the file does not exist. The journal is stored next to the file
+     * (file name with the suffix .journal) and replayed if it is not empty
+     * @param oath The wrapper used for validation
+     * @param file The table file
+     * @param capacity Number of credentials a new table can hold, ignored if the table exists. The stripes are sized for
+     *                 the expected maximum load of well distributed credential ids
+     * @param sync true to force every update to disk before the otp is accepted, otherwise updates
+     *             survive a crash of the process but not necessarily of the operating system.
+     *             The journal is forced outside of the stripe locks, concurrent updates share one force (group commit)
+     * @return the opened store
+     * @throws IOException if the files cannot be opened or are not a counter store
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public static HotpCounterStore open(OATH oath, Path file, int capacity, boolean sync) throws IOException {
+        if(capacity <= 0){
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+
+        FileChannel tableChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel journal = null;
+
+        try {
+            int slotsPerStripe;
+
+            if(tableChannel.size() == 0){
+                //Hashing does not fill the stripes evenly, every stripe has room for the mean load plus five standard
+                //deviations and a margin for small capacities. At most 3/4 of the slots are used, rounded up to a power of two
+                double mean = (double) capacity / STRIPES;
+                long load = (long) Math.ceil(mean + 5 * Math.sqrt(mean)) + 8;
+                long slots = (load * 4 + 2) / 3;
+                slotsPerStripe = Integer.highestOneBit((int) Math.min(1 << 30, Math.max(4, slots) * 2 - 1));
+
+                if((long) slotsPerStripe * STRIPES * SLOT_SIZE > Integer.MAX_VALUE - HEADER_SIZE){
+                    throw new IllegalArgumentException("Capacity too large, got " + capacity);
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(slotsPerStripe).flip();
+                writeFully(tableChannel, header, 0);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+                while(header.hasRemaining() && tableChannel.read(header, header.position()) >= 0);
+
+                header.flip();
+
+                if(header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION){
+                    throw new IOException("Not a counter store: " + file);
+                }
+
+                slotsPerStripe = header.getInt();
+
+                if(Integer.bitCount(slotsPerStripe) != 1 || (long) slotsPerStripe * STRIPES * SLOT_SIZE > Integer.MAX_VALUE - HEADER_SIZE){
+                    throw new IOException("Corrupted counter store: " + file);
+                }
+            }
+
+            MappedByteBuffer table = tableChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotsPerStripe * STRIPES * SLOT_SIZE);
+            journal = FileChannel.open(file.resolveSibling(file.getFileName() + ".journal"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            HotpCounterStore store = new HotpCounterStore(oath, tableChannel, table, slotsPerStripe, journal, sync);
+            store.load();
+            return store;
+        } catch (IOException | RuntimeException e){
+            tableChannel.close();
+
+            if(journal != null){
+                journal.close();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the counter of a credential
+     * @param credentialId The credential
+     * @return the next accepted moving factor, 0 for unknown credentials
+     */
+    @Override
+    public long getCounter(long credentialId){
+        long hash = StripedLongMap.mix(credentialId);
+        int stripe = (int) (hash >>> 58);
+
+        synchronized (locks[stripe]){
+            int slot = find(stripe, credentialId, hash);
+            long state = slot < 0 ? EMPTY : table.getLong(slot + 8);
+            return state == EMPTY || state == REMOVED ? 0 : state - LIVE;
+        }
+    }
+
+    /**
+     * Sets the counter of a credential, e.g. on enrollment or by an administrator
+     * @param credentialId The credential
+     * @param counter The next accepted moving factor
+     * @throws OATHException with OATH_INVALID_COUNTER if the counter is 2^64-2 (unsigned) or more
+     * @throws IllegalStateException if the store is full or closed
+     * @throws UncheckedIOException if the journal cannot be written
+     */
+    public void setCounter(long credentialId, long counter){
+        update(credentialId, -1, counter, false);
+    }
+
+    /**
+     * Sets the counter of a credential if it still has the expected value
+     * @param credentialId The credential
+     * @param expected The expected counter, 0 for unknown credentials
+     * @param next The new counter
+     * @return true if the counter was set
+     * @throws OATHException with OATH_INVALID_COUNTER if the new counter is 2^64-2 (unsigned) or more
+     * @throws IllegalStateException if the store is full or closed
+     * @throws UncheckedIOException if the journal cannot be written
+     */
+    @Override
+    public boolean compareAndSet(long credentialId, long expected, long next){
+        return update(credentialId, expected, next, true);
+    }
+
+    /**
+     * Removes a credential, its counter starts at 0 again
+     * @param credentialId The credential
+     * @return true if the credential was present
+     * @throws IllegalStateException if the store is closed
+     * @throws UncheckedIOException if the journal cannot be written
+     */
+    public boolean remove(long credentialId){
+        long hash = StripedLongMap.mix(credentialId);
+        int stripe = (int) (hash >>> 58);
+        long sequence = 0;
+
+        checkpointLock.readLock().lock();
+        try {
+            ensureOpen();
+
+            synchronized (locks[stripe]){
+                int slot = find(stripe, credentialId, hash);
+
+                if(slot >= 0 && table.getLong(slot + 8) != REMOVED){
+                    sequence = write(stripe, slot, credentialId, REMOVED);
+                    liveSlots[stripe]--;
+                }
+            }
+
+            awaitForced(sequence);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+
+        checkpointIfNeeded();
+        return sequence != 0;
+    }
+
+    /**
+     * Validates an otp against the counter of a credential and advances the counter past the otp
+     * @param credentialId The credential
+     * @param key The prepared secret
+     * @param window Number of otps after the counter to check (look-ahead)
+     * @param otp The otp to validate
+     * @return the position of the otp relative to the counter, {@link OATH#INVALID_POSITION} if the otp is invalid
+     * or was already used, {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws IllegalStateException if the store is full or closed
+     * @throws UncheckedIOException if the journal cannot be written
+     */
+    public int validatePosition(long credentialId, OATHKey key, long window, String otp){
+        long counter = getCounter(credentialId);
+        int otpPos = oath.validateHotpPosition(key, counter, window, otp);
+
+        //A concurrent validation may have used the otp in the meantime
+        if(OATH.isValidPosition(otpPos) && !update(credentialId, counter + otpPos, counter + otpPos + 1, false)){
+            return OATH.INVALID_POSITION;
+        }
+
+        return otpPos;
+    }
+
+    /**
+     * Validates an otp against the counter of a credential and advances the counter past the otp
+     * @param credentialId The credential
+     * @param secret The secret
+     * @param window Number of otps after the counter to check (look-ahead)
+     * @param otp The otp to validate
+     * @return the position of the otp relative to the counter, {@link OATH#INVALID_POSITION} if the otp is invalid
+     * or was already used, {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws IllegalStateException if the store is full or closed
+     * @throws UncheckedIOException if the journal cannot be written
+     */
+    public int validatePosition(long credentialId, byte[] secret, long window, String otp){
+        return validatePosition(credentialId, new OATHKey(secret), window, otp);
+    }
+
+    /**
+     * Resynchronizes the counter of a credential with two consecutive otps (RFC 4226, section 7.4),
+     * searches the look-ahead window for the first otp which is followed by the second one
+     * and advances the counter past the second otp
+     * @param credentialId The credential
+     * @param key The prepared secret
+     * @param lookAhead Number of otps after the counter to check, usually much larger than the validation window
+     * @param otp1 The first otp
+     * @param otp2 The otp following the first one
+     * @return the position of the first otp relative to the counter, {@link OATH#INVALID_POSITION} if no
+     * consecutive otps were found or they were already used, {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws IllegalArgumentException if lookAhead is negative
+     * @throws IllegalStateException if the store is full or closed
+     * @throws UncheckedIOException if the journal cannot be written
+     */
+    public int resync(long credentialId, OATHKey key, int lookAhead, String otp1, String otp2){
+        if(lookAhead < 0){
+            throw new IllegalArgumentException("Look-ahead must not be negative, got " + lookAhead);
+        }
+
+        if(otp1.length() != otp2.length()){
+            return OATH.INVALID_POSITION;
+        }
+
+        long counter = getCounter(credentialId);
+        long end = counter + lookAhead;
+
+        //The first otp may occur more than once in a large window, continue after every candidate
+        for(long start = counter; Long.compareUnsigned(start - counter, lookAhead) <= 0;){
+            int otpPos = oath.validateHotpPosition(key, start, end - start, otp1);
+
+            if(!OATH.isValidPosition(otpPos)){
+                return otpPos;
+            }
+
+            long found = start + otpPos;
+
+            if(oath.validateHotpPosition(key, found + 1, 0, otp2) == 0){
+                return update(credentialId, found, found + 2, false) ? (int) (found - counter) : OATH.INVALID_POSITION;
+            }
+
+            start = found + 1;
+        }
+
+        return OATH.INVALID_POSITION;
+    }
+
+    /**
+     * Resynchronizes the counter of a credential with two consecutive otps, see {@link #resync(long, OATHKey, int, String, String)}
+     * @param credentialId The credential
+     * @param secret The secret
+     * @param lookAhead Number of otps after the counter to check, usually much larger than the validation window
+     * @param otp1 The first otp
+     * @param otp2 The otp following the first one
+     * @return the position of the first otp relative to the counter, {@link OATH#INVALID_POSITION} if no
+     * consecutive otps were found or they were already used, {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    public int resync(long credentialId, byte[] secret, int lookAhead, String otp1, String otp2){
+        return resync(credentialId, new OATHKey(secret), lookAhead, otp1, otp2);
+    }
+
+    /**
+     * @return number of stored credentials
+     */
+    public int size(){
+        int size = 0;
+
+        for(int i = 0; i < STRIPES; i++){
+            synchronized (locks[i]){
+                size += liveSlots[i];
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Forces the table to disk and truncates the journal
+     * @throws IOException if the table cannot be forced or the journal cannot be truncated
+     * @throws IllegalStateException if the store is closed
+     */
+    public void checkpoint() throws IOException {
+        checkpointLock.writeLock().lock();
+        try {
+            ensureOpen();
+            forceAndTruncate();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checkpoints and closes the files, does nothing if already closed
+     * @throws IOException if the checkpoint fails or the files cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        checkpointLock.writeLock().lock();
+        try {
+            if(closed){
+                return;
+            }
+
+            closed = true;
+
+            try {
+                forceAndTruncate();
+            } finally {
+                try {
+                    journal.close();
+                } finally {
+                    tableChannel.close();
+                }
+            }
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the counter of a credential if the first counter is not used yet
+     * @param credentialId The credential
+     * @param first The first counter which is consumed, -1 (unsigned maximum) to set the counter unconditionally
+     * @param next The new counter
+     * @param exact true to set the counter only if it equals first
+     * @return true if the counter was set, false if the stored counter is greater than (or with exact not equal to) first
+     * @throws OATHException with OATH_INVALID_COUNTER if next would wrap onto {@link #EMPTY} or {@link #REMOVED}
+     */
+    private boolean update(long credentialId, long first, long next, boolean exact){
+        if(Long.compareUnsigned(next, -LIVE) >= 0){
+            throw new OATHException(OATHReturnCode.OATH_INVALID_COUNTER);
+        }
+
+        long hash = StripedLongMap.mix(credentialId);
+        int stripe = (int) (hash >>> 58);
+        boolean updated;
+        long sequence = 0;
+
+        checkpointLock.readLock().lock();
+        try {
+            ensureOpen();
+
+            synchronized (locks[stripe]){
+                int slot = find(stripe, credentialId, hash);
+                long state = slot < 0 ? EMPTY : table.getLong(slot + 8);
+                long counter = state == EMPTY || state == REMOVED ? 0 : state - LIVE;
+                updated = exact ? counter == first : Long.compareUnsigned(counter, first) <= 0;
+
+                if(updated){
+                    if(slot < 0){
+                        slot = insert(stripe, credentialId, hash);
+                    }
+
+                    sequence = write(stripe, slot, credentialId, next + LIVE);
+
+                    if(state == EMPTY || state == REMOVED){
+                        liveSlots[stripe]++;
+                    }
+                }
+            }
+
+            //Other threads may read the new counter before it is durable, the otp is only accepted once it is
+            awaitForced(sequence);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+
+        checkpointIfNeeded();
+        return updated;
+    }
+
+    /**
+     * Appends the new state to the journal, then updates the slot. Caller holds the read lock and the stripe lock
+     * and waits for {@link #awaitForced(long)} after releasing the stripe lock
+     * @param stripe The stripe
+     * @param slot Offset of the slot in the table
+     * @param credentialId The credential
+     * @param state The new state
+     * @return sequence number of the journal record
+     * @throws UncheckedIOException if the journal cannot be written
+     */
+    private long write(int stripe, int slot, long credentialId, long state){
+        ByteBuffer record = records[stripe];
+        record.clear();
+        record.putLong(credentialId).putLong(state).putLong(checksum(credentialId, state)).flip();
+
+        try {
+            //Writes of the channel are serialized, the records of a credential are ordered by its stripe lock
+            while(record.hasRemaining()){
+                journal.write(record);
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+
+        journalRecords.incrementAndGet();
+        table.putLong(slot, credentialId);
+        table.putLong(slot + 8, state);
+        return appendedRecords.incrementAndGet();
+    }
+
+    /**
+     * Forces the journal up to a record if sync is enabled (group commit): one thread forces every record
+     * appended so far, the threads queued behind it find their records forced already.
+     * Caller holds the read lock but no stripe lock
+     * @param sequence sequence number of the record, 0 for none
+     * @throws UncheckedIOException if the journal cannot be forced
+     */
+    private void awaitForced(long sequence){
+        if(!sync || forcedRecords >= sequence){
+            return;
+        }
+
+        synchronized (forceLock){
+            if(forcedRecords < sequence){
+                //Every record counted here was written before, so the force covers it
+                long appended = appendedRecords.get();
+
+                try {
+                    journal.force(false);
+                } catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+
+                forcedRecords = appended;
+            }
+        }
+    }
+
+    /**
+     * Checkpoints if the journal holds more records than the table has slots or a stripe needs a rehash
+     */
+    private void checkpointIfNeeded(){
+        if((journalRecords.get() < (long) slotsPerStripe * STRIPES && !compactionNeeded) || !checkpointLock.writeLock().tryLock()){
+            return;
+        }
+
+        try {
+            if(!closed && (journalRecords.get() >= (long) slotsPerStripe * STRIPES || compactionNeeded)){
+                forceAndTruncate();
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the table to disk and truncates the journal, then rehashes the stripes with many tombstones.
+     * Caller holds the write lock
+     */
+    private void forceAndTruncate() throws IOException {
+        table.force();
+        journal.truncate(0);
+        journal.force(true);
+        journalRecords.set(0);
+        forcedRecords = appendedRecords.get();
+
+        boolean compacted = false;
+        compactionNeeded = false;
+
+        for(int stripe = 0; stripe < STRIPES; stripe++){
+            if(needsCompaction(stripe)){
+                compact(stripe);
+                compacted = true;
+            }
+        }
+
+        if(compacted){
+            table.force();
+            journal.truncate(0);
+            journal.force(true);
+        }
+    }
+
+    /**
+     * Rehashes a stripe without its tombstones. A clear record and the live credentials are journaled
+     * and forced first, replaying them restores the stripe if the rewrite is interrupted. Caller holds the write lock
+     */
+    private void compact(int stripe) throws IOException {
+        synchronized (locks[stripe]){
+            ByteBuffer live = ByteBuffer.allocate((liveSlots[stripe] + 1) * RECORD_SIZE);
+            live.putLong(stripe).putLong(EMPTY).putLong(checksum(stripe, EMPTY));
+
+            for(int i = 0; i < slotsPerStripe; i++){
+                int slot = slotOffset(stripe, i);
+                long state = table.getLong(slot + 8);
+
+                if(state != EMPTY && state != REMOVED){
+                    long credentialId = table.getLong(slot);
+                    live.putLong(credentialId).putLong(state).putLong(checksum(credentialId, state));
+                }
+            }
+
+            live.flip();
+
+            while(live.hasRemaining()){
+                journal.write(live);
+            }
+
+            journal.force(false);
+            clear(stripe);
+            live.position(RECORD_SIZE);
+
+            while(live.hasRemaining()){
+                replay(live.getLong(), live.getLong());
+                live.getLong();
+            }
+        }
+    }
+
+    /**
+     * @return true if the tombstones of a stripe exceed an eighth of its slots or take slots the stripe runs short of
+     */
+    private boolean needsCompaction(int stripe){
+        int tombstones = usedSlots[stripe] - liveSlots[stripe];
+        return tombstones > slotsPerStripe / 8 || (tombstones > 0 && usedSlots[stripe] >= slotsPerStripe / 4 * 3);
+    }
+
+    /**
+     * Empties all slots of a stripe
+     */
+    private void clear(int stripe){
+        for(int i = 0; i < slotsPerStripe; i++){
+            table.putLong(slotOffset(stripe, i), 0);
+            table.putLong(slotOffset(stripe, i) + 8, EMPTY);
+        }
+
+        usedSlots[stripe] = 0;
+        liveSlots[stripe] = 0;
+    }
+
+    /**
+     * Counts the used slots and replays the journal, stops at the first torn record
+     */
+    private void load() throws IOException {
+        for(int stripe = 0; stripe < STRIPES; stripe++){
+            for(int i = 0; i < slotsPerStripe; i++){
+                long state = table.getLong(slotOffset(stripe, i) + 8);
+
+                if(state != EMPTY){
+                    usedSlots[stripe]++;
+                    liveSlots[stripe] += state == REMOVED ? 0 : 1;
+                }
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+        long end = journal.size() - journal.size() % RECORD_SIZE;
+
+        replay:
+        for(long position = 0; position < end; position += buffer.limit()){
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+            while(buffer.hasRemaining() && journal.read(buffer, position + buffer.position()) >= 0);
+
+            buffer.flip();
+
+            while(buffer.remaining() >= RECORD_SIZE){
+                long credentialId = buffer.getLong();
+                long state = buffer.getLong();
+
+                if(buffer.getLong() != checksum(credentialId, state) || (state == EMPTY && (credentialId < 0 || credentialId >= STRIPES))){
+                    //Torn record, the update was never accepted and nothing after it
+                    break replay;
+                }
+
+                if(state == EMPTY){
+                    clear((int) credentialId);
+                } else {
+                    replay(credentialId, state);
+                }
+            }
+        }
+
+        forceAndTruncate();
+    }
+
+    /**
+     * Applies a journal record to the table
+     */
+    private void replay(long credentialId, long state){
+        long hash = StripedLongMap.mix(credentialId);
+        int stripe = (int) (hash >>> 58);
+        int slot = find(stripe, credentialId, hash);
+        long previous = slot < 0 ? EMPTY : table.getLong(slot + 8);
+
+        if(slot < 0){
+            slot = insert(stripe, credentialId, hash);
+        }
+
+        table.putLong(slot, credentialId);
+        table.putLong(slot + 8, state);
+        liveSlots[stripe] += (previous == EMPTY || previous == REMOVED ? 0 : -1) + (state == REMOVED ? 0 : 1);
+    }
+
+    /**
+     * @return offset of the slot of the credential or -1 if missing
+     */
+    private int find(int stripe, long credentialId, long hash){
+        int mask = slotsPerStripe - 1;
+
+        for(int i = (int) hash & mask, probes = 0; probes < slotsPerStripe; i = (i + 1) & mask, probes++){
+            int slot = slotOffset(stripe, i);
+            long state = table.getLong(slot + 8);
+
+            if(state == EMPTY){
+                return -1;
+            } else if(table.getLong(slot) == credentialId){
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reserves a slot for a missing credential, the first tombstone on its probe sequence or an empty slot,
+     * the slot is written by the caller
+     * @return offset of the slot
+     * @throws IllegalStateException if the stripe is full
+     */
+    private int insert(int stripe, long credentialId, long hash){
+        if(liveSlots[stripe] >= slotsPerStripe / 4 * 3){
+            throw new IllegalStateException("Counter store is full, " + liveSlots[stripe] + " credentials in stripe " + stripe);
+        }
+
+        int mask = slotsPerStripe - 1;
+        int i = (int) hash & mask;
+        long state;
+
+        while((state = table.getLong(slotOffset(stripe, i) + 8)) != EMPTY){
+            //The credential is missing, so the tombstone can take it without breaking other probe sequences
+            if(state == REMOVED){
+                return slotOffset(stripe, i);
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        //At least one slot stays empty so lookups of missing credentials terminate
+        if(usedSlots[stripe] >= slotsPerStripe - 1){
+            compactionNeeded = true;
+            throw new IllegalStateException("Counter store stripe " + stripe + " has no empty slot left until the next checkpoint");
+        }
+
+        usedSlots[stripe]++;
+
+        if(needsCompaction(stripe)){
+            compactionNeeded = true;
+        }
+
+        return slotOffset(stripe, i);
+    }
+
+    /**
+     * @return offset of a slot in the table
+     */
+    private int slotOffset(int stripe, int index){
+        return HEADER_SIZE + (stripe * slotsPerStripe + index) * SLOT_SIZE;
+    }
+
+    /**
+     * @throws IllegalStateException if the store is closed
+     */
+    private void ensureOpen(){
+        if(closed){
+            throw new IllegalStateException("Counter store is closed");
+        }
+    }
+
+    /**
+     * @return checksum of a journal record
+     */
+    private static long checksum(long credentialId, long state){
+        return StripedLongMap.mix(credentialId ^ StripedLongMap.mix(state ^ MAGIC));
+    }
+
+    /**
+     * Writes the whole buffer at position
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+    }
+}
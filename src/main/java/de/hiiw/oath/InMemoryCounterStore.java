@@ -0,0 +1,61 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counter store keeping the counters in process, for a single node or tests.
+ * The counters are not bounded and not persisted. Instances are thread safe
+ */
+public class InMemoryCounterStore implements CounterStore {
+    private final ConcurrentHashMap<Long, Long> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public long getCounter(long credentialId){
+        return counters.getOrDefault(credentialId, 0L);
+    }
+
+    @Override
+    public boolean compareAndSet(long credentialId, long expected, long next){
+        if(expected == 0){
+            //Unknown credentials have the counter 0
+            Long previous = counters.putIfAbsent(credentialId, next);
+            return previous == null || previous == 0 && counters.replace(credentialId, previous, next);
+        }
+
+        return counters.replace(credentialId, expected, next);
+    }
+
+    /**
+     * Removes a credential, its counter starts at 0 again
+     * @param credentialId The credential
+     */
+    public void remove(long credentialId){
+        counters.remove(credentialId);
+    }
+
+    /**
+     * @return number of stored credentials
+     */
+    public int size(){
+        return counters.size();
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java engine implementing RFC 4226 (HOTP) and RFC 6238 (TOTP) with {@link javax.crypto.Mac},
+ * mirrors the behaviour of liboath and needs no native library
+ */
+public class JavaOATHEngine implements OATHEngine {
+    /**
+     * Powers of ten used for truncating the hmac to the requested digits
+     */
+    private static final int[] DIGITS_POWER = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000};
+
+    @Override
+    public String checkVersion(String requiredVersion){
+        return requiredVersion == null || compareVersion(requiredVersion, LibOATH.OATH_VERSION) <= 0 ? LibOATH.OATH_VERSION : null;
+    }
+
+    @Override
+    public String strError(OATHReturnCode errorCode){
+        return errorCode.error;
+    }
+
+    @Override
+    public String strErrorName(OATHReturnCode errorCode){
+        return errorCode.name();
+    }
+
+    @Override
+    public String totpGenerate(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        return totpGenerate(new OATHKey(secret), unixTimestamp, timeStepSize, startOffset, digits, flag);
+    }
+
+    @Override
+    public String totpGenerate(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        return OATH.formatOtp(generate(key::hmac, OATH.timeStep(unixTimestamp, timeStepSize, startOffset), digits, flag), digits);
+    }
+
+    @Override
+    public String totpGenerate(ByteBuffer secret, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        return OATH.formatOtp(generate(inPlace(secret), OATH.timeStep(unixTimestamp, timeStepSize, startOffset), digits, flag), digits);
+    }
+
+    @Override
+    public int totpValidatePosition(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        return totpValidatePosition(new OATHKey(secret), unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+    }
+
+    @Override
+    public int totpValidatePosition(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        return totpValidatePosition(key::hmac, unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+    }
+
+    @Override
+    public int totpValidatePosition(ByteBuffer secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        return totpValidatePosition(inPlace(secret), unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+    }
+
+    @Override
+    public int totpValidatePosition(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, int otp, int digits){
+        return totpValidatePosition(key::hmac, unixTimestamp, timeStepSize, startOffset, window, flag, otp, digits);
+    }
+
+    @Override
+    public String hotpGenerate(byte[] secret, long movingFactor, int digits, long truncationOffset){
+        return hotpGenerate(new OATHKey(secret), movingFactor, digits, truncationOffset);
+    }
+
+    @Override
+    public String hotpGenerate(OATHKey key, long movingFactor, int digits, long truncationOffset){
+        //liboath ignores the truncation offset and always uses dynamic truncation
+        return OATH.formatOtp(generate(key::hmac, movingFactor, digits, OATHTotpFlag.OATH_TOTP_HMAC_SHA1), digits);
+    }
+
+    @Override
+    public String hotpGenerate(ByteBuffer secret, long movingFactor, int digits, long truncationOffset){
+        return OATH.formatOtp(generate(inPlace(secret), movingFactor, digits, OATHTotpFlag.OATH_TOTP_HMAC_SHA1), digits);
+    }
+
+    @Override
+    public int hotpValidatePosition(byte[] secret, long startMovingFactor, long window, String otp){
+        return hotpValidatePosition(new OATHKey(secret), startMovingFactor, window, otp);
+    }
+
+    @Override
+    public int hotpValidatePosition(OATHKey key, long startMovingFactor, long window, String otp){
+        return hotpValidatePosition(key::hmac, startMovingFactor, window, otp);
+    }
+
+    @Override
+    public int hotpValidatePosition(ByteBuffer secret, long startMovingFactor, long window, String otp){
+        return hotpValidatePosition(inPlace(secret), startMovingFactor, window, otp);
+    }
+
+    @Override
+    public int hotpValidatePosition(OATHKey key, long startMovingFactor, long window, int otp, int digits){
+        return hotpValidatePosition(key::hmac, startMovingFactor, window, otp, digits);
+    }
+
+    /**
+     * Validates a time based one time token, see {@link OATH#validateTotpPosition(byte[], long, int, long, int, OATHTotpFlag, String)}
+     */
+    private static int totpValidatePosition(Hmac hmac, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        if(!isValidDigits(otp.length())){
+            return OATH.INVALID_DIGITS_POSITION;
+        }
+
+        int value = OATH.parseOtp(otp);
+
+        return value < 0 ? OATH.INVALID_POSITION : totpValidatePosition(hmac, unixTimestamp, timeStepSize, startOffset, window, flag, value, otp.length());
+    }
+
+    /**
+     * Validates a numeric time based one time token, see {@link OATH#validateTotpPosition(OATHKey, long, int, long, int, OATHTotpFlag, int, int)}
+     */
+    private static int totpValidatePosition(Hmac hmac, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, int otp, int digits){
+        if(!isValidDigits(digits)){
+            return OATH.INVALID_DIGITS_POSITION;
+        }
+
+        if(otp < 0 || otp >= DIGITS_POWER[digits]){
+            return OATH.INVALID_POSITION;
+        }
+
+        long stepSize = timeStepSize == 0 ? LibOATH.OATH_TOTP_DEFAULT_TIME_STEP_SIZE : Integer.toUnsignedLong(timeStepSize);
+
+        //Search outward from the current step (nearest first) like liboath does, but compare integers instead of strings
+        for(long iter = 0; iter <= Integer.toUnsignedLong(window); iter++){
+            if(truncate(hmac, OATH.timeStep(unixTimestamp + iter * stepSize, timeStepSize, startOffset), digits, flag) == otp){
+                return (int) iter;
+            }
+
+            if(iter > 0 && truncate(hmac, OATH.timeStep(unixTimestamp - iter * stepSize, timeStepSize, startOffset), digits, flag) == otp){
+                return (int) -iter;
+            }
+        }
+
+        return OATH.INVALID_POSITION;
+    }
+
+    /**
+     * Validates a HMAC-based one time token, see {@link OATH#validateHotpPosition(byte[], long, long, String)}
+     */
+    private static int hotpValidatePosition(Hmac hmac, long startMovingFactor, long window, String otp){
+        if(!isValidDigits(otp.length())){
+            return OATH.INVALID_DIGITS_POSITION;
+        }
+
+        int value = OATH.parseOtp(otp);
+
+        return value < 0 ? OATH.INVALID_POSITION : hotpValidatePosition(hmac, startMovingFactor, window, value, otp.length());
+    }
+
+    /**
+     * Validates a numeric HMAC-based one time token, see {@link OATH#validateHotpPosition(OATHKey, long, long, int, int)}
+     */
+    private static int hotpValidatePosition(Hmac hmac, long startMovingFactor, long window, int otp, int digits){
+        if(!isValidDigits(digits)){
+            return OATH.INVALID_DIGITS_POSITION;
+        }
+
+        if(otp < 0 || otp >= DIGITS_POWER[digits]){
+            return OATH.INVALID_POSITION;
+        }
+
+        for(long iter = 0; Long.compareUnsigned(iter, window) <= 0; iter++){
+            if(truncate(hmac, startMovingFactor + iter, digits, OATHTotpFlag.OATH_TOTP_HMAC_SHA1) == otp){
+                return (int) iter;
+            }
+        }
+
+        return OATH.INVALID_POSITION;
+    }
+
+    /**
+     * @param secret The secret, read in place on every hmac
+     * @return hmac source reading the secret in place
+     */
+    private static Hmac inPlace(ByteBuffer secret){
+        return (flag, movingFactor) -> OATHKey.hmac(secret, flag, movingFactor);
+    }
+
+    /**
+     * Computes the otp of the moving factor
+     * @param hmac Source of the hmac
+     * @param movingFactor The counter
+     * @param digits Digits of the otp (6-8)
+     * @param flag Hash algorithm
+     * @return the otp as integer
+     * @throws OATHException if the digits are not supported or the hash algorithm is not available
+     */
+    private static int generate(Hmac hmac, long movingFactor, int digits, OATHTotpFlag flag){
+        return truncate(hmac, movingFactor, checkDigits(digits), flag);
+    }
+
+    /**
+     * Computes the hmac of the moving factor and truncates it (RFC 4226, section 5.3)
+     * @param hmac Source of the hmac
+     * @param movingFactor The counter
+     * @param digits Digits of the otp (6-8, not checked)
+     * @param flag Hash algorithm
+     * @return the otp as integer
+     * @throws OATHException if the hash algorithm is not available
+     */
+    private static int truncate(Hmac hmac, long movingFactor, int digits, OATHTotpFlag flag){
+        byte[] hash = hmac.hmac(flag, movingFactor);
+        int offset = hash[hash.length - 1] & 0x0F;
+        int binary = ((hash[offset] & 0x7F) << 24)
+                | ((hash[offset + 1] & 0xFF) << 16)
+                | ((hash[offset + 2] & 0xFF) << 8)
+                | (hash[offset + 3] & 0xFF);
+
+        return binary % DIGITS_POWER[digits];
+    }
+
+    /**
+     * @param digits Digits of the otp
+     * @return digits
+     * @throws OATHException with OATH_INVALID_DIGITS if digits is not 6, 7 or 8
+     */
+    private static int checkDigits(int digits){
+        if(!isValidDigits(digits)){
+            throw new OATHException(OATHReturnCode.OATH_INVALID_DIGITS);
+        }
+
+        return digits;
+    }
+
+    /**
+     * @param digits Digits of the otp
+     * @return true if digits is 6, 7 or 8
+     */
+    private static boolean isValidDigits(int digits){
+        return digits >= 6 && digits <= 8;
+    }
+
+    /**
+     * Compares two dotted version strings numerically
+     * @param a first version
+     * @param b second version
+     * @return negative, zero or positive if a is lower, equal or greater than b
+     */
+    private static int compareVersion(String a, String b){
+        String[] aParts = a.split("\\.");
+        String[] bParts = b.split("\\.");
+
+        for(int i = 0; i < Math.max(aParts.length, bParts.length); i++){
+            int aPart = i < aParts.length ? parseVersionPart(aParts[i]) : 0;
+            int bPart = i < bParts.length ? parseVersionPart(bParts[i]) : 0;
+
+            if(aPart != bPart){
+                return Integer.compare(aPart, bPart);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @param part part of a version string
+     * @return the leading number of the part
+     */
+    private static int parseVersionPart(String part){
+        int value = 0;
+
+        for(int i = 0; i < part.length() && Character.isDigit(part.charAt(i)); i++){
+            value = value * 10 + (part.charAt(i) - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * Source of the hmac of a moving factor, a prepared key or a secret read in place
+     */
+    private interface Hmac {
+        /**
+         * @param flag Hash algorithm
+         * @param movingFactor The counter
+         * @return the hmac of the big endian counter
+         */
+        byte[] hmac(OATHTotpFlag flag, long movingFactor);
+    }
+}
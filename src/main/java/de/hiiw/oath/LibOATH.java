@@ -30,6 +30,8 @@ import jnr.ffi.types.time_t;
 import jnr.ffi.types.u_int32_t;
 import jnr.ffi.types.u_int64_t;
 
+import java.nio.ByteBuffer;
+
 /**
  * JNI abstractions, for documentation look at the official liboath docs.
  * https://www.nongnu.org/oath-toolkit/liboath-api/liboath-oath.html
@@ -67,6 +69,14 @@ public interface LibOATH {
                                        @In @size_t long truncation_offset,
                                        @Out byte[] output_otp);
 
+    OATHReturnCode oath_hotp_generate(@In ByteBuffer secret,
+                                       @In @size_t int secret_length,
+                                       @In @u_int64_t long moving_factor,
+                                       @In @u_int32_t int digits,
+                                       @In boolean add_checksum,
+                                       @In @size_t long truncation_offset,
+                                       @Out byte[] output_otp);
+
     //Validate HOTP
     int oath_hotp_validate(@In byte[] secret,
                             @In @size_t long secret_length,
@@ -74,6 +84,12 @@ public interface LibOATH {
                             @In @size_t long window,
                             @In String otp);
 
+    int oath_hotp_validate(@In ByteBuffer secret,
+                            @In @size_t long secret_length,
+                            @In @u_int64_t long start_moving_factor,
+                            @In @size_t long window,
+                            @In String otp);
+
     //Generate time based otp tokens
     OATHReturnCode oath_totp_generate(@In byte[] secret,
                                       @In @size_t long secret_length,
@@ -92,6 +108,15 @@ public interface LibOATH {
                                        @In OATHTotpFlag flags,
                                        @Out byte[] output_otp);
 
+    OATHReturnCode oath_totp_generate2(@In ByteBuffer secret,
+                                       @In @size_t long secret_length,
+                                       @In @time_t long now,
+                                       @In @u_int32_t int time_step_size,
+                                       @In @time_t long start_offset,
+                                       @In @u_int32_t int digits,
+                                       @In OATHTotpFlag flags,
+                                       @Out byte[] output_otp);
+
     //Validate time based otp tokens
     int oath_totp_validate(@In byte[] secret,
                            @In @size_t long secret_length,
@@ -131,6 +156,17 @@ public interface LibOATH {
                             @In OATHTotpFlag flag,
                             @In String otp);
 
+    int oath_totp_validate4(@In ByteBuffer secret,
+                            @In @size_t long secret_length,
+                            @In @time_t long now,
+                            @In @u_int32_t int time_step_size,
+                            @In @time_t long start_offset,
+                            @In @size_t long window,
+                            @Out IntByReference otp_pos,
+                            @Out IntByReference otp_counter,
+                            @In OATHTotpFlag flag,
+                            @In String otp);
+
     //Base32 Encode/Decode
     OATHReturnCode oath_base32_encode(@In byte[] in, @In @size_t long inlen, @Out PointerByReference out, @Out IntByReference outlen);
     OATHReturnCode oath_base32_decode(@In byte[] in, @In @size_t long inlen, @Out PointerByReference out, @Out IntByReference outlen);
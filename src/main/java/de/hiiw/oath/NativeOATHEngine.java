@@ -0,0 +1,224 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import jnr.ffi.LibraryLoader;
+import jnr.ffi.byref.IntByReference;
+import jnr.ffi.util.BufferUtil;
+import jnr.ffi.util.EnumMapper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Engine calling the native liboath through the JNI-Abstraction Layer (jnr-jffi)
+ */
+public class NativeOATHEngine implements OATHEngine {
+    /**
+     * The jni-abstraction interface
+     */
+    private final LibOATH libOATH;
+
+    /**
+     * Set once {@link #close()} called oath_done
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Loads the native liboath and initializes it, see {@link #NativeOATHEngine(LibOATH)}
+     * @return the native engine
+     * @throws UnsatisfiedLinkError if the lib cannot be found or is too old
+     */
+    public static NativeOATHEngine load(){
+        return new NativeOATHEngine(LibraryLoader.create(LibOATH.class).load("oath"));
+    }
+
+    /**
+     * Initializes native lib, call {@link #close()} for deinitialization,
+     * also checks if the native installed lib is newer or the actual supported version
+     * @param libOATH the jni-abstraction interface
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_init)
+     * @throws UnsatisfiedLinkError if the lib is too old
+     */
+    public NativeOATHEngine(LibOATH libOATH){
+        this.libOATH = libOATH;
+
+        if(libOATH.oath_check_version(LibOATH.OATH_VERSION) == null){
+            throw new UnsatisfiedLinkError("OATH version too old, required version: "
+                    + LibOATH.OATH_VERSION + ", found version " + libOATH.oath_check_version(null));
+        }
+
+        handleError(libOATH.oath_init());
+    }
+
+    /**
+     * Deinitializes the native lib (oath_done), only the first call has an effect
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_done)
+     */
+    @Override
+    public void close(){
+        if(closed.compareAndSet(false, true)){
+            handleError(libOATH.oath_done());
+        }
+    }
+
+    /**
+     * Returns the underlying jnr-jffi interface
+     * @return the jnr-jffi interface
+     */
+    public LibOATH getLibOATH(){
+        return libOATH;
+    }
+
+    @Override
+    public String checkVersion(String requiredVersion){
+        return libOATH.oath_check_version(requiredVersion);
+    }
+
+    @Override
+    public String strError(OATHReturnCode errorCode){
+        return libOATH.oath_strerror(errorCode);
+    }
+
+    @Override
+    public String strErrorName(OATHReturnCode errorCode){
+        return libOATH.oath_strerror_name(errorCode);
+    }
+
+    @Override
+    public String totpGenerate(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        byte[] buffer = new byte[digits + 1];
+        handleError(libOATH.oath_totp_generate2(secret, secret.length, unixTimestamp,
+                timeStepSize, startOffset, digits, flag, buffer));
+        return BufferUtil.getString(ByteBuffer.wrap(buffer), Charset.defaultCharset());
+    }
+
+    /**
+     * Generates with the secret passed to liboath in place, a direct buffer is not copied
+     */
+    @Override
+    public String totpGenerate(ByteBuffer secret, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        byte[] buffer = new byte[digits + 1];
+        handleError(libOATH.oath_totp_generate2(secret.slice(), secret.remaining(), unixTimestamp,
+                timeStepSize, startOffset, digits, flag, buffer));
+        return BufferUtil.getString(ByteBuffer.wrap(buffer), Charset.defaultCharset());
+    }
+
+    @Override
+    public int totpValidatePosition(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        IntByReference otpPos = new IntByReference();
+
+        int result = libOATH.oath_totp_validate4(secret, secret.length, unixTimestamp,
+                timeStepSize, startOffset, window, otpPos, null, flag, otp);
+
+        return result < 0 ? handleValidateError(result) : otpPos.getValue();
+    }
+
+    /**
+     * Validates with the secret passed to liboath in place, a direct buffer is not copied
+     */
+    @Override
+    public int totpValidatePosition(ByteBuffer secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        IntByReference otpPos = new IntByReference();
+
+        int result = libOATH.oath_totp_validate4(secret.slice(), secret.remaining(), unixTimestamp,
+                timeStepSize, startOffset, window, otpPos, null, flag, otp);
+
+        return result < 0 ? handleValidateError(result) : otpPos.getValue();
+    }
+
+    @Override
+    public String hotpGenerate(byte[] secret, long movingFactor, int digits, long truncationOffset){
+        byte[] buffer = new byte[digits + 1];
+        handleError(libOATH.oath_hotp_generate(secret, secret.length, movingFactor, digits, false, truncationOffset, buffer));
+        return BufferUtil.getString(ByteBuffer.wrap(buffer), Charset.defaultCharset());
+    }
+
+    @Override
+    public int hotpValidatePosition(byte[] secret, long startMovingFactor, long window, String otp){
+        return handleValidateError(libOATH.oath_hotp_validate(secret, secret.length, startMovingFactor, window, otp));
+    }
+
+    /**
+     * Generates with the secret passed to liboath in place, a direct buffer is not copied
+     */
+    @Override
+    public String hotpGenerate(ByteBuffer secret, long movingFactor, int digits, long truncationOffset){
+        byte[] buffer = new byte[digits + 1];
+        handleError(libOATH.oath_hotp_generate(secret.slice(), secret.remaining(), movingFactor, digits, false, truncationOffset, buffer));
+        return BufferUtil.getString(ByteBuffer.wrap(buffer), Charset.defaultCharset());
+    }
+
+    /**
+     * Validates with the secret passed to liboath in place, a direct buffer is not copied
+     */
+    @Override
+    public int hotpValidatePosition(ByteBuffer secret, long startMovingFactor, long window, String otp){
+        return handleValidateError(libOATH.oath_hotp_validate(secret.slice(), secret.remaining(), startMovingFactor, window, otp));
+    }
+
+    /**
+     * Helper function mapping an invalid otp to {@link OATH#INVALID_POSITION}, unsupported digits
+     * to {@link OATH#INVALID_DIGITS_POSITION} and throwing on other errors
+     * @param oathReturnCode The return code of a validate function
+     * @return oathReturnCode, {@link OATH#INVALID_POSITION} or {@link OATH#INVALID_DIGITS_POSITION}
+     * @throws OATHException if oathReturnCode &lt; 0 and not OATH_INVALID_OTP or OATH_INVALID_DIGITS
+     */
+    private static int handleValidateError(int oathReturnCode){
+        if(oathReturnCode == OATHReturnCode.OATH_INVALID_OTP.intValue()){
+            return OATH.INVALID_POSITION;
+        }
+
+        if(oathReturnCode == OATHReturnCode.OATH_INVALID_DIGITS.intValue()){
+            return OATH.INVALID_DIGITS_POSITION;
+        }
+
+        return handleError(oathReturnCode);
+    }
+
+    /**
+     * Helper function to construct and throw an exception
+     * @param oathReturnCode The return code
+     * @return oathReturnCode
+     * @throws OATHException if oathReturnCode &lt; 0
+     */
+    private static int handleError(int oathReturnCode){
+        if(oathReturnCode < 0){
+            handleError((OATHReturnCode) EnumMapper.getInstance(OATHReturnCode.class).valueOf(oathReturnCode));
+        }
+
+        return oathReturnCode;
+    }
+
+    /**
+     * Helper function to construct and throw an exception
+     * @param oathReturnCode The return code
+     * @return oathReturnCode
+     * @throws OATHException if oathReturnCode &lt; 0
+     */
+    private static OATHReturnCode handleError(OATHReturnCode oathReturnCode){
+        if(oathReturnCode != OATHReturnCode.OATH_OK){
+            throw new OATHException(oathReturnCode);
+        }
+
+        return oathReturnCode;
+    }
+}
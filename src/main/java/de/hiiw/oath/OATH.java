@@ -19,160 +19,473 @@
 
 package de.hiiw.oath;
 
-import jnr.ffi.LibraryLoader;
-import jnr.ffi.byref.IntByReference;
-import jnr.ffi.byref.PointerByReference;
-import jnr.ffi.util.BufferUtil;
-import jnr.ffi.util.EnumMapper;
-
+import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
- * Abstraction Layer (or Wrapper) for the JNI-Abstraction Layer (jnr-jffi),
- * handles initialization and dispose of the native liboath
+ * Abstraction Layer (or Wrapper) for the otp engines, by default the native liboath
+ * accessed by the JNI-Abstraction Layer (jnr-jffi) is used, if it cannot be loaded
+ * the pure Java engine is used instead. The engine of the shared instance can be selected at startup with
+ * the system property {@value #ENGINE_PROPERTY} (auto, native, panama or java).
+ * The panama engine binds liboath with the Foreign Function and Memory API and needs Java 22 or newer.
+ * The base32 and hex codecs are always pure Java ({@link OATHBase32}, {@link OATHHex}),
+ * their output matches liboath byte for byte.
+ * <p>
+ * Besides the shared instance returned by {@link #getInstance()}, independent instances can be
+ * created with {@link #create(String)} or {@link #OATH(OATHEngine)}, these are released with {@link #close()}.
+ * In a GraalVM native image the auto engine is always the pure Java one
  */
-public class OATH {
+public class OATH implements AutoCloseable {
+    /**
+     * System property used for selecting the engine
+     */
+    public static final String ENGINE_PROPERTY = "de.hiiw.oath.engine";
+
+    /**
+     * Position returned by the primitive validate functions if the otp is invalid
+     */
+    public static final int INVALID_POSITION = Integer.MIN_VALUE;
+
+    /**
+     * Position returned by the primitive validate functions if the otp has an unsupported number of digits
+     */
+    public static final int INVALID_DIGITS_POSITION = Integer.MIN_VALUE + 1;
+
+    /**
+     * Holds the singleton of this class, initialized lazily by the class loader on first access
+     */
+    private static final class Holder {
+        private static final OATH INSTANCE = new OATH(System.getProperty(ENGINE_PROPERTY, "auto"));
+    }
+
+    /**
+     * The engine doing the actual work, null until the engine of the singleton is loaded
+     */
+    private volatile OATHEngine engine;
+
+    /**
+     * Name of the engine the singleton loads on first use, null for independent instances
+     */
+    private final String engineName;
+
+    /**
+     * True for the singleton, which is closed by a shutdown hook only
+     */
+    private final boolean shared;
+
+    /**
+     * Receives the outcome of every operation, null if disabled
+     */
+    private volatile OATHMetrics metrics;
+
+    /**
+     * Constructs an independent wrapper around the given engine, the engine is closed with this wrapper
+     * @param engine the engine doing the actual work
+     */
+    public OATH(OATHEngine engine){
+        this(engine, false);
+    }
+
+    private OATH(OATHEngine engine, boolean shared){
+        if(engine == null){
+            throw new NullPointerException("engine");
+        }
+
+        this.engine = engine;
+        this.engineName = null;
+        this.shared = shared;
+    }
+
     /**
-     * Holds the ingleton of this class
+     * Constructs the singleton, its engine is loaded on first use
+     * @param engineName auto, native, panama or java
      */
-    private static OATH instance;
+    private OATH(String engineName){
+        this.engineName = engineName;
+        this.shared = true;
+    }
 
     /**
-     * The jni-abstraction interface
+     * Gets the shared oath instance, initialize it if not done before.
+     * The engine is selected by the system property {@value #ENGINE_PROPERTY}, it is loaded on the first
+     * operation which needs it (the base32 and hex codecs do not) and released by a shutdown hook
+     * @return the oath wrapper
      */
-    private static LibOATH libOATH;
+    public static OATH getInstance(){
+        return Holder.INSTANCE;
+    }
 
-    static {
-        libOATH = LibraryLoader.create(LibOATH.class).load("oath");
+    /**
+     * Creates an independent instance with its own engine, which is not
+     * released by a shutdown hook, call {@link #close()} when done
+     * @param engineName auto, native, panama or java
+     * @return the oath wrapper
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_init)
+     * @throws UnsatisfiedLinkError if the native engine is requested and the lib is missing or too old
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static OATH create(String engineName){
+        return new OATH(loadEngine(engineName));
     }
 
     /**
-     * Initializes native lib and sets a shutdown hook for deinitialization,
-     * also checks if the native installed lib is newer or the actual supported version
+     * Loads the engine by name
+     * @param name auto, native, panama or java
+     * @return the engine
      * @throws OATHException if an exception occurred, see documentation of liboath (oath_init)
-     * @throws UnsatisfiedLinkError if the lib is too old
+     * @throws UnsatisfiedLinkError if the native engine is requested and the lib is missing or too old
+     * @throws IllegalArgumentException if the name is unknown
      */
-    private OATH(){
-        if(libOATH.oath_check_version(LibOATH.OATH_VERSION) == null){
-            throw new UnsatisfiedLinkError("OATH version too old, required version: "
-                    + LibOATH.OATH_VERSION + ", found version " + libOATH.oath_check_version(null));
+    private static OATHEngine loadEngine(String name){
+        switch (name){
+            case "native":
+                if(isNativeImage()){
+                    throw new UnsatisfiedLinkError("The native engine is not supported in a native image, jnr-ffi generates bytecode at runtime");
+                }
+
+                return NativeOATHEngine.load();
+            case "panama":
+                return loadPanamaEngine();
+            case "java":
+                return new JavaOATHEngine();
+            case "auto":
+                if(isNativeImage()){
+                    return new JavaOATHEngine();
+                }
+
+                try {
+                    return NativeOATHEngine.load();
+                } catch (UnsatisfiedLinkError e) {
+                    return new JavaOATHEngine();
+                }
+            default:
+                throw new IllegalArgumentException("Unknown engine " + name + ", expected auto, native, panama or java");
         }
+    }
 
-        handleError(libOATH.oath_init());
-        java.lang.Runtime.getRuntime().addShutdownHook(new Thread(() -> handleError(libOATH.oath_done())));
+    /**
+     * @return true if running as GraalVM native image
+     */
+    private static boolean isNativeImage(){
+        return "runtime".equals(System.getProperty("org.graalvm.nativeimage.imagecode"));
     }
 
     /**
-     * Gets the oath instance, initialize it if not done before
+     * Loads the engine using the Foreign Function and Memory API, it is only part of the
+     * multi release jar for Java 22 and newer and therefore loaded reflectively
+     * @return the engine
      * @throws OATHException if an exception occurred, see documentation of liboath (oath_init)
-     * @throws UnsatisfiedLinkError if the lib is too old
-     * @return the oath wrapper
+     * @throws UnsatisfiedLinkError if the lib is missing or too old or the runtime is older than Java 22
+     */
+    private static OATHEngine loadPanamaEngine(){
+        try {
+            return (OATHEngine) Class.forName("de.hiiw.oath.PanamaOATHEngine").getMethod("load").invoke(null);
+        } catch (InvocationTargetException e) {
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+
+            if(e.getCause() instanceof Error){
+                throw (Error) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new UnsatisfiedLinkError("The panama engine requires Java 22 or newer");
+        }
+    }
+
+    /**
+     * Releases the engine of an independent instance (oath_done for the native engine),
+     * the instance must not be used afterwards. Closing the shared instance has no effect,
+     * it is released by a shutdown hook
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_done)
+     */
+    @Override
+    public void close(){
+        if(!shared){
+            engine.close();
+        }
+    }
+
+    /**
+     * @return the engine, loads the engine of the singleton if not done before
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_init)
+     * @throws UnsatisfiedLinkError if the native engine is requested and the lib is missing or too old
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    private OATHEngine engine(){
+        OATHEngine engine = this.engine;
+        return engine != null ? engine : loadSharedEngine();
+    }
+
+    /**
+     * Loads the engine of the singleton once and registers the shutdown hook releasing it
+     * @return the engine
      */
-    public static synchronized OATH getInstance(){
-        if(instance == null){
-            instance = new OATH();
+    private synchronized OATHEngine loadSharedEngine(){
+        if(engine == null){
+            OATHEngine loaded = loadEngine(engineName);
+            Runtime.getRuntime().addShutdownHook(new Thread(loaded::close));
+            engine = loaded;
         }
 
-        return instance;
+        return engine;
+    }
+
+    /**
+     * Returns the engine used by this wrapper
+     * @return the engine
+     */
+    public OATHEngine getEngine(){
+        return engine();
+    }
+
+    /**
+     * Sets the metrics receiving the outcome and duration of the generate, validate and codec operations of this wrapper
+     * (batch and range generation is not measured). Without metrics nothing is measured unless a flight recording
+     * enables the events de.hiiw.oath.Validate, de.hiiw.oath.Generate or de.hiiw.oath.Codec (Java 11 or newer)
+     * @param metrics The metrics, null to disable
+     */
+    public void setMetrics(OATHMetrics metrics){
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the metrics of this wrapper or null if disabled
+     */
+    public OATHMetrics getMetrics(){
+        return metrics;
     }
 
     /**
      * Returns the underlying jnr-jffi interface
-     * @return the jnr-jffi interface
+     * @return the jnr-jffi interface or null if the native engine is not used
      */
     public LibOATH getLibOATH(){
-        return libOATH;
+        OATHEngine engine = engine();
+        return engine instanceof NativeOATHEngine ? ((NativeOATHEngine) engine).getLibOATH() : null;
     }
 
     /**
-     * Chcecks the version of the lib
+     * Chcecks the version of the lib used by the shared instance
      * @param requiredVersion minimum required version (can be null)
      * @return libversion of requiredVersion is greater or equal libversion or requiredVersion is null, else null
      */
     public static String checkVersion(String requiredVersion){
-        return libOATH.oath_check_version(requiredVersion);
+        return getInstance().engine().checkVersion(requiredVersion);
     }
 
     /**
-     * Returns a string representation of the OATHReturnCode
+     * Returns a string representation of the OATHReturnCode, resolved by the shared instance
      * @param errorCode The return code from liboath
      * @return string representation of OATHReturnCode
      */
     public static String strError(OATHReturnCode errorCode){
-        return libOATH.oath_strerror(errorCode);
+        return getInstance().engine().strError(errorCode);
     }
 
     /**
-     * Returns the name of the OATHReturnCode
+     * Returns the name of the OATHReturnCode, resolved by the shared instance
      * @param errorCode The return code from liboath
      * @return name of the OATHReturnCode
      */
     public static String strErrorName(OATHReturnCode errorCode){
-        return libOATH.oath_strerror_name(errorCode);
+        return getInstance().engine().strErrorName(errorCode);
     }
 
     /**
      * Encodes the given byte array input to a base32 representation
      * @param input input byte array
      * @return Base32 encoded input
-     * @throws OATHException if an exception occurred, see documentation of liboath (oath_base32_encode)
      */
     public String base32Encode(byte[] input){
-        PointerByReference resultReference = new PointerByReference();
-        IntByReference resultSizeReference = new IntByReference();
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.BASE32_ENCODE)){
+            return OATHBase32.encode(input);
+        }
+
+        return record(metrics, OATHMetrics.Operation.BASE32_ENCODE, null, () -> OATHBase32.encode(input));
+    }
 
-        handleError(libOATH.oath_base32_encode(input, input.length, resultReference, resultSizeReference));
+    /**
+     * Encodes a part of the given byte array to a base32 representation into a caller supplied buffer,
+     * use {@link #base32EncodedLength(int)} for sizing the buffer
+     * @param input input byte array
+     * @param offset offset of the first byte to encode
+     * @param length number of bytes to encode
+     * @param output receives the base32 characters
+     * @param outputOffset offset of the first character in output
+     * @return number of written characters
+     * @throws OATHException if output is too small (OATH_TOO_SMALL_BUFFER)
+     */
+    public int base32Encode(byte[] input, int offset, int length, char[] output, int outputOffset){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.BASE32_ENCODE)){
+            return OATHBase32.encode(input, offset, length, output, outputOffset);
+        }
 
-        return resultReference.getValue().getString(0, resultSizeReference.getValue(), Charset.defaultCharset());
+        return record(metrics, OATHMetrics.Operation.BASE32_ENCODE, null, () -> OATHBase32.encode(input, offset, length, output, outputOffset));
     }
 
     /**
      * Decodes a given base32 encoded string into a byte array
      * @param input base32 encoded string
      * @return result byte array
-     * @throws OATHException if an exception occurred, see documentation of liboath (oath_base32_decode)
+     * @throws OATHException if the input is malformed (OATH_INVALID_BASE32)
      */
     public byte[] base32Decode(String input){
-        PointerByReference resultReference = new PointerByReference();
-        IntByReference resultSizeReference = new IntByReference();
-        byte[] stringBytes = input.getBytes();
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.BASE32_DECODE)){
+            return OATHBase32.decode(input);
+        }
+
+        return record(metrics, OATHMetrics.Operation.BASE32_DECODE, null, () -> OATHBase32.decode(input));
+    }
+
+    /**
+     * Decodes a part of the given base32 characters into a caller supplied buffer,
+     * use {@link #base32DecodedMaxLength(int)} for sizing the buffer
+     * @param input base32 encoded characters
+     * @param offset offset of the first character to decode
+     * @param length number of characters to decode
+     * @param output receives the decoded bytes at its position
+     * @return number of written bytes
+     * @throws OATHException if the input is malformed (OATH_INVALID_BASE32) or output is too small (OATH_TOO_SMALL_BUFFER)
+     */
+    public int base32Decode(char[] input, int offset, int length, ByteBuffer output){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.BASE32_DECODE)){
+            return OATHBase32.decode(input, offset, length, output);
+        }
+
+        return record(metrics, OATHMetrics.Operation.BASE32_DECODE, null, () -> OATHBase32.decode(input, offset, length, output));
+    }
 
-        handleError(libOATH.oath_base32_decode(stringBytes, stringBytes.length, resultReference, resultSizeReference));
+    /**
+     * @param length number of bytes to encode
+     * @return number of base32 characters (including padding)
+     */
+    public static int base32EncodedLength(int length){
+        return OATHBase32.encodedLength(length);
+    }
+
+    /**
+     * @param length number of base32 characters
+     * @return maximum number of decoded bytes
+     */
+    public static int base32DecodedMaxLength(int length){
+        return OATHBase32.decodedMaxLength(length);
+    }
+
+    /**
+     * Encodes the remaining bytes of input to base32 ascii bytes, both buffers are advanced
+     * @param input input bytes
+     * @param output receives the base32 ascii bytes
+     * @return number of written bytes
+     * @throws OATHException if output is too small (OATH_TOO_SMALL_BUFFER)
+     */
+    public int base32Encode(ByteBuffer input, ByteBuffer output){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.BASE32_ENCODE)){
+            return OATHBase32.encode(input, output);
+        }
+
+        return record(metrics, OATHMetrics.Operation.BASE32_ENCODE, null, () -> OATHBase32.encode(input, output));
+    }
+
+    /**
+     * Decodes the remaining base32 ascii bytes of input, both buffers are advanced
+     * @param input base32 encoded ascii bytes
+     * @param output receives the decoded bytes
+     * @return number of written bytes
+     * @throws OATHException if the input is malformed (OATH_INVALID_BASE32) or output is too small (OATH_TOO_SMALL_BUFFER)
+     */
+    public int base32Decode(ByteBuffer input, ByteBuffer output){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.BASE32_DECODE)){
+            return OATHBase32.decode(input, output);
+        }
 
-        byte[] buffer = new byte[resultSizeReference.getValue()];
-        resultReference.getValue().get(0, buffer, 0, buffer.length);
-        return buffer;
+        return record(metrics, OATHMetrics.Operation.BASE32_DECODE, null, () -> OATHBase32.decode(input, output));
     }
 
     /**
      * Decodes a given hex encoded string into a byte array
      * @param hex hex encoded string
      * @return result byte array
-     * @throws OATHException if an exception occurred, see documentation of liboath (oath_hex2bin)
+     * @throws OATHException if the input is malformed (OATH_INVALID_HEX)
      */
     public byte[] hex2Bin(String hex){
-        IntByReference binLen = new IntByReference();
-        byte[] hexBytes = hex.getBytes();
-
-        handleError(libOATH.oath_hex2bin(hexBytes, new byte[0], binLen));
+        OATHMetrics metrics = this.metrics;
 
-        byte[] buffer = new byte[binLen.getValue()];
-        handleError(libOATH.oath_hex2bin(hexBytes, buffer, binLen));
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HEX_DECODE)){
+            return OATHHex.decode(hex);
+        }
 
-        return buffer;
+        return record(metrics, OATHMetrics.Operation.HEX_DECODE, null, () -> OATHHex.decode(hex));
     }
 
     /**
      * Encodes the given byte array input to a hex representation
      * @param binary input byte array
      * @return hex encoded input
-     * @throws OATHException if an exception occurred, see documentation of liboath (oath_bin2hex)
      */
     public String bin2Hex(byte[] binary){
-        byte[] input = new byte[2 * binary.length + 1];
-        libOATH.oath_bin2hex(binary, binary.length, input);
-        return BufferUtil.getString(ByteBuffer.wrap(input), Charset.defaultCharset());
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HEX_ENCODE)){
+            return OATHHex.encode(binary);
+        }
+
+        return record(metrics, OATHMetrics.Operation.HEX_ENCODE, null, () -> OATHHex.encode(binary));
+    }
+
+    /**
+     * Decodes the remaining hex ascii bytes of input, both buffers are advanced
+     * @param input hex encoded ascii bytes
+     * @param output receives the decoded bytes
+     * @return number of written bytes
+     * @throws OATHException if the input is malformed (OATH_INVALID_HEX) or output is too small (OATH_TOO_SMALL_BUFFER)
+     */
+    public int hex2Bin(ByteBuffer input, ByteBuffer output){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HEX_DECODE)){
+            return OATHHex.decode(input, output);
+        }
+
+        return record(metrics, OATHMetrics.Operation.HEX_DECODE, null, () -> OATHHex.decode(input, output));
+    }
+
+    /**
+     * Encodes the remaining bytes of input to lowercase hex ascii bytes, both buffers are advanced
+     * @param input input bytes
+     * @param output receives the hex ascii bytes
+     * @return number of written bytes
+     * @throws OATHException if output is too small (OATH_TOO_SMALL_BUFFER)
+     */
+    public int bin2Hex(ByteBuffer input, ByteBuffer output){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HEX_ENCODE)){
+            return OATHHex.encode(input, output);
+        }
+
+        return record(metrics, OATHMetrics.Operation.HEX_ENCODE, null, () -> OATHHex.encode(input, output));
     }
 
     /**
@@ -201,10 +514,36 @@ public class OATH {
      * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_generate2)
      */
     public String totpGenerate(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
-        byte[] buffer = new byte[digits + 1];
-        handleError(libOATH.oath_totp_generate2(secret, secret.length, unixTimestamp,
-                timeStepSize, startOffset, digits, flag, buffer));
-        return BufferUtil.getString(ByteBuffer.wrap(buffer), Charset.defaultCharset());
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.TOTP_GENERATE)){
+            return engine().totpGenerate(secret, unixTimestamp, timeStepSize, startOffset, digits, flag);
+        }
+
+        return record(metrics, OATHMetrics.Operation.TOTP_GENERATE, flag, () ->
+                engine().totpGenerate(secret, unixTimestamp, timeStepSize, startOffset, digits, flag));
+    }
+
+    /**
+     * Generates a time based one time token with a prepared secret
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param digits Digits of the otp (6-8 digits are now supported)
+     * @param flag Hash algorithm
+     * @return The otp as string
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_generate2)
+     */
+    public String totpGenerate(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.TOTP_GENERATE)){
+            return engine().totpGenerate(key, unixTimestamp, timeStepSize, startOffset, digits, flag);
+        }
+
+        return record(metrics, OATHMetrics.Operation.TOTP_GENERATE, flag, () ->
+                engine().totpGenerate(key, unixTimestamp, timeStepSize, startOffset, digits, flag));
     }
 
     /**
@@ -220,69 +559,1022 @@ public class OATH {
      * @throws OATHException if the otp is invalid or an exception occurred, see documentation of liboath (oath_totp_validate4)
      */
     public OATHTotpValidateResult totpValidate(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
-        OATHReturnCode code = OATHReturnCode.OATH_OK;
-        IntByReference otpPos = new IntByReference();
-        IntByReference otpCounter = new IntByReference();
+        int otpPos = validateTotpPosition(secret, unixTimestamp, timeStepSize, startOffset, window, flag, otp);
 
-        code.setIntValue(handleError(libOATH.oath_totp_validate4(secret, secret.length, unixTimestamp,
-                timeStepSize, startOffset, window, otpPos, otpCounter, flag, otp)));
+        if(!isValidPosition(otpPos)){
+            throw new OATHException(positionReturnCode(otpPos));
+        }
 
-        return new OATHTotpValidateResult(code, otpPos.getValue(), otpCounter.getValue());
+        return new OATHTotpValidateResult(OATHReturnCode.OATH_OK, otpPos,
+                (int) (timeStep(unixTimestamp, timeStepSize, startOffset) + otpPos));
     }
 
     /**
-     * Generates a HMAC-based one time token
+     * Validates an one time token against a secret and stores the result in a reusable holder
      * @param secret The secret
-     * @param movingFactor a counter indicating the current OTP to generate
-     * @param digits Digits of the otp (6-8 digits are now supported)
-     * @param truncationOffset use a specific truncation offset
-     * @return The one time token
-     * @throws OATHException if an exception occurred, see documentation of liboath (oath_hotp_generate)
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @param result holder receiving the (absolute and relative) position of the otp or why it is invalid
+     * @return true if the otp is valid, false if it is invalid or has unsupported digits
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_validate4)
      */
-    public String hotpGenerate(byte[] secret, long movingFactor, int digits, long truncationOffset){
-        byte[] buffer = new byte[digits + 1];
-        handleError(libOATH.oath_hotp_generate(secret, secret.length, movingFactor, digits, false, truncationOffset, buffer));
-        return BufferUtil.getString(ByteBuffer.wrap(buffer), Charset.defaultCharset());
+    public boolean totpValidate(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp,
+                                OATHTotpValidateResultHolder result){
+        int otpPos = validateTotpPosition(secret, unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+
+        if(!isValidPosition(otpPos)){
+            result.set(positionReturnCode(otpPos), otpPos, 0);
+            return false;
+        }
+
+        result.set(OATHReturnCode.OATH_OK, otpPos, (int) (timeStep(unixTimestamp, timeStepSize, startOffset) + otpPos));
+        return true;
     }
 
     /**
-     * Validates an one time token against a secret
+     * Validates an one time token against a secret without allocating a result
      * @param secret The secret
-     * @param start_moving_factor start counter in OTP stream
-     * @param window how many OTPs after start counter to test
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
      * @param otp The otp to validate
-     * @return Returns position in OTP window (zero is first position)
-     * @throws OATHException if the otp is invalid or an exception occurred, see documentation of liboath (oath_hotp_validate)
+     * @return the relative position of the otp or {@link #INVALID_POSITION} if the otp is invalid,
+     * {@link #INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_validate4)
      */
-    public OATHReturnCode hotpValidate(byte[] secret, long start_moving_factor, long window, String otp){
-        int res = handleError(libOATH.oath_hotp_validate(secret, secret.length, start_moving_factor, window, otp));
-        OATHReturnCode result = OATHReturnCode.OATH_OK;
-        result.setIntValue(res);
-        return result;
+    public int validateTotpPosition(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.TOTP_VALIDATE)){
+            return engine().totpValidatePosition(secret, unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+        }
+
+        return recordValidation(metrics, OATHMetrics.Operation.TOTP_VALIDATE, flag, window, () ->
+                engine().totpValidatePosition(secret, unixTimestamp, timeStepSize, startOffset, window, flag, otp));
+    }
+
+    /**
+     * Validates an one time token against a prepared secret
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return a validate result, containing the (absolute and relative) position of the otp and a ok return code
+     * @throws OATHException if the otp is invalid or an exception occurred, see documentation of liboath (oath_totp_validate4)
+     */
+    public OATHTotpValidateResult totpValidate(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        int otpPos = validateTotpPosition(key, unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+
+        if(!isValidPosition(otpPos)){
+            throw new OATHException(positionReturnCode(otpPos));
+        }
+
+        return new OATHTotpValidateResult(OATHReturnCode.OATH_OK, otpPos,
+                (int) (timeStep(unixTimestamp, timeStepSize, startOffset) + otpPos));
+    }
+
+    /**
+     * Validates an one time token against a prepared secret without allocating a result
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return the relative position of the otp or {@link #INVALID_POSITION} if the otp is invalid,
+     * {@link #INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_validate4)
+     */
+    public int validateTotpPosition(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.TOTP_VALIDATE)){
+            return engine().totpValidatePosition(key, unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+        }
+
+        return recordValidation(metrics, OATHMetrics.Operation.TOTP_VALIDATE, flag, window, () ->
+                engine().totpValidatePosition(key, unixTimestamp, timeStepSize, startOffset, window, flag, otp));
+    }
+
+    /**
+     * Validates a numeric one time token against a secret, the otp is compared as integer
+     * which avoids formatting an otp string for every step of the window
+     * @param secret The secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @param digits Digits of the otp (6-8 digits are now supported)
+     * @return the relative position of the otp or {@link #INVALID_POSITION} if the otp is invalid,
+     * {@link #INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_validate4)
+     */
+    public int validateTotpPosition(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, int otp, int digits){
+        return validateTotpPosition(new OATHKey(secret), unixTimestamp, timeStepSize, startOffset, window, flag, otp, digits);
     }
 
     /**
-     * Helper function to construct and throw an exception
-     * @param oathReturnCode The return code
-     * @return oathReturnCode
-     * @throws OATHException if oathReturnCode < 0
+     * Validates a numeric one time token against a prepared secret, the otp is compared as integer
+     * which avoids formatting an otp string for every step of the window
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @param digits Digits of the otp (6-8 digits are now supported)
+     * @return the relative position of the otp or {@link #INVALID_POSITION} if the otp is invalid,
+     * {@link #INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_validate4)
+     */
+    public int validateTotpPosition(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, int otp, int digits){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.TOTP_VALIDATE)){
+            return engine().totpValidatePosition(key, unixTimestamp, timeStepSize, startOffset, window, flag, otp, digits);
+        }
+
+        return recordValidation(metrics, OATHMetrics.Operation.TOTP_VALIDATE, flag, window, () ->
+                engine().totpValidatePosition(key, unixTimestamp, timeStepSize, startOffset, window, flag, otp, digits));
+    }
+
+    /**
+     * Generates a time based one time token with a secret of a store, the secret is read in place
+     * @param store The secret store
+     * @param handle The handle of the secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param digits Digits of the otp (6-8 digits are now supported)
+     * @param flag Hash algorithm
+     * @return The otp as string
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_generate2)
+     * @throws IllegalArgumentException if the handle is unknown
      */
-    private int handleError(int oathReturnCode){
-        return oathReturnCode > 0 ? oathReturnCode :
-                handleError((OATHReturnCode) EnumMapper.getInstance(OATHReturnCode.class).valueOf(oathReturnCode)).intValue();
+    public String totpGenerate(OATHSecretStore store, int handle, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.TOTP_GENERATE)){
+            return engine().totpGenerate(store.secret(handle), unixTimestamp, timeStepSize, startOffset, digits, flag);
+        }
+
+        return record(metrics, OATHMetrics.Operation.TOTP_GENERATE, flag, () ->
+                engine().totpGenerate(store.secret(handle), unixTimestamp, timeStepSize, startOffset, digits, flag));
     }
 
     /**
-     * Helper function to construct and throw an exception
-     * @param oathReturnCode The return code
-     * @return oathReturnCode
-     * @throws OATHException if oathReturnCode < 0
+     * Validates an one time token against a secret of a store, the secret is read in place
+     * @param store The secret store
+     * @param handle The handle of the secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return the relative position of the otp or {@link #INVALID_POSITION} if the otp is invalid,
+     * {@link #INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_validate4)
+     * @throws IllegalArgumentException if the handle is unknown
      */
-    private OATHReturnCode handleError(OATHReturnCode oathReturnCode){
-        if(oathReturnCode != OATHReturnCode.OATH_OK){
-            throw new OATHException(oathReturnCode);
+    public int validateTotpPosition(OATHSecretStore store, int handle, long unixTimestamp, int timeStepSize, long startOffset, int window,
+                                    OATHTotpFlag flag, String otp){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.TOTP_VALIDATE)){
+            return engine().totpValidatePosition(store.secret(handle), unixTimestamp, timeStepSize, startOffset, window, flag, otp);
         }
 
-        return oathReturnCode;
+        return recordValidation(metrics, OATHMetrics.Operation.TOTP_VALIDATE, flag, window, () ->
+                engine().totpValidatePosition(store.secret(handle), unixTimestamp, timeStepSize, startOffset, window, flag, otp));
+    }
+
+    /**
+     * Validates many one time tokens at once, the i-th otp is validated against the i-th secret at the i-th timestamp.
+     * Otps with unsupported digits are reported as invalid instead of aborting the whole batch
+     * @param secrets The secrets
+     * @param otps The otps to validate
+     * @param unixTimestamps The timestamps (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param parallel spread the validations over the common fork join pool
+     * @return the relative positions of the otps, {@link #INVALID_POSITION} for invalid otps
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_validate4)
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public int[] validateTotpBatch(byte[][] secrets, String[] otps, long[] unixTimestamps, int timeStepSize, long startOffset, int window,
+                                   OATHTotpFlag flag, boolean parallel){
+        checkBatchLength(secrets.length, otps.length, unixTimestamps.length);
+
+        return validateBatch(secrets.length, parallel, i -> validateTotpPosition(secrets[i], unixTimestamps[i],
+                timeStepSize, startOffset, window, flag, otps[i]));
+    }
+
+    /**
+     * Validates many one time tokens at once, the i-th otp is validated against the i-th prepared secret at the i-th timestamp.
+     * Otps with unsupported digits are reported as invalid instead of aborting the whole batch
+     * @param keys The prepared secrets
+     * @param otps The otps to validate
+     * @param unixTimestamps The timestamps (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param parallel spread the validations over the common fork join pool
+     * @return the relative positions of the otps, {@link #INVALID_POSITION} for invalid otps
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_validate4)
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public int[] validateTotpBatch(OATHKey[] keys, String[] otps, long[] unixTimestamps, int timeStepSize, long startOffset, int window,
+                                   OATHTotpFlag flag, boolean parallel){
+        checkBatchLength(keys.length, otps.length, unixTimestamps.length);
+
+        return validateBatch(keys.length, parallel, i -> validateTotpPosition(keys[i], unixTimestamps[i],
+                timeStepSize, startOffset, window, flag, otps[i]));
+    }
+
+    /**
+     * Generates the time based one time tokens of many secrets at once, the i-th otp is generated from the i-th secret
+     * at the i-th timestamp. HMAC-SHA1 otps are computed {@link HmacSha1Lanes#LANES} secrets at a time in pure Java,
+     * other hash algorithms one by one with the engine
+     * @param secrets The secrets
+     * @param unixTimestamps The timestamps (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @param flag Hash algorithm
+     * @param parallel spread the generation over the common fork join pool
+     * @return the otps as integers, format them zero padded to digits
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public int[] totpGenerateBatch(byte[][] secrets, long[] unixTimestamps, int timeStepSize, long startOffset, int digits,
+                                   OATHTotpFlag flag, boolean parallel){
+        checkBatchLength(secrets.length, unixTimestamps.length);
+
+        if(flag != OATHTotpFlag.OATH_TOTP_HMAC_SHA1){
+            return generateBatch(secrets.length, parallel, i -> parseOtp(engine().totpGenerate(secrets[i], unixTimestamps[i],
+                    timeStepSize, startOffset, digits, flag)));
+        }
+
+        return generateSha1Batch(i -> HmacSha1Lanes.get().padState(secrets[i]), timeSteps(unixTimestamps, timeStepSize, startOffset),
+                digits, parallel);
+    }
+
+    /**
+     * Generates the time based one time tokens of many prepared secrets at once, the i-th otp is generated from the i-th secret
+     * at the i-th timestamp. HMAC-SHA1 otps are computed {@link HmacSha1Lanes#LANES} secrets at a time in pure Java,
+     * other hash algorithms one by one with the engine
+     * @param keys The prepared secrets
+     * @param unixTimestamps The timestamps (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @param flag Hash algorithm
+     * @param parallel spread the generation over the common fork join pool
+     * @return the otps as integers, format them zero padded to digits
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public int[] totpGenerateBatch(OATHKey[] keys, long[] unixTimestamps, int timeStepSize, long startOffset, int digits,
+                                   OATHTotpFlag flag, boolean parallel){
+        checkBatchLength(keys.length, unixTimestamps.length);
+
+        if(flag != OATHTotpFlag.OATH_TOTP_HMAC_SHA1){
+            return generateBatch(keys.length, parallel, i -> parseOtp(engine().totpGenerate(keys[i], unixTimestamps[i],
+                    timeStepSize, startOffset, digits, flag)));
+        }
+
+        return generateSha1Batch(i -> keys[i].sha1PadState(), timeSteps(unixTimestamps, timeStepSize, startOffset), digits, parallel);
+    }
+
+    /**
+     * Generates a HMAC-based one time token
+     * @param secret The secret
+     * @param movingFactor a counter indicating the current OTP to generate
+     * @param digits Digits of the otp (6-8 digits are now supported)
+     * @param truncationOffset use a specific truncation offset
+     * @return The one time token
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_hotp_generate)
+     */
+    public String hotpGenerate(byte[] secret, long movingFactor, int digits, long truncationOffset){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HOTP_GENERATE)){
+            return engine().hotpGenerate(secret, movingFactor, digits, truncationOffset);
+        }
+
+        return record(metrics, OATHMetrics.Operation.HOTP_GENERATE, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, () ->
+                engine().hotpGenerate(secret, movingFactor, digits, truncationOffset));
+    }
+
+    /**
+     * Generates a HMAC-based one time token with a prepared secret
+     * @param key The prepared secret
+     * @param movingFactor a counter indicating the current OTP to generate
+     * @param digits Digits of the otp (6-8 digits are now supported)
+     * @param truncationOffset use a specific truncation offset
+     * @return The one time token
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_hotp_generate)
+     */
+    public String hotpGenerate(OATHKey key, long movingFactor, int digits, long truncationOffset){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HOTP_GENERATE)){
+            return engine().hotpGenerate(key, movingFactor, digits, truncationOffset);
+        }
+
+        return record(metrics, OATHMetrics.Operation.HOTP_GENERATE, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, () ->
+                engine().hotpGenerate(key, movingFactor, digits, truncationOffset));
+    }
+
+    /**
+     * Generates a HMAC-based one time token with a secret of a store, the secret is read in place
+     * @param store The secret store
+     * @param handle The handle of the secret
+     * @param movingFactor a counter indicating the current OTP to generate
+     * @param digits Digits of the otp (6-8 digits are now supported)
+     * @param truncationOffset use a specific truncation offset
+     * @return The one time token
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_hotp_generate)
+     * @throws IllegalArgumentException if the handle is unknown
+     */
+    public String hotpGenerate(OATHSecretStore store, int handle, long movingFactor, int digits, long truncationOffset){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HOTP_GENERATE)){
+            return engine().hotpGenerate(store.secret(handle), movingFactor, digits, truncationOffset);
+        }
+
+        return record(metrics, OATHMetrics.Operation.HOTP_GENERATE, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, () ->
+                engine().hotpGenerate(store.secret(handle), movingFactor, digits, truncationOffset));
+    }
+
+    /**
+     * Validates an one time token against a secret
+     * @param secret The secret
+     * @param start_moving_factor start counter in OTP stream
+     * @param window how many OTPs after start counter to test
+     * @param otp The otp to validate
+     * @return Returns position in OTP window (zero is first position)
+     * @throws OATHException if the otp is invalid or an exception occurred, see documentation of liboath (oath_hotp_validate)
+     * @deprecated the position is stored in the shared OATH_OK constant, which is not thread safe,
+     * use {@link #validateHotpPosition(byte[], long, long, String)} instead
+     */
+    @Deprecated
+    public OATHReturnCode hotpValidate(byte[] secret, long start_moving_factor, long window, String otp){
+        int otpPos = validateHotpPosition(secret, start_moving_factor, window, otp);
+
+        if(!isValidPosition(otpPos)){
+            throw new OATHException(positionReturnCode(otpPos));
+        }
+
+        OATHReturnCode result = OATHReturnCode.OATH_OK;
+        result.setIntValue(otpPos);
+        return result;
+    }
+
+    /**
+     * Validates an one time token against a secret without allocating a result
+     * @param secret The secret
+     * @param startMovingFactor start counter in OTP stream
+     * @param window how many OTPs after start counter to test
+     * @param otp The otp to validate
+     * @return position in OTP window (zero is first position) or {@link #INVALID_POSITION} if the otp is invalid,
+     * {@link #INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_hotp_validate)
+     */
+    public int validateHotpPosition(byte[] secret, long startMovingFactor, long window, String otp){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HOTP_VALIDATE)){
+            return engine().hotpValidatePosition(secret, startMovingFactor, window, otp);
+        }
+
+        return recordValidation(metrics, OATHMetrics.Operation.HOTP_VALIDATE, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, window, () ->
+                engine().hotpValidatePosition(secret, startMovingFactor, window, otp));
+    }
+
+    /**
+     * Validates an one time token against a prepared secret without allocating a result
+     * @param key The prepared secret
+     * @param startMovingFactor start counter in OTP stream
+     * @param window how many OTPs after start counter to test
+     * @param otp The otp to validate
+     * @return position in OTP window (zero is first position) or {@link #INVALID_POSITION} if the otp is invalid,
+     * {@link #INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_hotp_validate)
+     */
+    public int validateHotpPosition(OATHKey key, long startMovingFactor, long window, String otp){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HOTP_VALIDATE)){
+            return engine().hotpValidatePosition(key, startMovingFactor, window, otp);
+        }
+
+        return recordValidation(metrics, OATHMetrics.Operation.HOTP_VALIDATE, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, window, () ->
+                engine().hotpValidatePosition(key, startMovingFactor, window, otp));
+    }
+
+    /**
+     * Validates an one time token against a secret of a store, the secret is read in place
+     * @param store The secret store
+     * @param handle The handle of the secret
+     * @param startMovingFactor start counter in OTP stream
+     * @param window how many OTPs after start counter to test
+     * @param otp The otp to validate
+     * @return position in OTP window (zero is first position) or {@link #INVALID_POSITION} if the otp is invalid,
+     * {@link #INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_hotp_validate)
+     * @throws IllegalArgumentException if the handle is unknown
+     */
+    public int validateHotpPosition(OATHSecretStore store, int handle, long startMovingFactor, long window, String otp){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HOTP_VALIDATE)){
+            return engine().hotpValidatePosition(store.secret(handle), startMovingFactor, window, otp);
+        }
+
+        return recordValidation(metrics, OATHMetrics.Operation.HOTP_VALIDATE, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, window, () ->
+                engine().hotpValidatePosition(store.secret(handle), startMovingFactor, window, otp));
+    }
+
+    /**
+     * Validates a numeric one time token against a secret, the otp is compared as integer
+     * @param secret The secret
+     * @param startMovingFactor start counter in OTP stream
+     * @param window how many OTPs after start counter to test
+     * @param otp The otp to validate
+     * @param digits Digits of the otp (6-8 digits are now supported)
+     * @return position in OTP window (zero is first position) or {@link #INVALID_POSITION} if the otp is invalid,
+     * {@link #INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_hotp_validate)
+     */
+    public int validateHotpPosition(byte[] secret, long startMovingFactor, long window, int otp, int digits){
+        return validateHotpPosition(new OATHKey(secret), startMovingFactor, window, otp, digits);
+    }
+
+    /**
+     * Validates a numeric one time token against a prepared secret, the otp is compared as integer
+     * @param key The prepared secret
+     * @param startMovingFactor start counter in OTP stream
+     * @param window how many OTPs after start counter to test
+     * @param otp The otp to validate
+     * @param digits Digits of the otp (6-8 digits are now supported)
+     * @return position in OTP window (zero is first position) or {@link #INVALID_POSITION} if the otp is invalid,
+     * {@link #INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_hotp_validate)
+     */
+    public int validateHotpPosition(OATHKey key, long startMovingFactor, long window, int otp, int digits){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.HOTP_VALIDATE)){
+            return engine().hotpValidatePosition(key, startMovingFactor, window, otp, digits);
+        }
+
+        return recordValidation(metrics, OATHMetrics.Operation.HOTP_VALIDATE, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, window, () ->
+                engine().hotpValidatePosition(key, startMovingFactor, window, otp, digits));
+    }
+
+    /**
+     * Generates the HMAC-based one time tokens of many secrets at once, the i-th otp is generated from the i-th secret
+     * and the i-th moving factor, {@link HmacSha1Lanes#LANES} secrets at a time in pure Java
+     * @param secrets The secrets
+     * @param movingFactors The counters
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @param parallel spread the generation over the common fork join pool
+     * @return the otps as integers, format them zero padded to digits
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public int[] hotpGenerateBatch(byte[][] secrets, long[] movingFactors, int digits, boolean parallel){
+        checkBatchLength(secrets.length, movingFactors.length);
+
+        return generateSha1Batch(i -> HmacSha1Lanes.get().padState(secrets[i]), movingFactors, digits, parallel);
+    }
+
+    /**
+     * Generates the HMAC-based one time tokens of many prepared secrets at once, the i-th otp is generated from the i-th secret
+     * and the i-th moving factor, {@link HmacSha1Lanes#LANES} secrets at a time in pure Java
+     * @param keys The prepared secrets
+     * @param movingFactors The counters
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @param parallel spread the generation over the common fork join pool
+     * @return the otps as integers, format them zero padded to digits
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public int[] hotpGenerateBatch(OATHKey[] keys, long[] movingFactors, int digits, boolean parallel){
+        checkBatchLength(keys.length, movingFactors.length);
+
+        return generateSha1Batch(i -> keys[i].sha1PadState(), movingFactors, digits, parallel);
+    }
+
+    /**
+     * Generates the HMAC-based one time tokens of consecutive counters, the secret is processed once
+     * @param secret The secret
+     * @param fromCounter The first counter
+     * @param count Number of otps
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @return the otps as integers, format them zero padded to digits
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IllegalArgumentException if count is negative
+     */
+    public int[] generateHotpRange(byte[] secret, long fromCounter, int count, int digits){
+        return generateHotpRange(new OATHKey(secret), fromCounter, count, digits);
+    }
+
+    /**
+     * Generates the HMAC-based one time tokens of consecutive counters with a prepared secret
+     * @param key The prepared secret
+     * @param fromCounter The first counter
+     * @param count Number of otps
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @return the otps as integers, format them zero padded to digits
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IllegalArgumentException if count is negative
+     */
+    public int[] generateHotpRange(OATHKey key, long fromCounter, int count, int digits){
+        checkRangeCount(count);
+
+        int[] otps = new int[count];
+        hotpRange(key, fromCounter, digits).generate(0, otps, 0, count);
+        return otps;
+    }
+
+    /**
+     * Generates the HMAC-based one time tokens of consecutive counters with a prepared secret into a buffer
+     * @param key The prepared secret
+     * @param fromCounter The first counter
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @param buffer receives the otps as integers
+     * @param offset Index of the first otp in buffer
+     * @param count Number of otps
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IndexOutOfBoundsException if the otps do not fit into the buffer
+     */
+    public void generateHotpRange(OATHKey key, long fromCounter, int digits, int[] buffer, int offset, int count){
+        checkBufferRange(buffer, offset, count);
+        hotpRange(key, fromCounter, digits).generate(0, buffer, offset, count);
+    }
+
+    /**
+     * Generates the HMAC-based one time tokens of consecutive counters lazily, e.g. for
+     * {@link java.util.stream.StreamSupport#intStream(Spliterator.OfInt, boolean)}, the spliterator can be split for parallel streams
+     * @param key The prepared secret
+     * @param fromCounter The first counter
+     * @param count Number of otps
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @return spliterator of the otps as integers
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IllegalArgumentException if count is negative
+     */
+    public Spliterator.OfInt hotpRangeSpliterator(OATHKey key, long fromCounter, long count, int digits){
+        checkRangeCount(count);
+
+        return new OTPRangeSpliterator(hotpRange(key, fromCounter, digits), 0, count);
+    }
+
+    /**
+     * Generates the time based one time tokens of all time steps from one timestamp to another (inclusive),
+     * the secret is processed once
+     * @param secret The secret
+     * @param fromTime The first timestamp
+     * @param toTime The last timestamp
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @param flag Hash algorithm
+     * @return the otps as integers, format them zero padded to digits, empty if toTime is in an earlier time step
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IllegalArgumentException if the range has too many time steps for an array
+     */
+    public int[] generateTotpRange(byte[] secret, long fromTime, long toTime, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        return generateTotpRange(new OATHKey(secret), fromTime, toTime, timeStepSize, startOffset, digits, flag);
+    }
+
+    /**
+     * Generates the time based one time tokens of all time steps from one timestamp to another (inclusive) with a prepared secret
+     * @param key The prepared secret
+     * @param fromTime The first timestamp
+     * @param toTime The last timestamp
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @param flag Hash algorithm
+     * @return the otps as integers, format them zero padded to digits, empty if toTime is in an earlier time step
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IllegalArgumentException if the range has too many time steps for an array
+     */
+    public int[] generateTotpRange(OATHKey key, long fromTime, long toTime, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        long count = timeStepCount(fromTime, toTime, timeStepSize, startOffset);
+
+        if(count > Integer.MAX_VALUE - 8){
+            throw new IllegalArgumentException("Too many time steps for an array: " + count);
+        }
+
+        int[] otps = new int[(int) count];
+        totpRange(key, fromTime, timeStepSize, startOffset, digits, flag).generate(0, otps, 0, otps.length);
+        return otps;
+    }
+
+    /**
+     * Generates the time based one time tokens of consecutive time steps with a prepared secret into a buffer
+     * @param key The prepared secret
+     * @param fromTime A timestamp in the first time step
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @param flag Hash algorithm
+     * @param buffer receives the otps as integers
+     * @param offset Index of the first otp in buffer
+     * @param count Number of otps
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     * @throws IndexOutOfBoundsException if the otps do not fit into the buffer
+     */
+    public void generateTotpRange(OATHKey key, long fromTime, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag,
+                                  int[] buffer, int offset, int count){
+        checkBufferRange(buffer, offset, count);
+        totpRange(key, fromTime, timeStepSize, startOffset, digits, flag).generate(0, buffer, offset, count);
+    }
+
+    /**
+     * Generates the time based one time tokens of all time steps from one timestamp to another (inclusive) lazily, e.g. for
+     * {@link java.util.stream.StreamSupport#intStream(Spliterator.OfInt, boolean)}, the spliterator can be split for parallel streams
+     * @param key The prepared secret
+     * @param fromTime The first timestamp
+     * @param toTime The last timestamp
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param digits Digits of the otps (6-8 digits are now supported)
+     * @param flag Hash algorithm
+     * @return spliterator of the otps as integers, empty if toTime is in an earlier time step
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     */
+    public Spliterator.OfInt totpRangeSpliterator(OATHKey key, long fromTime, long toTime, int timeStepSize, long startOffset,
+                                                  int digits, OATHTotpFlag flag){
+        return new OTPRangeSpliterator(totpRange(key, fromTime, timeStepSize, startOffset, digits, flag), 0,
+                timeStepCount(fromTime, toTime, timeStepSize, startOffset));
+    }
+
+    /**
+     * Checks a position returned by the primitive validate functions
+     * @param position The position
+     * @return true if the otp was valid
+     */
+    public static boolean isValidPosition(int position){
+        return position > INVALID_DIGITS_POSITION;
+    }
+
+    /**
+     * Maps a position returned by the primitive validate functions to the return code liboath would report
+     * @param position The position
+     * @return OATH_INVALID_OTP, OATH_INVALID_DIGITS or OATH_OK for a valid position
+     */
+    public static OATHReturnCode positionReturnCode(int position){
+        switch (position){
+            case INVALID_POSITION:
+                return OATHReturnCode.OATH_INVALID_OTP;
+            case INVALID_DIGITS_POSITION:
+                return OATHReturnCode.OATH_INVALID_DIGITS;
+            default:
+                return OATHReturnCode.OATH_OK;
+        }
+    }
+
+    /**
+     * Computes the time step counter the same way as liboath's oath_totp_generate2
+     * @param unixTimestamp The timestamp
+     * @param timeStepSize Size of timestep in seconds, 0 means default
+     * @param startOffset Offset to start from
+     * @return The moving factor for the timestamp
+     */
+    static long timeStep(long unixTimestamp, int timeStepSize, long startOffset){
+        long stepSize = timeStepSize == 0 ? LibOATH.OATH_TOTP_DEFAULT_TIME_STEP_SIZE : Integer.toUnsignedLong(timeStepSize);
+        return (unixTimestamp - startOffset) / stepSize;
+    }
+
+    /**
+     * Formats an otp zero padded with the given digits
+     * @param otp The otp
+     * @param digits Digits of the otp
+     * @return the otp as string
+     */
+    static String formatOtp(int otp, int digits){
+        char[] buffer = new char[digits];
+
+        for(int i = digits - 1; i >= 0; i--){
+            buffer[i] = (char) ('0' + otp % 10);
+            otp /= 10;
+        }
+
+        return new String(buffer);
+    }
+
+    /**
+     * Parses an otp consisting of at most 9 decimal digits
+     * @param otp The otp
+     * @return the otp as integer or -1 if it contains other characters or is too long
+     */
+    static int parseOtp(String otp){
+        if(otp.length() > 9){
+            return -1;
+        }
+
+        int value = 0;
+
+        for(int i = 0; i < otp.length(); i++){
+            char c = otp.charAt(i);
+
+            if(c < '0' || c > '9'){
+                return -1;
+            }
+
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * Measures a totp validation which calls the engine itself, e.g. a window searched step by step,
+     * as one validation in the metrics and as flight recorder event
+     * @param flag Hash algorithm
+     * @param window The window of the validation
+     * @param validation runs the validation and returns the position
+     * @return the position
+     */
+    int measureTotpValidation(OATHTotpFlag flag, long window, IntSupplier validation){
+        OATHMetrics metrics = this.metrics;
+
+        if(metrics == null && !OATHEvents.isEnabled(OATHMetrics.Operation.TOTP_VALIDATE)){
+            return validation.getAsInt();
+        }
+
+        return recordValidation(metrics, OATHMetrics.Operation.TOTP_VALIDATE, flag, window, validation);
+    }
+
+    /**
+     * Measures an operation and records it in the metrics and as flight recorder event
+     * @param metrics The metrics or null
+     * @param operation The operation
+     * @param flag Hash algorithm or null
+     * @param call runs the operation
+     * @return the result of the operation
+     */
+    private <T> T record(OATHMetrics metrics, OATHMetrics.Operation operation, OATHTotpFlag flag, Supplier<T> call){
+        OATHEvents.Event event = OATHEvents.begin(operation);
+        long start = System.nanoTime();
+        T result;
+
+        try {
+            result = call.get();
+        } catch (OATHException e) {
+            observe(metrics, event, operation, flag, e.getErrorCode(), 0, 0, start);
+            throw e;
+        }
+
+        observe(metrics, event, operation, flag, OATHReturnCode.OATH_OK, 0, 0, start);
+        return result;
+    }
+
+    /**
+     * Measures a validation and records it with its position in the metrics and as flight recorder event
+     * @param metrics The metrics or null
+     * @param operation The operation
+     * @param flag Hash algorithm
+     * @param window The window of the validation
+     * @param validation runs the validation and returns the position
+     * @return the position
+     */
+    private int recordValidation(OATHMetrics metrics, OATHMetrics.Operation operation, OATHTotpFlag flag, long window, IntSupplier validation){
+        OATHEvents.Event event = OATHEvents.begin(operation);
+        long start = System.nanoTime();
+        int position;
+
+        try {
+            position = validation.getAsInt();
+        } catch (OATHException e) {
+            observe(metrics, event, operation, flag, e.getErrorCode(), window, 0, start);
+            throw e;
+        }
+
+        observe(metrics, event, operation, flag, positionReturnCode(position), window, isValidPosition(position) ? position : 0, start);
+        return position;
+    }
+
+    /**
+     * Records a finished operation
+     * @param metrics The metrics or null
+     * @param event The started event or null
+     * @param operation The operation
+     * @param flag Hash algorithm or null
+     * @param returnCode The outcome
+     * @param window The window of a validation, otherwise 0
+     * @param position The position of a valid otp, otherwise 0
+     * @param start Start of the operation, see {@link System#nanoTime()}
+     */
+    private void observe(OATHMetrics metrics, OATHEvents.Event event, OATHMetrics.Operation operation, OATHTotpFlag flag, OATHReturnCode returnCode,
+                         long window, int position, long start){
+        long nanos = System.nanoTime() - start;
+
+        if(event != null){
+            event.finish(engine(), flag, returnCode, window, position);
+        }
+
+        if(metrics != null){
+            metrics.record(operation, flag, returnCode, position, nanos);
+        }
+    }
+
+    /**
+     * Runs a validation for every index of a batch
+     * @param size Size of the batch
+     * @param parallel spread the validations over the common fork join pool
+     * @param validation validates the otp at an index and returns its position
+     * @return the positions, {@link #INVALID_POSITION} for invalid otps or otps with unsupported digits
+     */
+    private static int[] validateBatch(int size, boolean parallel, IntUnaryOperator validation){
+        int[] result = new int[size];
+        IntUnaryOperator generator = i -> {
+            int position = validation.applyAsInt(i);
+            return position == INVALID_DIGITS_POSITION ? INVALID_POSITION : position;
+        };
+
+        if(parallel){
+            Arrays.parallelSetAll(result, generator);
+        } else {
+            Arrays.setAll(result, generator);
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs a generation for every index of a batch
+     * @param size Size of the batch
+     * @param parallel spread the generations over the common fork join pool
+     * @param generation generates the otp at an index
+     * @return the otps
+     */
+    private static int[] generateBatch(int size, boolean parallel, IntUnaryOperator generation){
+        int[] result = new int[size];
+
+        if(parallel){
+            Arrays.parallelSetAll(result, generation);
+        } else {
+            Arrays.setAll(result, generation);
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates HMAC-SHA1 otps in groups of {@link HmacSha1Lanes#LANES}
+     * @param padStates returns the pad state of the secret at an index
+     * @param movingFactors The counters
+     * @param digits Digits of the otps
+     * @param parallel spread the groups over the common fork join pool
+     * @return the otps
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     */
+    private static int[] generateSha1Batch(IntFunction<int[]> padStates, long[] movingFactors, int digits, boolean parallel){
+        checkDigits(digits);
+
+        int size = movingFactors.length;
+        int[][] states = new int[size][];
+        int[] otps = new int[size];
+        IntStream groups = IntStream.range(0, (size + HmacSha1Lanes.LANES - 1) / HmacSha1Lanes.LANES);
+
+        (parallel ? groups.parallel() : groups).forEach(group -> {
+            int offset = group * HmacSha1Lanes.LANES;
+            int count = Math.min(HmacSha1Lanes.LANES, size - offset);
+
+            //Pad states first, computing them uses the same per thread lanes
+            for(int i = offset; i < offset + count; i++){
+                states[i] = padStates.apply(i);
+            }
+
+            HmacSha1Lanes.get().generate(states, movingFactors, offset, count, digits, otps);
+        });
+
+        return otps;
+    }
+
+    /**
+     * Generator of the otps of consecutive counters, index 0 is fromCounter
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     */
+    private static OTPRangeSpliterator.RangeGenerator hotpRange(OATHKey key, long fromCounter, int digits){
+        checkDigits(digits);
+        int[] padState = key.sha1PadState();
+
+        return (index, otps, offset, count) -> {
+            HmacSha1Lanes lanes = HmacSha1Lanes.get();
+
+            for(int i = 0; i < count; i += HmacSha1Lanes.LANES){
+                lanes.generateRange(padState, fromCounter + index + i, Math.min(HmacSha1Lanes.LANES, count - i), digits, otps, offset + i);
+            }
+        };
+    }
+
+    /**
+     * Generator of the otps of consecutive time steps, index 0 is the time step of fromTime
+     * @throws OATHException with OATH_INVALID_DIGITS if the digits are not supported
+     */
+    private OTPRangeSpliterator.RangeGenerator totpRange(OATHKey key, long fromTime, int timeStepSize, long startOffset, int digits,
+                                                         OATHTotpFlag flag){
+        long firstStep = timeStep(fromTime, timeStepSize, startOffset);
+
+        if(flag == OATHTotpFlag.OATH_TOTP_HMAC_SHA1){
+            return hotpRange(key, firstStep, digits);
+        }
+
+        checkDigits(digits);
+        long stepSize = timeStepSize == 0 ? LibOATH.OATH_TOTP_DEFAULT_TIME_STEP_SIZE : Integer.toUnsignedLong(timeStepSize);
+
+        return (index, otps, offset, count) -> {
+            for(int i = 0; i < count; i++){
+                long unixTimestamp = startOffset + (firstStep + index + i) * stepSize;
+                otps[offset + i] = parseOtp(engine().totpGenerate(key, unixTimestamp, timeStepSize, startOffset, digits, flag));
+            }
+        };
+    }
+
+    /**
+     * @return number of time steps from the step of fromTime to the step of toTime (inclusive), 0 if toTime is in an earlier step
+     */
+    private static long timeStepCount(long fromTime, long toTime, int timeStepSize, long startOffset){
+        return Math.max(0, timeStep(toTime, timeStepSize, startOffset) - timeStep(fromTime, timeStepSize, startOffset) + 1);
+    }
+
+    /**
+     * @param digits Digits of the otps
+     * @throws OATHException with OATH_INVALID_DIGITS if digits is not 6, 7 or 8
+     */
+    private static void checkDigits(int digits){
+        if(digits < 6 || digits > 8){
+            throw new OATHException(OATHReturnCode.OATH_INVALID_DIGITS);
+        }
+    }
+
+    /**
+     * @param count Number of otps of a range
+     * @throws IllegalArgumentException if count is negative
+     */
+    private static void checkRangeCount(long count){
+        if(count < 0){
+            throw new IllegalArgumentException("Count must not be negative, got " + count);
+        }
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException if count otps do not fit into the buffer at offset
+     */
+    private static void checkBufferRange(int[] buffer, int offset, int count){
+        if(offset < 0 || count < 0 || count > buffer.length - offset){
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + count + ") out of bounds for length " + buffer.length);
+        }
+    }
+
+    /**
+     * @return the time step of every timestamp, see {@link #timeStep(long, int, long)}
+     */
+    private static long[] timeSteps(long[] unixTimestamps, int timeStepSize, long startOffset){
+        long[] steps = new long[unixTimestamps.length];
+
+        for(int i = 0; i < steps.length; i++){
+            steps[i] = timeStep(unixTimestamps[i], timeStepSize, startOffset);
+        }
+
+        return steps;
+    }
+
+    /**
+     * Checks that all columns of a batch have the same length
+     * @param lengths lengths of the columns
+     * @throws IllegalArgumentException if the lengths differ
+     */
+    private static void checkBatchLength(int... lengths){
+        for(int length : lengths){
+            if(length != lengths[0]){
+                throw new IllegalArgumentException("Batch arrays differ in length: " + Arrays.toString(lengths));
+            }
+        }
     }
 }
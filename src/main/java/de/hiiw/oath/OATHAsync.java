@@ -0,0 +1,332 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs the generate and validate operations of a wrapper asynchronously on a bounded executor,
+ * so blocking engine calls (like the native one) do not block the calling (e.g. event loop) thread.
+ * <p>
+ * The number of submitted but not finished operations is bounded, if it is reached further operations are
+ * rejected immediately with a {@link RejectedExecutionException} (backpressure). Every operation has a deadline,
+ * if it is exceeded the future completes with a {@link TimeoutException}, operations whose deadline passed
+ * while they were queued are dropped without calling the engine.
+ * <p>
+ * By default the pure Java engine runs on virtual threads (if the runtime has them, Java 21 or newer),
+ * the native engines run on a pool with one platform thread per processor, their downcalls would pin
+ * the carrier thread of a virtual thread. Instances are thread safe
+ */
+public final class OATHAsync implements AutoCloseable {
+    /**
+     * The wrapper doing the actual work
+     */
+    private final OATH oath;
+
+    /**
+     * Runs the operations
+     */
+    private final Executor executor;
+
+    /**
+     * The own executor which is shut down on close, null if the executor was given
+     */
+    private final ExecutorService ownExecutor;
+
+    /**
+     * Permits for submitted but not finished operations
+     */
+    private final Semaphore pending;
+
+    /**
+     * Maximum number of submitted but not finished operations
+     */
+    private final int maxPending;
+
+    /**
+     * Default deadline of an operation in nanoseconds, 0 for none
+     */
+    private final long timeoutNanos;
+
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new asynchronous wrapper with its own executor, virtual threads for the pure Java engine
+     * (if available) or one platform thread per processor otherwise
+     * @param oath The wrapper doing the actual work, it is not closed with this instance
+     * @param maxPending Maximum number of submitted but not finished operations
+     * @param timeout Default deadline of an operation, null or zero for none
+     * @throws IllegalArgumentException if maxPending is not positive or the timeout is negative
+     */
+    public OATHAsync(OATH oath, int maxPending, Duration timeout){
+        this(oath, defaultExecutor(oath), true, maxPending, timeout);
+    }
+
+    /**
+     * Constructs a new asynchronous wrapper running the operations on the given executor
+     * @param oath The wrapper doing the actual work, it is not closed with this instance
+     * @param executor Runs the operations, it is not shut down with this instance
+     * @param maxPending Maximum number of submitted but not finished operations
+     * @param timeout Default deadline of an operation, null or zero for none
+     * @throws IllegalArgumentException if maxPending is not positive or the timeout is negative
+     */
+    public OATHAsync(OATH oath, Executor executor, int maxPending, Duration timeout){
+        this(oath, executor, false, maxPending, timeout);
+    }
+
+    private OATHAsync(OATH oath, Executor executor, boolean ownExecutor, int maxPending, Duration timeout){
+        if(maxPending <= 0){
+            throw new IllegalArgumentException("Maximum pending operations must be positive, got " + maxPending);
+        }
+
+        if(timeout != null && timeout.isNegative()){
+            throw new IllegalArgumentException("Timeout must not be negative, got " + timeout);
+        }
+
+        this.oath = oath;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor ? (ExecutorService) executor : null;
+        this.pending = new Semaphore(maxPending);
+        this.maxPending = maxPending;
+        this.timeoutNanos = timeout == null ? 0 : timeout.toNanos();
+    }
+
+    /**
+     * Generates a time based one time token asynchronously, see {@link OATH#totpGenerate(OATHKey, long, int, long, int, OATHTotpFlag)}
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param digits Digits of the otp (6-8)
+     * @param flag Hash algorithm
+     * @return the future otp, failing with an {@link OATHException}, {@link TimeoutException} or {@link RejectedExecutionException}
+     */
+    public CompletableFuture<String> totpGenerate(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        return submit(oath -> oath.totpGenerate(key, unixTimestamp, timeStepSize, startOffset, digits, flag));
+    }
+
+    /**
+     * Validates a time based one time token asynchronously, see {@link OATH#totpValidate(OATHKey, long, int, long, int, OATHTotpFlag, String)}
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return the future validate result, failing with an {@link OATHException} (e.g. OATH_INVALID_OTP),
+     * {@link TimeoutException} or {@link RejectedExecutionException}
+     */
+    public CompletableFuture<OATHTotpValidateResult> totpValidate(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window,
+                                                                  OATHTotpFlag flag, String otp){
+        return submit(oath -> oath.totpValidate(key, unixTimestamp, timeStepSize, startOffset, window, flag, otp));
+    }
+
+    /**
+     * Validates a time based one time token asynchronously, see {@link OATH#validateTotpPosition(OATHKey, long, int, long, int, OATHTotpFlag, String)}
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return the future position, see {@link OATH#isValidPosition(int)}, failing with a
+     * {@link TimeoutException} or {@link RejectedExecutionException}
+     */
+    public CompletableFuture<Integer> validateTotpPosition(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window,
+                                                           OATHTotpFlag flag, String otp){
+        return submit(oath -> oath.validateTotpPosition(key, unixTimestamp, timeStepSize, startOffset, window, flag, otp));
+    }
+
+    /**
+     * Generates a HMAC-based one time token asynchronously, see {@link OATH#hotpGenerate(OATHKey, long, int, long)}
+     * @param key The prepared secret
+     * @param movingFactor The counter
+     * @param digits Digits of the otp (6-8)
+     * @param truncationOffset use a specific truncation offset
+     * @return the future otp, failing with an {@link OATHException}, {@link TimeoutException} or {@link RejectedExecutionException}
+     */
+    public CompletableFuture<String> hotpGenerate(OATHKey key, long movingFactor, int digits, long truncationOffset){
+        return submit(oath -> oath.hotpGenerate(key, movingFactor, digits, truncationOffset));
+    }
+
+    /**
+     * Validates a HMAC-based one time token asynchronously, see {@link OATH#validateHotpPosition(OATHKey, long, long, String)}
+     * @param key The prepared secret
+     * @param startMovingFactor The counter to start from
+     * @param window Number of otps after the start counter to test
+     * @param otp The otp to validate
+     * @return the future position, see {@link OATH#isValidPosition(int)}, failing with a
+     * {@link TimeoutException} or {@link RejectedExecutionException}
+     */
+    public CompletableFuture<Integer> validateHotpPosition(OATHKey key, long startMovingFactor, long window, String otp){
+        return submit(oath -> oath.validateHotpPosition(key, startMovingFactor, window, otp));
+    }
+
+    /**
+     * Runs an operation with the default deadline
+     * @param call The operation
+     * @return the future result
+     */
+    public <T> CompletableFuture<T> submit(Function<OATH, T> call){
+        return submit(call, timeoutNanos);
+    }
+
+    /**
+     * Runs an operation with its own deadline
+     * @param call The operation
+     * @param timeout The deadline of this operation, null or zero for none
+     * @return the future result, failing with the exception of the operation, a {@link TimeoutException}
+     * if the deadline passed or a {@link RejectedExecutionException} if too many operations are pending or this instance is closed
+     */
+    public <T> CompletableFuture<T> submit(Function<OATH, T> call, Duration timeout){
+        return submit(call, timeout == null ? 0 : timeout.toNanos());
+    }
+
+    /**
+     * @return number of submitted but not finished operations
+     */
+    public int getPending(){
+        return maxPending - pending.availablePermits();
+    }
+
+    /**
+     * Rejects further operations and shuts down the own executor, pending operations are still run
+     */
+    @Override
+    public void close(){
+        closed = true;
+
+        if(ownExecutor != null){
+            ownExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Runs an operation if a permit is available
+     * @param call The operation
+     * @param timeoutNanos The deadline in nanoseconds, 0 for none
+     * @return the future result
+     */
+    private <T> CompletableFuture<T> submit(Function<OATH, T> call, long timeoutNanos){
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        if(closed){
+            future.completeExceptionally(new RejectedExecutionException("Closed"));
+            return future;
+        }
+
+        if(!pending.tryAcquire()){
+            future.completeExceptionally(new RejectedExecutionException("More than " + maxPending + " pending operations"));
+            return future;
+        }
+
+        if(timeoutNanos > 0){
+            ScheduledFuture<?> deadline = Deadlines.SCHEDULER.schedule(
+                    () -> future.completeExceptionally(new TimeoutException("Deadline of " + timeoutNanos + " ns exceeded")),
+                    timeoutNanos, TimeUnit.NANOSECONDS);
+            future.whenComplete((result, e) -> deadline.cancel(false));
+        }
+
+        try {
+            executor.execute(() -> run(future, call));
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Runs an operation unless its future already completed (the deadline passed while it was queued)
+     * @param future The future of the operation
+     * @param call The operation
+     */
+    private <T> void run(CompletableFuture<T> future, Function<OATH, T> call){
+        try {
+            if(!future.isDone()){
+                future.complete(call.apply(oath));
+            }
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            pending.release();
+        }
+    }
+
+    /**
+     * Creates the own executor, virtual threads for the pure Java engine if available,
+     * otherwise a pool with one daemon thread per processor
+     * @param oath The wrapper doing the actual work
+     * @return the executor
+     */
+    private static ExecutorService defaultExecutor(OATH oath){
+        if(oath.getEngine() instanceof JavaOATHEngine){
+            try {
+                //Java 21 or newer, loaded reflectively since this library targets Java 8
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                //no virtual threads, fall back to platform threads
+            }
+        }
+
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), daemonThreads("oath-async-"));
+    }
+
+    /**
+     * @param prefix Prefix of the thread names
+     * @return factory of numbered daemon threads
+     */
+    private static ThreadFactory daemonThreads(String prefix){
+        AtomicInteger count = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Holds the scheduler completing futures at their deadline, initialized lazily on the first deadline
+     */
+    private static final class Deadlines {
+        private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, daemonThreads("oath-deadline-"));
+
+        static {
+            SCHEDULER.setRemoveOnCancelPolicy(true);
+        }
+    }
+}
@@ -0,0 +1,627 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Table driven pure Java Base32 (RFC 4648) codec, producing the same output as liboath
+ * (oath_base32_encode, oath_base32_decode). Decoding is lenient like liboath: spaces are ignored,
+ * lowercase letters are accepted and missing padding is added. The array and buffer functions do not allocate
+ */
+public final class OATHBase32 {
+    /**
+     * Base32 alphabet
+     */
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Value of every ascii character, -1 if it is not part of the alphabet
+     */
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    /**
+     * Decoder state: bits 0-39 data of the current block, bits 40-43 position in the block,
+     * bits 44-47 number of data characters of a padded block plus one (0 if not padded)
+     */
+    private static final long BLOCK_MASK = (1L << 40) - 1;
+    private static final long PADDED_MASK = 0xFL << 44;
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+
+        for(int i = 0; i < ALPHABET.length; i++){
+            DECODE_TABLE[ALPHABET[i]] = (byte) i;
+            DECODE_TABLE[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+        }
+    }
+
+    private OATHBase32(){
+    }
+
+    /**
+     * @param length number of bytes to encode
+     * @return number of base32 characters (including padding)
+     */
+    public static int encodedLength(int length){
+        return (length + 4) / 5 * 8;
+    }
+
+    /**
+     * @param length number of base32 characters
+     * @return maximum number of decoded bytes
+     */
+    public static int decodedMaxLength(int length){
+        return (length + 7) / 8 * 5;
+    }
+
+    /**
+     * Encodes the given byte array input to a base32 representation
+     * @param input input byte array
+     * @return Base32 encoded input
+     */
+    public static String encode(byte[] input){
+        char[] buffer = new char[encodedLength(input.length)];
+        encode(input, 0, input.length, buffer, 0);
+        return new String(buffer);
+    }
+
+    /**
+     * Encodes a part of a byte array into base32 characters
+     * @param input input byte array
+     * @param offset offset of the first byte to encode
+     * @param length number of bytes to encode
+     * @param output receives the base32 characters
+     * @param outputOffset offset of the first character in output
+     * @return number of written characters
+     * @throws OATHException with OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int encode(byte[] input, int offset, int length, char[] output, int outputOffset){
+        int encodedLength = checkEncodeSpace(length, output.length - outputOffset);
+
+        for(int i = 0; i < length; i += 5){
+            int blockLength = Math.min(5, length - i);
+            long block = readBlock(input, offset + i, blockLength);
+
+            for(int j = 0; j < 8; j++){
+                output[outputOffset++] = (char) encodeChar(block, blockLength, j);
+            }
+        }
+
+        return encodedLength;
+    }
+
+    /**
+     * Encodes a part of a byte array into base32 ascii bytes
+     * @param input input byte array
+     * @param offset offset of the first byte to encode
+     * @param length number of bytes to encode
+     * @param output receives the base32 ascii bytes
+     * @param outputOffset offset of the first byte in output
+     * @return number of written bytes
+     * @throws OATHException with OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int encode(byte[] input, int offset, int length, byte[] output, int outputOffset){
+        int encodedLength = checkEncodeSpace(length, output.length - outputOffset);
+
+        for(int i = 0; i < length; i += 5){
+            int blockLength = Math.min(5, length - i);
+            long block = readBlock(input, offset + i, blockLength);
+
+            for(int j = 0; j < 8; j++){
+                output[outputOffset++] = encodeChar(block, blockLength, j);
+            }
+        }
+
+        return encodedLength;
+    }
+
+    /**
+     * Encodes the remaining bytes of input into base32 ascii bytes, both buffers are advanced
+     * @param input input bytes
+     * @param output receives the base32 ascii bytes
+     * @return number of written bytes
+     * @throws OATHException with OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int encode(ByteBuffer input, ByteBuffer output){
+        int encodedLength = checkEncodeSpace(input.remaining(), output.remaining());
+
+        while(input.hasRemaining()){
+            int blockLength = Math.min(5, input.remaining());
+            long block = 0;
+
+            for(int j = 0; j < 5; j++){
+                block = (block << 8) | (j < blockLength ? input.get() & 0xFF : 0);
+            }
+
+            for(int j = 0; j < 8; j++){
+                output.put(encodeChar(block, blockLength, j));
+            }
+        }
+
+        return encodedLength;
+    }
+
+    /**
+     * Decodes a given base32 encoded string into a byte array
+     * @param input base32 encoded string
+     * @return result byte array
+     * @throws OATHException with OATH_INVALID_BASE32 if the input is malformed
+     */
+    public static byte[] decode(CharSequence input){
+        byte[] buffer = new byte[decodedMaxLength(input.length())];
+        int length = decode(input, 0, input.length(), buffer, 0);
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Decodes a part of base32 characters into a byte array
+     * @param input base32 encoded characters
+     * @param offset offset of the first character
+     * @param length number of characters
+     * @param output receives the decoded bytes
+     * @param outputOffset offset of the first byte in output
+     * @return number of written bytes
+     * @throws OATHException with OATH_INVALID_BASE32 if the input is malformed or OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int decode(CharSequence input, int offset, int length, byte[] output, int outputOffset){
+        long state = 0;
+        int start = outputOffset;
+
+        for(int i = offset; i < offset + length; i++){
+            char c = input.charAt(i);
+
+            if(c != ' ' && position(state = step(state, c)) == 8){
+                outputOffset = writeBlock(state, output, outputOffset);
+                state &= PADDED_MASK;
+            }
+        }
+
+        return finish(state, output, outputOffset) - start;
+    }
+
+    /**
+     * Decodes a part of base32 ascii bytes into a byte array
+     * @param input base32 encoded ascii bytes
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param output receives the decoded bytes
+     * @param outputOffset offset of the first byte in output
+     * @return number of written bytes
+     * @throws OATHException with OATH_INVALID_BASE32 if the input is malformed or OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int decode(byte[] input, int offset, int length, byte[] output, int outputOffset){
+        long state = 0;
+        int start = outputOffset;
+
+        for(int i = offset; i < offset + length; i++){
+            byte c = input[i];
+
+            if(c != ' ' && position(state = step(state, c)) == 8){
+                outputOffset = writeBlock(state, output, outputOffset);
+                state &= PADDED_MASK;
+            }
+        }
+
+        return finish(state, output, outputOffset) - start;
+    }
+
+    /**
+     * Decodes a part of base32 characters into a buffer
+     * @param input base32 encoded characters
+     * @param offset offset of the first character
+     * @param length number of characters
+     * @param output receives the decoded bytes, its position is unchanged if an exception occurs
+     * @return number of written bytes
+     * @throws OATHException with OATH_INVALID_BASE32 if the input is malformed or OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int decode(char[] input, int offset, int length, ByteBuffer output){
+        int start = output.position();
+        long state = 0;
+
+        try {
+            for(int i = offset; i < offset + length; i++){
+                char c = input[i];
+
+                if(c != ' ' && position(state = step(state, c)) == 8){
+                    writeBlock(state, output);
+                    state &= PADDED_MASK;
+                }
+            }
+
+            finish(state, output);
+            return output.position() - start;
+        } catch (OATHException e) {
+            output.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes the remaining base32 ascii bytes of input into a buffer, both buffers are advanced
+     * @param input base32 encoded ascii bytes
+     * @param output receives the decoded bytes, the positions are unchanged if an exception occurs
+     * @return number of written bytes
+     * @throws OATHException with OATH_INVALID_BASE32 if the input is malformed or OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int decode(ByteBuffer input, ByteBuffer output){
+        int inputStart = input.position();
+        int start = output.position();
+        long state = 0;
+
+        try {
+            while(input.hasRemaining()){
+                byte c = input.get();
+
+                if(c != ' ' && position(state = step(state, c)) == 8){
+                    writeBlock(state, output);
+                    state &= PADDED_MASK;
+                }
+            }
+
+            finish(state, output);
+            return output.position() - start;
+        } catch (OATHException e) {
+            input.position(inputStart);
+            output.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads up to 5 bytes big endian, missing bytes are zero
+     */
+    private static long readBlock(byte[] input, int offset, int blockLength){
+        long block = 0;
+
+        for(int j = 0; j < 5; j++){
+            block = (block << 8) | (j < blockLength ? input[offset + j] & 0xFF : 0);
+        }
+
+        return block;
+    }
+
+    /**
+     * @param block 5 bytes of input
+     * @param blockLength number of valid bytes in the block
+     * @param index index of the character (0-7)
+     * @return the base32 character or padding
+     */
+    private static byte encodeChar(long block, int blockLength, int index){
+        //Number of characters carrying data, the rest is padding
+        return index < (blockLength * 8 + 4) / 5 ? ALPHABET[(int) (block >>> (35 - index * 5)) & 0x1F] : (byte) '=';
+    }
+
+    /**
+     * @return the encoded length
+     * @throws OATHException with OATH_TOO_SMALL_BUFFER if space is too small
+     */
+    private static int checkEncodeSpace(int length, int space){
+        int encodedLength = encodedLength(length);
+
+        if(space < encodedLength){
+            throw new OATHException(OATHReturnCode.OATH_TOO_SMALL_BUFFER);
+        }
+
+        return encodedLength;
+    }
+
+    /**
+     * Feeds a (non space) character into the decoder
+     * @param state The decoder state
+     * @param c The character
+     * @return the new decoder state
+     * @throws OATHException with OATH_INVALID_BASE32 if the character is not allowed here
+     */
+    private static long step(long state, int c){
+        int position = position(state);
+        int padded = (int) (state >>> 44) - 1;
+        long block = state & BLOCK_MASK;
+
+        if(padded >= 0 && (c != '=' || position == 0)){
+            //Only padding may follow padding and only up to the end of the block
+            throw new OATHException(OATHReturnCode.OATH_INVALID_BASE32);
+        } else if(c == '='){
+            padded = padded >= 0 ? padded : position;
+        } else {
+            int value = c >= 0 && c < 128 ? DECODE_TABLE[c] : -1;
+
+            if(value < 0){
+                throw new OATHException(OATHReturnCode.OATH_INVALID_BASE32);
+            }
+
+            block = (block << 5) | value;
+        }
+
+        return block | (long) (position + 1) << 40 | (long) (padded + 1) << 44;
+    }
+
+    /**
+     * @param state The decoder state
+     * @return position in the current block
+     */
+    private static int position(long state){
+        return (int) (state >>> 40) & 0xF;
+    }
+
+    /**
+     * Returns the number of bytes of the current block
+     * @param state The decoder state
+     * @return number of bytes
+     * @throws OATHException with OATH_INVALID_BASE32 if padding started at an invalid position
+     */
+    private static int blockBytes(long state){
+        int padded = (int) (state >>> 44) - 1;
+        int chars = padded >= 0 ? padded : position(state);
+
+        if(chars == 0 || chars == 1 || chars == 3 || chars == 6){
+            throw new OATHException(OATHReturnCode.OATH_INVALID_BASE32);
+        }
+
+        return chars * 5 / 8;
+    }
+
+    /**
+     * @param state The decoder state
+     * @param index index of the byte in the block
+     * @return the decoded byte
+     */
+    private static byte blockByte(long state, int index){
+        int padded = (int) (state >>> 44) - 1;
+        int chars = padded >= 0 ? padded : position(state);
+        return (byte) ((state & BLOCK_MASK) << 5 * (8 - chars) >>> (32 - index * 8));
+    }
+
+    private static int writeBlock(long state, byte[] output, int outputOffset){
+        int bytes = blockBytes(state);
+
+        if(output.length - outputOffset < bytes){
+            throw new OATHException(OATHReturnCode.OATH_TOO_SMALL_BUFFER);
+        }
+
+        for(int j = 0; j < bytes; j++){
+            output[outputOffset++] = blockByte(state, j);
+        }
+
+        return outputOffset;
+    }
+
+    private static void writeBlock(long state, ByteBuffer output){
+        int bytes = blockBytes(state);
+
+        if(output.remaining() < bytes){
+            throw new OATHException(OATHReturnCode.OATH_TOO_SMALL_BUFFER);
+        }
+
+        for(int j = 0; j < bytes; j++){
+            output.put(blockByte(state, j));
+        }
+    }
+
+    /**
+     * Writes the last (incomplete) block, missing padding is implied
+     */
+    private static int finish(long state, byte[] output, int outputOffset){
+        return position(state) > 0 ? writeBlock(state, output, outputOffset) : outputOffset;
+    }
+
+    private static void finish(long state, ByteBuffer output){
+        if(position(state) > 0){
+            writeBlock(state, output);
+        }
+    }
+
+    /**
+     * Output stream encoding all written bytes to base32 ascii, padding is written on close
+     */
+    public static class EncodingOutputStream extends FilterOutputStream {
+        private final byte[] block = new byte[5];
+        private final byte[] encoded = new byte[encodedLength(5 * 1024)];
+        private int blockLength;
+
+        /**
+         * @param out receives the base32 ascii bytes
+         */
+        public EncodingOutputStream(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            block[blockLength++] = (byte) b;
+
+            if(blockLength == 5){
+                flushBlock();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0 && blockLength > 0){
+                write(b[off++]);
+                len--;
+            }
+
+            //Encode whole blocks directly, chunk by chunk
+            int whole = len / 5 * 5;
+
+            for(int i = 0; i < whole; i += 5 * 1024){
+                int chunk = Math.min(5 * 1024, whole - i);
+                out.write(encoded, 0, encode(b, off + i, chunk, encoded, 0));
+            }
+
+            for(int i = whole; i < len; i++){
+                write(b[off + i]);
+            }
+        }
+
+        /**
+         * Writes the last block with padding, further writes start a new base32 string
+         * @throws IOException if an I/O error occurs
+         */
+        public void finish() throws IOException {
+            if(blockLength > 0){
+                flushBlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                super.close();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            out.write(encoded, 0, encode(block, 0, blockLength, encoded, 0));
+            blockLength = 0;
+        }
+    }
+
+    /**
+     * Input stream decoding the base32 ascii bytes of an underlying stream with the same rules as liboath
+     * (spaces are ignored, padding is optional), malformed input results in an {@link OATHException}
+     */
+    public static class DecodingInputStream extends FilterInputStream {
+        private final byte[] input = new byte[1024];
+        private final byte[] decoded = new byte[5];
+        private final byte[] single = new byte[1];
+        private int inputPosition;
+        private int inputLength;
+        private long state;
+        private int decodedPosition;
+        private int decodedLength;
+        private boolean eof;
+
+        /**
+         * @param in provides the base32 ascii bytes
+         */
+        public DecodingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0){
+                return 0;
+            }
+
+            int read = 0;
+
+            while(read < len){
+                if(decodedPosition < decodedLength){
+                    int count = Math.min(len - read, decodedLength - decodedPosition);
+                    System.arraycopy(decoded, decodedPosition, b, off + read, count);
+                    decodedPosition += count;
+                    read += count;
+                } else if(!fill()){
+                    break;
+                }
+            }
+
+            return read == 0 ? -1 : read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+
+            while(skipped < n && read() >= 0){
+                skipped++;
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return decodedLength - decodedPosition;
+        }
+
+        @Override
+        public boolean markSupported(){
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit){
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        /**
+         * Decodes the next block
+         * @return false if the end of the stream is reached
+         */
+        private boolean fill() throws IOException {
+            decodedPosition = 0;
+            decodedLength = 0;
+
+            while(!eof){
+                if(inputPosition == inputLength){
+                    inputLength = in.read(input, 0, input.length);
+                    inputPosition = 0;
+
+                    if(inputLength < 0){
+                        eof = true;
+                        inputLength = 0;
+
+                        if(position(state) > 0){
+                            decodedLength = writeBlock(state, decoded, 0);
+                            state &= PADDED_MASK;
+                        }
+
+                        return decodedLength > 0;
+                    }
+                }
+
+                byte c = input[inputPosition++];
+
+                if(c != ' ' && position(state = step(state, c)) == 8){
+                    decodedLength = writeBlock(state, decoded, 0);
+                    state &= PADDED_MASK;
+
+                    if(decodedLength > 0){
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+}
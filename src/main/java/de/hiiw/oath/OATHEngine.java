@@ -0,0 +1,209 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Backend doing the actual otp work behind the {@link OATH} facade.
+ * Implementations are either backed by the native liboath ({@link NativeOATHEngine})
+ * or written in pure Java ({@link JavaOATHEngine}), both must produce the same results.
+ * Errors are reported by throwing an {@link OATHException}, except invalid otps and unsupported
+ * digits of validated otps, which are returned as {@link OATH#INVALID_POSITION} and
+ * {@link OATH#INVALID_DIGITS_POSITION} without constructing an exception.
+ */
+public interface OATHEngine extends AutoCloseable {
+    /**
+     * Releases the resources held by the engine, the engine must not be used afterwards.
+     * Closing an engine more than once has no effect, the default implementation does nothing
+     * @throws OATHException if an exception occurred while releasing
+     */
+    @Override
+    default void close(){
+    }
+
+    /**
+     * Checks the version of the engine
+     * @param requiredVersion minimum required version (can be null)
+     * @return version of the engine if requiredVersion is lower or equal or null, else null
+     */
+    String checkVersion(String requiredVersion);
+
+    /**
+     * @param errorCode The return code
+     * @return string representation of the return code
+     */
+    String strError(OATHReturnCode errorCode);
+
+    /**
+     * @param errorCode The return code
+     * @return name of the return code
+     */
+    String strErrorName(OATHReturnCode errorCode);
+
+    /**
+     * Generates a time based one time token, see {@link OATH#totpGenerate(byte[], long, int, long, int, OATHTotpFlag)}
+     */
+    String totpGenerate(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag);
+
+    /**
+     * Generates a time based one time token with a prepared secret, the default implementation uses the raw secret
+     */
+    default String totpGenerate(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        return totpGenerate(key.getSecret(), unixTimestamp, timeStepSize, startOffset, digits, flag);
+    }
+
+    /**
+     * Validates a time based one time token, see {@link OATH#validateTotpPosition(byte[], long, int, long, int, OATHTotpFlag, String)}
+     * @return relative position of the otp or {@link OATH#INVALID_POSITION} if the otp is invalid,
+     * {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    int totpValidatePosition(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp);
+
+    /**
+     * Generates a time based one time token with a secret read from a buffer (e.g. an {@link OATHSecretStore} slab),
+     * the default implementation uses a temporary copy which is zeroed afterwards
+     * @param secret The secret, the remaining bytes are used, the position is not changed
+     */
+    default String totpGenerate(ByteBuffer secret, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        byte[] copy = OATHSecretStore.copyOf(secret);
+
+        try {
+            return totpGenerate(copy, unixTimestamp, timeStepSize, startOffset, digits, flag);
+        } finally {
+            Arrays.fill(copy, (byte) 0);
+        }
+    }
+
+    /**
+     * Validates a time based one time token with a prepared secret, the default implementation uses the raw secret
+     * @return relative position of the otp or {@link OATH#INVALID_POSITION} if the otp is invalid,
+     * {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    default int totpValidatePosition(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        return totpValidatePosition(key.getSecret(), unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+    }
+
+    /**
+     * Validates a time based one time token with a secret read from a buffer,
+     * the default implementation uses a temporary copy which is zeroed afterwards
+     * @param secret The secret, the remaining bytes are used, the position is not changed
+     * @return relative position of the otp or {@link OATH#INVALID_POSITION} if the otp is invalid,
+     * {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    default int totpValidatePosition(ByteBuffer secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        byte[] copy = OATHSecretStore.copyOf(secret);
+
+        try {
+            return totpValidatePosition(copy, unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+        } finally {
+            Arrays.fill(copy, (byte) 0);
+        }
+    }
+
+    /**
+     * Validates a numeric time based one time token with a prepared secret, the default implementation formats the otp
+     * @return relative position of the otp or {@link OATH#INVALID_POSITION} if the otp is invalid,
+     * {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    default int totpValidatePosition(OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, int otp, int digits){
+        if(digits < 6 || digits > 8){
+            return OATH.INVALID_DIGITS_POSITION;
+        }
+
+        return otp < 0 || Integer.toString(otp).length() > digits ? OATH.INVALID_POSITION :
+                totpValidatePosition(key, unixTimestamp, timeStepSize, startOffset, window, flag, OATH.formatOtp(otp, digits));
+    }
+
+    /**
+     * Generates a HMAC-based one time token, see {@link OATH#hotpGenerate(byte[], long, int, long)}
+     */
+    String hotpGenerate(byte[] secret, long movingFactor, int digits, long truncationOffset);
+
+    /**
+     * Generates a HMAC-based one time token with a prepared secret, the default implementation uses the raw secret
+     */
+    default String hotpGenerate(OATHKey key, long movingFactor, int digits, long truncationOffset){
+        return hotpGenerate(key.getSecret(), movingFactor, digits, truncationOffset);
+    }
+
+    /**
+     * Generates a HMAC-based one time token with a secret read from a buffer,
+     * the default implementation uses a temporary copy which is zeroed afterwards
+     * @param secret The secret, the remaining bytes are used, the position is not changed
+     */
+    default String hotpGenerate(ByteBuffer secret, long movingFactor, int digits, long truncationOffset){
+        byte[] copy = OATHSecretStore.copyOf(secret);
+
+        try {
+            return hotpGenerate(copy, movingFactor, digits, truncationOffset);
+        } finally {
+            Arrays.fill(copy, (byte) 0);
+        }
+    }
+
+    /**
+     * Validates a HMAC-based one time token, see {@link OATH#validateHotpPosition(byte[], long, long, String)}
+     * @return position in OTP window (zero is first position) or {@link OATH#INVALID_POSITION} if the otp is invalid,
+     * {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    int hotpValidatePosition(byte[] secret, long startMovingFactor, long window, String otp);
+
+    /**
+     * Validates a HMAC-based one time token with a prepared secret, the default implementation uses the raw secret
+     * @return position in OTP window (zero is first position) or {@link OATH#INVALID_POSITION} if the otp is invalid,
+     * {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    default int hotpValidatePosition(OATHKey key, long startMovingFactor, long window, String otp){
+        return hotpValidatePosition(key.getSecret(), startMovingFactor, window, otp);
+    }
+
+    /**
+     * Validates a HMAC-based one time token with a secret read from a buffer,
+     * the default implementation uses a temporary copy which is zeroed afterwards
+     * @param secret The secret, the remaining bytes are used, the position is not changed
+     * @return position in OTP window (zero is first position) or {@link OATH#INVALID_POSITION} if the otp is invalid,
+     * {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    default int hotpValidatePosition(ByteBuffer secret, long startMovingFactor, long window, String otp){
+        byte[] copy = OATHSecretStore.copyOf(secret);
+
+        try {
+            return hotpValidatePosition(copy, startMovingFactor, window, otp);
+        } finally {
+            Arrays.fill(copy, (byte) 0);
+        }
+    }
+
+    /**
+     * Validates a numeric HMAC-based one time token with a prepared secret, the default implementation formats the otp
+     * @return position in OTP window (zero is first position) or {@link OATH#INVALID_POSITION} if the otp is invalid,
+     * {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     */
+    default int hotpValidatePosition(OATHKey key, long startMovingFactor, long window, int otp, int digits){
+        if(digits < 6 || digits > 8){
+            return OATH.INVALID_DIGITS_POSITION;
+        }
+
+        return otp < 0 || Integer.toString(otp).length() > digits ? OATH.INVALID_POSITION :
+                hotpValidatePosition(key, startMovingFactor, window, OATH.formatOtp(otp, digits));
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Enrolls credentials in bulk: generates a random secret per account and writes its {@link OTPAuthURI},
+ * one uri per line in the order of the accounts. The accounts are read in batches, every batch is split into
+ * chunks which are formatted in parallel on a fork join pool and written before the next batch is read,
+ * so the memory does not depend on the number of accounts.
+ * <p>
+ * Every thread has its own DRBG (SecureRandom DRBG on Java 9 or newer, otherwise the default SecureRandom)
+ * and reuses its secret, base32 and text buffers, all of them are zeroed after every chunk.
+ * Instances are thread safe
+ */
+public class OATHEnrollment {
+    /**
+     * Accounts formatted by one task
+     */
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * Chunks per batch and thread of the pool, so threads finishing early find more work
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final String issuer;
+    private final int secretLength;
+    private final OATHTotpFlag flag;
+    private final int digits;
+    private final int period;
+
+    /**
+     * Random generator and buffers per thread
+     */
+    private final ThreadLocal<Worker> workers;
+
+    /**
+     * Constructs a new enrollment of time based credentials
+     * @param issuer The issuer (provider or service) of the uris, null for none
+     * @param secretLength Length of the secrets in bytes (usually 20)
+     * @param flag Hash algorithm
+     * @param digits Digits of the otp (6-8)
+     * @param period Size of timestep in seconds (usually 30)
+     * @throws IllegalArgumentException if secretLength is not positive, the digits are unsupported or the period is not positive
+     */
+    public OATHEnrollment(String issuer, int secretLength, OATHTotpFlag flag, int digits, int period){
+        if(secretLength <= 0){
+            throw new IllegalArgumentException("Secret length must be positive, got " + secretLength);
+        } else if(digits < 6 || digits > 8){
+            throw new IllegalArgumentException("Digits must be 6, 7 or 8, got " + digits);
+        } else if(period <= 0){
+            throw new IllegalArgumentException("Period must be positive, got " + period);
+        }
+
+        this.issuer = issuer;
+        this.secretLength = secretLength;
+        this.flag = flag;
+        this.digits = digits;
+        this.period = period;
+        this.workers = ThreadLocal.withInitial(() -> new Worker(secretLength));
+    }
+
+    /**
+     * @return a new random secret
+     */
+    public byte[] generateSecret(){
+        byte[] secret = new byte[secretLength];
+        workers.get().random.nextBytes(secret);
+        return secret;
+    }
+
+    /**
+     * Enrolls a single account
+     * @param account The account name
+     * @return the uri with a new random secret
+     */
+    public OTPAuthURI enroll(String account){
+        return OTPAuthURI.totp(issuer, account, generateSecret(), flag, digits, period);
+    }
+
+    /**
+     * Enrolls accounts on the common pool, see {@link #enroll(Iterator, OutputStream, ForkJoinPool)}
+     */
+    public long enroll(Iterator<String> accounts, OutputStream out) throws IOException {
+        return enroll(accounts, out, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Enrolls accounts and writes their uris (US-ASCII, one per line) in the order of the accounts,
+     * the stream is flushed after every batch
+     * @param accounts The account names
+     * @param out Receives the uris, it is not closed
+     * @param pool Formats the chunks of a batch
+     * @return number of enrolled accounts
+     * @throws IOException if the stream cannot be written
+     * @throws IllegalArgumentException if an account name is empty
+     */
+    public long enroll(Iterator<String> accounts, OutputStream out, ForkJoinPool pool) throws IOException {
+        String[] batch = new String[CHUNK_SIZE * CHUNKS_PER_THREAD * pool.getParallelism()];
+        long count = 0;
+
+        while(accounts.hasNext()){
+            int size = 0;
+
+            while(size < batch.length && accounts.hasNext()){
+                batch[size++] = accounts.next();
+            }
+
+            byte[][] chunks = new byte[(size + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+            pool.invoke(new ChunkTask(batch, size, chunks, 0, chunks.length));
+
+            for(byte[] chunk : chunks){
+                out.write(chunk);
+            }
+
+            out.flush();
+            count += size;
+        }
+
+        return count;
+    }
+
+    /**
+     * Formats the uris of a chunk
+     * @param accounts The account names of the batch
+     * @param from Index of the first account
+     * @param to Index after the last account
+     * @return the uris, one per line
+     */
+    private byte[] format(String[] accounts, int from, int to){
+        Worker worker = workers.get();
+        StringBuilder text = worker.text;
+        text.setLength(0);
+
+        try {
+            for(int i = from; i < to; i++){
+                if(accounts[i] == null || accounts[i].isEmpty()){
+                    throw new IllegalArgumentException("Missing account at " + i);
+                }
+
+                worker.random.nextBytes(worker.secret);
+                int base32Length = OTPAuthURI.encodeSecret(worker.secret, worker.base32);
+                OTPAuthURI.append(text, true, issuer, accounts[i], worker.base32, base32Length, flag, digits, period);
+                text.append('\n');
+            }
+
+            //The uris are ASCII, copied without an intermediate string which could not be zeroed
+            byte[] chunk = new byte[text.length()];
+
+            for(int i = 0; i < chunk.length; i++){
+                chunk[i] = (byte) text.charAt(i);
+            }
+
+            return chunk;
+        } finally {
+            Arrays.fill(worker.secret, (byte) 0);
+            Arrays.fill(worker.base32, '\0');
+
+            //setLength alone keeps the characters in the reused buffer
+            for(int i = 0; i < text.length(); i++){
+                text.setCharAt(i, '\0');
+            }
+
+            text.setLength(0);
+        }
+    }
+
+    /**
+     * Formats a range of chunks, splitting it in halves
+     */
+    private final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] accounts;
+        private final int size;
+        private final byte[][] chunks;
+        private final int from;
+        private final int to;
+
+        private ChunkTask(String[] accounts, int size, byte[][] chunks, int from, int to){
+            this.accounts = accounts;
+            this.size = size;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from > 1){
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(accounts, size, chunks, from, middle), new ChunkTask(accounts, size, chunks, middle, to));
+                return;
+            }
+
+            for(int chunk = from; chunk < to; chunk++){
+                chunks[chunk] = format(accounts, chunk * CHUNK_SIZE, Math.min(size, (chunk + 1) * CHUNK_SIZE));
+            }
+        }
+    }
+
+    /**
+     * Random generator and buffers of a thread
+     */
+    private static final class Worker {
+        private final SecureRandom random = newRandom();
+        private final byte[] secret;
+        private final char[] base32;
+        private final StringBuilder text = new StringBuilder();
+
+        private Worker(int secretLength){
+            secret = new byte[secretLength];
+            base32 = new char[OATHBase32.encodedLength(secretLength)];
+        }
+
+        /**
+         * @return a DRBG (Java 9 or newer) or the default SecureRandom, both do not block after seeding
+         */
+        private static SecureRandom newRandom(){
+            try {
+                return SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                return new SecureRandom();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+/**
+ * Emits the flight recorder events of the {@link OATH} facade (de.hiiw.oath.Validate, de.hiiw.oath.Generate and
+ * de.hiiw.oath.Codec). The events and their recorder are compiled into META-INF/versions/11 of the multi release jar
+ * and loaded reflectively, the facade never links jdk.jfr. On Java 8 or runtimes without jdk.jfr no events are emitted
+ */
+final class OATHEvents {
+    /**
+     * The recorder or null if the flight recorder is not available
+     */
+    private static final Recorder RECORDER = loadRecorder();
+
+    /**
+     * True if the runtime has the flight recorder
+     */
+    static final boolean AVAILABLE = RECORDER != null;
+
+    private OATHEvents(){
+    }
+
+    /**
+     * @param operation The operation
+     * @return true if a recording enables the event of the operation
+     */
+    static boolean isEnabled(OATHMetrics.Operation operation){
+        return AVAILABLE && RECORDER.isEnabled(operation);
+    }
+
+    /**
+     * Starts the event of an operation
+     * @param operation The operation
+     * @return the started event or null if it is not enabled
+     */
+    static Event begin(OATHMetrics.Operation operation){
+        return AVAILABLE ? RECORDER.begin(operation) : null;
+    }
+
+    /**
+     * @return the recorder (OATHFlightRecorder) or null if it or jdk.jfr can not be loaded
+     */
+    private static Recorder loadRecorder(){
+        try {
+            return (Recorder) Class.forName("de.hiiw.oath.OATHFlightRecorder").getMethod("create").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates the flight recorder events
+     */
+    interface Recorder {
+        /**
+         * @param operation The operation
+         * @return true if a recording enables the event of the operation
+         */
+        boolean isEnabled(OATHMetrics.Operation operation);
+
+        /**
+         * Starts the event of an operation
+         * @param operation The operation
+         * @return the started event or null if it is not enabled
+         */
+        Event begin(OATHMetrics.Operation operation);
+    }
+
+    /**
+     * A started flight recorder event
+     */
+    interface Event {
+        /**
+         * Ends the event and commits it if it exceeds the threshold of the recording
+         * @param engine The engine of the facade
+         * @param flag Hash algorithm or null
+         * @param returnCode The outcome
+         * @param window The window of a validation
+         * @param position The position of a valid otp
+         */
+        void finish(OATHEngine engine, OATHTotpFlag flag, OATHReturnCode returnCode, long window, int position);
+    }
+}
@@ -20,7 +20,8 @@
 package de.hiiw.oath;
 
 /**
- * Exceptionclass for mapping negative return codes from oath to an exception
+ * Exceptionclass for mapping negative return codes from oath to an exception.
+ * The exception is stackless and its message is built on demand, so constructing it is cheap
  */
 public class OATHException extends RuntimeException {
     /**
@@ -33,10 +34,18 @@ public class OATHException extends RuntimeException {
      * @param errorCode the error code
      */
     public OATHException(OATHReturnCode errorCode) {
-        super(errorCode.toString());
+        super(null, null, false, false);
         this.errorCode = errorCode;
     }
 
+    /**
+     * @return the name, int value and error string of the return code
+     */
+    @Override
+    public String getMessage() {
+        return errorCode.toString();
+    }
+
     /**
      * Returns the return code hold by this exception
      * @return return code
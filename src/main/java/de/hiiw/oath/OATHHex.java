@@ -0,0 +1,339 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Table driven pure Java hex codec, producing the same output as liboath (oath_hex2bin, oath_bin2hex):
+ * encoding uses lowercase, decoding accepts both cases. The array and buffer functions do not allocate
+ */
+public final class OATHHex {
+    /**
+     * Lowercase hex alphabet
+     */
+    private static final byte[] ALPHABET = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    /**
+     * Value of every ascii character, -1 if it is not a hex digit
+     */
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+
+        for(int i = 0; i < ALPHABET.length; i++){
+            DECODE_TABLE[ALPHABET[i]] = (byte) i;
+            DECODE_TABLE[Character.toUpperCase(ALPHABET[i])] = (byte) i;
+        }
+    }
+
+    private OATHHex(){
+    }
+
+    /**
+     * Encodes the given byte array input to a hex representation
+     * @param binary input byte array
+     * @return hex encoded input
+     */
+    public static String encode(byte[] binary){
+        char[] buffer = new char[binary.length * 2];
+
+        for(int i = 0; i < binary.length; i++){
+            buffer[2 * i] = (char) ALPHABET[(binary[i] >> 4) & 0x0F];
+            buffer[2 * i + 1] = (char) ALPHABET[binary[i] & 0x0F];
+        }
+
+        return new String(buffer);
+    }
+
+    /**
+     * Encodes a part of a byte array into hex ascii bytes
+     * @param input input byte array
+     * @param offset offset of the first byte to encode
+     * @param length number of bytes to encode
+     * @param output receives the hex ascii bytes
+     * @param outputOffset offset of the first byte in output
+     * @return number of written bytes
+     * @throws OATHException with OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int encode(byte[] input, int offset, int length, byte[] output, int outputOffset){
+        if(output.length - outputOffset < 2 * length){
+            throw new OATHException(OATHReturnCode.OATH_TOO_SMALL_BUFFER);
+        }
+
+        for(int i = offset; i < offset + length; i++){
+            output[outputOffset++] = ALPHABET[(input[i] >> 4) & 0x0F];
+            output[outputOffset++] = ALPHABET[input[i] & 0x0F];
+        }
+
+        return 2 * length;
+    }
+
+    /**
+     * Encodes the remaining bytes of input into hex ascii bytes, both buffers are advanced
+     * @param input input bytes
+     * @param output receives the hex ascii bytes
+     * @return number of written bytes
+     * @throws OATHException with OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int encode(ByteBuffer input, ByteBuffer output){
+        int length = 2 * input.remaining();
+
+        if(output.remaining() < length){
+            throw new OATHException(OATHReturnCode.OATH_TOO_SMALL_BUFFER);
+        }
+
+        while(input.hasRemaining()){
+            byte b = input.get();
+            output.put(ALPHABET[(b >> 4) & 0x0F]);
+            output.put(ALPHABET[b & 0x0F]);
+        }
+
+        return length;
+    }
+
+    /**
+     * Decodes a given hex encoded string into a byte array
+     * @param hex hex encoded string
+     * @return result byte array
+     * @throws OATHException with OATH_INVALID_HEX if the input is malformed
+     */
+    public static byte[] decode(CharSequence hex){
+        checkLength(hex.length());
+
+        byte[] buffer = new byte[hex.length() / 2];
+
+        for(int i = 0; i < buffer.length; i++){
+            buffer[i] = decodeByte(hex.charAt(2 * i), hex.charAt(2 * i + 1));
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Decodes a part of hex ascii bytes into a byte array
+     * @param input hex encoded ascii bytes
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param output receives the decoded bytes
+     * @param outputOffset offset of the first byte in output
+     * @return number of written bytes
+     * @throws OATHException with OATH_INVALID_HEX if the input is malformed or OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int decode(byte[] input, int offset, int length, byte[] output, int outputOffset){
+        checkLength(length);
+
+        if(output.length - outputOffset < length / 2){
+            throw new OATHException(OATHReturnCode.OATH_TOO_SMALL_BUFFER);
+        }
+
+        for(int i = offset; i < offset + length; i += 2){
+            output[outputOffset++] = decodeByte(input[i], input[i + 1]);
+        }
+
+        return length / 2;
+    }
+
+    /**
+     * Decodes the remaining hex ascii bytes of input into a buffer, both buffers are advanced
+     * @param input hex encoded ascii bytes
+     * @param output receives the decoded bytes, the positions are unchanged if an exception occurs
+     * @return number of written bytes
+     * @throws OATHException with OATH_INVALID_HEX if the input is malformed or OATH_TOO_SMALL_BUFFER if output is too small
+     */
+    public static int decode(ByteBuffer input, ByteBuffer output){
+        int length = input.remaining();
+        checkLength(length);
+
+        if(output.remaining() < length / 2){
+            throw new OATHException(OATHReturnCode.OATH_TOO_SMALL_BUFFER);
+        }
+
+        int inputStart = input.position();
+        int start = output.position();
+
+        try {
+            while(input.hasRemaining()){
+                output.put(decodeByte(input.get(), input.get()));
+            }
+        } catch (OATHException e) {
+            input.position(inputStart);
+            output.position(start);
+            throw e;
+        }
+
+        return length / 2;
+    }
+
+    /**
+     * @throws OATHException with OATH_INVALID_HEX if the length is odd
+     */
+    private static void checkLength(int length){
+        if(length % 2 != 0){
+            throw new OATHException(OATHReturnCode.OATH_INVALID_HEX);
+        }
+    }
+
+    /**
+     * @param high hex digit of the high nibble
+     * @param low hex digit of the low nibble
+     * @return the decoded byte
+     * @throws OATHException with OATH_INVALID_HEX if a character is not a hex digit
+     */
+    private static byte decodeByte(int high, int low){
+        int highValue = high >= 0 && high < 128 ? DECODE_TABLE[high] : -1;
+        int lowValue = low >= 0 && low < 128 ? DECODE_TABLE[low] : -1;
+
+        if((highValue | lowValue) < 0){
+            throw new OATHException(OATHReturnCode.OATH_INVALID_HEX);
+        }
+
+        return (byte) ((highValue << 4) | lowValue);
+    }
+
+    /**
+     * Output stream encoding all written bytes to lowercase hex ascii
+     */
+    public static class EncodingOutputStream extends FilterOutputStream {
+        private final byte[] encoded = new byte[2 * 1024];
+
+        /**
+         * @param out receives the hex ascii bytes
+         */
+        public EncodingOutputStream(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(ALPHABET[(b >> 4) & 0x0F]);
+            out.write(ALPHABET[b & 0x0F]);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for(int i = 0; i < len; i += 1024){
+                int chunk = Math.min(1024, len - i);
+                out.write(encoded, 0, encode(b, off + i, chunk, encoded, 0));
+            }
+        }
+    }
+
+    /**
+     * Input stream decoding the hex ascii bytes of an underlying stream,
+     * malformed input (including an odd number of digits) results in an {@link OATHException}
+     */
+    public static class DecodingInputStream extends FilterInputStream {
+        private final byte[] input = new byte[2 * 1024];
+        private final byte[] single = new byte[1];
+
+        /**
+         * Pending high nibble character of a split pair, -1 if none
+         */
+        private int pending = -1;
+
+        /**
+         * @param in provides the hex ascii bytes
+         */
+        public DecodingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0){
+                return 0;
+            }
+
+            int read = 0;
+
+            while(read == 0){
+                int count = in.read(input, 0, Math.min(input.length, 2 * (len - read)));
+
+                if(count < 0){
+                    if(pending >= 0){
+                        throw new OATHException(OATHReturnCode.OATH_INVALID_HEX);
+                    }
+
+                    return -1;
+                }
+
+                int i = 0;
+
+                if(pending >= 0 && count > 0){
+                    b[off + read++] = decodeByte(pending, input[i++]);
+                    pending = -1;
+                }
+
+                for(; i + 1 < count; i += 2){
+                    b[off + read++] = decodeByte(input[i], input[i + 1]);
+                }
+
+                if(i < count){
+                    pending = input[i];
+                }
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+
+            while(skipped < n && read() >= 0){
+                skipped++;
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available() / 2;
+        }
+
+        @Override
+        public boolean markSupported(){
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit){
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+    }
+}
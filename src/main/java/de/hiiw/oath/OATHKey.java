@@ -0,0 +1,308 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A prepared secret, create it once per secret and pass it to the generate and validate
+ * overloads of {@link OATH}. The hmac key schedule (inner and outer pad state) is computed
+ * once per hash algorithm and reused by cloning the initialized {@link Mac}.
+ * Instances are thread safe
+ */
+public final class OATHKey {
+    /**
+     * Per thread digests and pad buffer for computing the hmac of a secret in place
+     */
+    private static final ThreadLocal<DigestScratch> DIGEST_SCRATCH = ThreadLocal.withInitial(DigestScratch::new);
+
+    /**
+     * Copy of the secret, used by engines which cannot use the prepared state (like the native one)
+     */
+    private final byte[] secret;
+
+    /**
+     * Initialized mac prototypes, indexed by the ordinal of the hash algorithm, created on first use
+     */
+    private final AtomicReferenceArray<Mac> prototypes = new AtomicReferenceArray<>(OATHTotpFlag.values().length);
+
+    /**
+     * SHA-1 state after the inner and outer key pad, used by the batch generation, created on first use
+     */
+    private volatile int[] sha1PadState;
+
+    /**
+     * Constructs a new key
+     * @param secret The secret, it is copied
+     */
+    public OATHKey(byte[] secret){
+        this.secret = secret.clone();
+    }
+
+    /**
+     * Constructs a new key and prepares the hmac state for the given hash algorithms
+     * @param secret The secret, it is copied
+     * @param flags Hash algorithms to prepare
+     * @throws OATHException with OATH_CRYPTO_ERROR if a hash algorithm is not available
+     */
+    public OATHKey(byte[] secret, OATHTotpFlag... flags){
+        this(secret);
+
+        for(OATHTotpFlag flag : flags){
+            prototype(flag);
+        }
+    }
+
+    /**
+     * @return the secret (not copied, do not modify)
+     */
+    byte[] getSecret(){
+        return secret;
+    }
+
+    /**
+     * @return the SHA-1 state after the inner and outer key pad, see {@link HmacSha1Lanes#padState(byte[])}
+     */
+    int[] sha1PadState(){
+        int[] state = sha1PadState;
+
+        if(state == null){
+            //Computing it twice concurrently is harmless
+            state = HmacSha1Lanes.get().padState(secret);
+            sha1PadState = state;
+        }
+
+        return state;
+    }
+
+    /**
+     * @return length of the secret in bytes
+     */
+    public int length(){
+        return secret.length;
+    }
+
+    /**
+     * Computes the hmac of a big endian moving factor
+     * @param flag Hash algorithm
+     * @param movingFactor The counter
+     * @return the hmac
+     * @throws OATHException with OATH_CRYPTO_ERROR if the hash algorithm is not available
+     */
+    byte[] hmac(OATHTotpFlag flag, long movingFactor){
+        Mac mac;
+
+        try {
+            mac = (Mac) prototype(flag).clone();
+        } catch (CloneNotSupportedException e) {
+            mac = newMac(flag);
+        }
+
+        for(int i = 56; i >= 0; i -= 8){
+            mac.update((byte) (movingFactor >>> i));
+        }
+
+        return mac.doFinal();
+    }
+
+    /**
+     * Computes the hmac of a big endian moving factor with a secret read in place (RFC 2104),
+     * the secret is not copied to the heap, only the key pads in a per thread buffer which is zeroed afterwards
+     * @param secret The secret, the remaining bytes are used
+     * @param flag Hash algorithm
+     * @param movingFactor The counter
+     * @return the hmac
+     * @throws OATHException with OATH_CRYPTO_ERROR if the hash algorithm is not available
+     */
+    static byte[] hmac(ByteBuffer secret, OATHTotpFlag flag, long movingFactor){
+        DigestScratch scratch = DIGEST_SCRATCH.get();
+        MessageDigest digest = scratch.digest(flag);
+        byte[] pad = scratch.pad;
+        int blockSize = flag == OATHTotpFlag.OATH_TOTP_HMAC_SHA512 ? 128 : 64;
+        int position = secret.position();
+        int keyLength = secret.remaining();
+        byte[] hashedKey = null;
+
+        try {
+            if(keyLength > blockSize){
+                //Longer keys are hashed first, byte by byte so the digest does not buffer a copy
+                for(int i = 0; i < keyLength; i++){
+                    digest.update(secret.get(position + i));
+                }
+
+                hashedKey = digest.digest();
+                keyLength = hashedKey.length;
+            }
+
+            for(int i = 0; i < blockSize; i++){
+                int keyByte = i >= keyLength ? 0 : hashedKey != null ? hashedKey[i] : secret.get(position + i);
+                pad[i] = (byte) (keyByte ^ 0x36);
+            }
+
+            digest.update(pad, 0, blockSize);
+
+            for(int i = 56; i >= 0; i -= 8){
+                digest.update((byte) (movingFactor >>> i));
+            }
+
+            byte[] inner = digest.digest();
+
+            for(int i = 0; i < blockSize; i++){
+                pad[i] ^= 0x36 ^ 0x5C;
+            }
+
+            digest.update(pad, 0, blockSize);
+            return digest.digest(inner);
+        } finally {
+            Arrays.fill(pad, (byte) 0);
+            digest.reset();
+
+            if(hashedKey != null){
+                Arrays.fill(hashedKey, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Returns the prepared mac prototype for the hash algorithm, creates it if not done before
+     * @param flag Hash algorithm
+     * @return the prototype, never use it directly, only clones
+     */
+    private Mac prototype(OATHTotpFlag flag){
+        Mac mac = prototypes.get(flag.ordinal());
+
+        if(mac == null){
+            mac = newMac(flag);
+
+            if(!prototypes.compareAndSet(flag.ordinal(), null, mac)){
+                mac = prototypes.get(flag.ordinal());
+            }
+        }
+
+        return mac;
+    }
+
+    /**
+     * Creates a new mac initialized with the secret
+     * @param flag Hash algorithm
+     * @return the mac
+     * @throws OATHException with OATH_CRYPTO_ERROR if the hash algorithm is not available
+     */
+    private Mac newMac(OATHTotpFlag flag){
+        try {
+            Mac mac = Mac.getInstance(algorithm(flag));
+            mac.init(new RawSecretKey(secret, mac.getAlgorithm()));
+            return mac;
+        } catch (InvalidKeyException | NoSuchAlgorithmException e) {
+            throw new OATHException(OATHReturnCode.OATH_CRYPTO_ERROR);
+        }
+    }
+
+    /**
+     * @param flag Hash algorithm
+     * @return the JCA name of the hmac algorithm
+     */
+    private static String algorithm(OATHTotpFlag flag){
+        switch (flag){
+            case OATH_TOTP_HMAC_SHA256:
+                return "HmacSHA256";
+            case OATH_TOTP_HMAC_SHA512:
+                return "HmacSHA512";
+            default:
+                return "HmacSHA1";
+        }
+    }
+
+    /**
+     * Digests of a thread for {@link #hmac(ByteBuffer, OATHTotpFlag, long)}, created on first use
+     */
+    private static final class DigestScratch {
+        private final MessageDigest[] digests = new MessageDigest[OATHTotpFlag.values().length];
+
+        /**
+         * Inner and outer key pad, large enough for the block size of SHA-512
+         */
+        private final byte[] pad = new byte[128];
+
+        private MessageDigest digest(OATHTotpFlag flag){
+            MessageDigest digest = digests[flag.ordinal()];
+
+            if(digest == null){
+                try {
+                    digest = MessageDigest.getInstance(digestAlgorithm(flag));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new OATHException(OATHReturnCode.OATH_CRYPTO_ERROR);
+                }
+
+                digests[flag.ordinal()] = digest;
+            }
+
+            return digest;
+        }
+
+        private static String digestAlgorithm(OATHTotpFlag flag){
+            switch (flag){
+                case OATH_TOTP_HMAC_SHA256:
+                    return "SHA-256";
+                case OATH_TOTP_HMAC_SHA512:
+                    return "SHA-512";
+                default:
+                    return "SHA-1";
+            }
+        }
+    }
+
+    /**
+     * Raw key, unlike {@link javax.crypto.spec.SecretKeySpec} empty secrets are allowed like in liboath
+     */
+    private static final class RawSecretKey implements SecretKey {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] key;
+        private final String algorithm;
+
+        private RawSecretKey(byte[] key, String algorithm){
+            this.key = key;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String getAlgorithm(){
+            return algorithm;
+        }
+
+        @Override
+        public String getFormat(){
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded(){
+            return key.clone();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded least recently used cache mapping credential ids to prepared secrets ({@link OATHKey}),
+ * the least recently used key is evicted if the capacity is exceeded. All methods are thread safe
+ * @param <K> type of the credential id
+ */
+public class OATHKeyCache<K> {
+    /**
+     * Maximum number of cached keys
+     */
+    private final int capacity;
+
+    /**
+     * The keys in access order, guarded by this
+     */
+    private final LinkedHashMap<K, OATHKey> keys;
+
+    /**
+     * Constructs a new cache
+     * @param capacity Maximum number of cached keys
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public OATHKeyCache(int capacity){
+        if(capacity <= 0){
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.keys = new LinkedHashMap<K, OATHKey>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, OATHKey> eldest){
+                return size() > OATHKeyCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached key of a credential
+     * @param credentialId The credential id
+     * @return the key or null if not cached
+     */
+    public synchronized OATHKey get(K credentialId){
+        return keys.get(credentialId);
+    }
+
+    /**
+     * Returns the cached key of a credential, loads and caches the secret if not cached
+     * @param credentialId The credential id
+     * @param secretLoader loads the secret of a credential
+     * @return the key
+     */
+    public OATHKey get(K credentialId, Function<? super K, byte[]> secretLoader){
+        OATHKey key = get(credentialId);
+
+        if(key == null){
+            //Load outside of the lock, a concurrent load of the same credential is harmless
+            key = new OATHKey(secretLoader.apply(credentialId));
+
+            synchronized (this){
+                OATHKey existing = keys.putIfAbsent(credentialId, key);
+                key = existing != null ? existing : key;
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * Caches a key for a credential
+     * @param credentialId The credential id
+     * @param key The prepared secret
+     * @return the previous key or null
+     */
+    public synchronized OATHKey put(K credentialId, OATHKey key){
+        return keys.put(credentialId, key);
+    }
+
+    /**
+     * Removes the key of a credential, e.g. if the secret changed
+     * @param credentialId The credential id
+     * @return the removed key or null
+     */
+    public synchronized OATHKey invalidate(K credentialId){
+        return keys.remove(credentialId);
+    }
+
+    /**
+     * Removes all keys
+     */
+    public synchronized void clear(){
+        keys.clear();
+    }
+
+    /**
+     * @return number of cached keys
+     */
+    public synchronized int size(){
+        return keys.size();
+    }
+
+    /**
+     * @return maximum number of cached keys
+     */
+    public int getCapacity(){
+        return capacity;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+/**
+ * Receives the outcome and duration of every operation of an {@link OATH} wrapper, see {@link OATH#setMetrics(OATHMetrics)}.
+ * Wrappers without metrics do not measure anything. Implementations are called concurrently and should be
+ * lock free, {@link OATHMetricsRecorder} keeps counters and latency histograms in process
+ */
+public interface OATHMetrics {
+    /**
+     * Measured operations
+     */
+    enum Operation {
+        TOTP_GENERATE,
+        TOTP_VALIDATE,
+        HOTP_GENERATE,
+        HOTP_VALIDATE,
+        BASE32_ENCODE,
+        BASE32_DECODE,
+        HEX_ENCODE,
+        HEX_DECODE
+    }
+
+    /**
+     * Records an operation, called after the operation returned or threw an {@link OATHException}
+     * @param operation The operation
+     * @param flag Hash algorithm, OATH_TOTP_HMAC_SHA1 for hotp operations, null for the codecs
+     * @param returnCode OATH_OK, the error code of the exception or the code of an invalid position
+     * @param position relative position of a valid otp, 0 for other operations or invalid otps
+     * @param nanos Duration of the operation in nanoseconds
+     */
+    void record(Operation operation, OATHTotpFlag flag, OATHReturnCode returnCode, int position, long nanos);
+}
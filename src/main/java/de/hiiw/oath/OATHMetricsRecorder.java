@@ -0,0 +1,399 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In process metrics: counters per operation and return code and per hash algorithm, a latency histogram per
+ * operation and the distribution of the positions of valid otps. Counters are striped ({@link LongAdder}),
+ * histograms use log-linear buckets (like HdrHistogram) with a relative error below 3.2%.
+ * All recording is lock free, read the values with {@link #snapshot()}
+ */
+public class OATHMetricsRecorder implements OATHMetrics {
+    /**
+     * Sub buckets per power of two, as bits
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * Sub buckets per power of two
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of buckets, covering all positive longs
+     */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final OATHReturnCode[] RETURN_CODES = OATHReturnCode.values();
+    private static final OATHTotpFlag[] FLAGS = OATHTotpFlag.values();
+
+    /**
+     * Counters indexed by operation and return code
+     */
+    private final LongAdder[][] returnCodes = new LongAdder[OPERATIONS.length][RETURN_CODES.length];
+
+    /**
+     * Counters indexed by hash algorithm
+     */
+    private final LongAdder[] flags = new LongAdder[FLAGS.length];
+
+    /**
+     * Latency histograms indexed by operation
+     */
+    private final Histogram[] latencies = new Histogram[OPERATIONS.length];
+
+    /**
+     * Positions of valid otps, indexed by validate operation (totp, hotp) and position + maxPosition
+     */
+    private final LongAdder[][] positions = new LongAdder[2][];
+
+    /**
+     * Largest recorded absolute position, larger ones are counted at the edges
+     */
+    private final int maxPosition;
+
+    /**
+     * Constructs a new recorder which distinguishes the positions -10 to 10
+     */
+    public OATHMetricsRecorder(){
+        this(10);
+    }
+
+    /**
+     * Constructs a new recorder
+     * @param maxPosition Largest distinguished absolute position of valid otps, larger ones are counted at the edges
+     * @throws IllegalArgumentException if maxPosition is negative
+     */
+    public OATHMetricsRecorder(int maxPosition){
+        if(maxPosition < 0){
+            throw new IllegalArgumentException("Maximum position must not be negative, got " + maxPosition);
+        }
+
+        this.maxPosition = maxPosition;
+
+        for(int operation = 0; operation < OPERATIONS.length; operation++){
+            latencies[operation] = new Histogram();
+
+            for(int code = 0; code < RETURN_CODES.length; code++){
+                returnCodes[operation][code] = new LongAdder();
+            }
+        }
+
+        for(int flag = 0; flag < FLAGS.length; flag++){
+            flags[flag] = new LongAdder();
+        }
+
+        for(int i = 0; i < positions.length; i++){
+            positions[i] = new LongAdder[2 * maxPosition + 1];
+
+            for(int position = 0; position < positions[i].length; position++){
+                positions[i][position] = new LongAdder();
+            }
+        }
+    }
+
+    @Override
+    public void record(Operation operation, OATHTotpFlag flag, OATHReturnCode returnCode, int position, long nanos){
+        returnCodes[operation.ordinal()][returnCode.ordinal()].increment();
+        latencies[operation.ordinal()].record(nanos);
+
+        if(flag != null){
+            flags[flag.ordinal()].increment();
+        }
+
+        if(returnCode == OATHReturnCode.OATH_OK && (operation == Operation.TOTP_VALIDATE || operation == Operation.HOTP_VALIDATE)){
+            int clamped = Math.max(-maxPosition, Math.min(maxPosition, position));
+            positions[operation == Operation.TOTP_VALIDATE ? 0 : 1][clamped + maxPosition].increment();
+        }
+    }
+
+    /**
+     * Takes a snapshot of all values, the values of concurrent recordings may be partially included
+     * @return the snapshot
+     */
+    public Snapshot snapshot(){
+        long[][] codes = new long[OPERATIONS.length][RETURN_CODES.length];
+        LatencySnapshot[] histograms = new LatencySnapshot[OPERATIONS.length];
+        long[] flagCounts = new long[FLAGS.length];
+        long[][] positionCounts = new long[positions.length][2 * maxPosition + 1];
+
+        for(int operation = 0; operation < OPERATIONS.length; operation++){
+            histograms[operation] = latencies[operation].snapshot();
+
+            for(int code = 0; code < RETURN_CODES.length; code++){
+                codes[operation][code] = returnCodes[operation][code].sum();
+            }
+        }
+
+        for(int flag = 0; flag < FLAGS.length; flag++){
+            flagCounts[flag] = flags[flag].sum();
+        }
+
+        for(int i = 0; i < positions.length; i++){
+            for(int position = 0; position < positionCounts[i].length; position++){
+                positionCounts[i][position] = positions[i][position].sum();
+            }
+        }
+
+        return new Snapshot(codes, flagCounts, histograms, positionCounts, maxPosition);
+    }
+
+    /**
+     * Resets all values to zero, concurrent recordings may be lost
+     */
+    public void reset(){
+        for(int operation = 0; operation < OPERATIONS.length; operation++){
+            latencies[operation].reset();
+
+            for(LongAdder counter : returnCodes[operation]){
+                counter.reset();
+            }
+        }
+
+        for(LongAdder counter : flags){
+            counter.reset();
+        }
+
+        for(LongAdder[] counters : positions){
+            for(LongAdder counter : counters){
+                counter.reset();
+            }
+        }
+    }
+
+    /**
+     * @param value A value
+     * @return index of the bucket of the value
+     */
+    static int bucket(long value){
+        if(value < SUB_BUCKETS){
+            return (int) Math.max(0, value);
+        }
+
+        //Most significant bit selects the power of two, the following bits the sub bucket
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param bucket Index of a bucket
+     * @return the smallest value of the bucket
+     */
+    static long lowestValue(int bucket){
+        if(bucket < SUB_BUCKETS){
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Lock free log-linear histogram
+     */
+    private static final class Histogram {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private void record(long value){
+            counts.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        private LatencySnapshot snapshot(){
+            long[] copy = new long[BUCKETS];
+
+            for(int i = 0; i < BUCKETS; i++){
+                copy[i] = counts.get(i);
+            }
+
+            return new LatencySnapshot(copy, count.sum(), sum.sum(), max.get());
+        }
+
+        private void reset(){
+            for(int i = 0; i < BUCKETS; i++){
+                counts.set(i, 0);
+            }
+
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+    }
+
+    /**
+     * Immutable values of a recorder
+     */
+    public static final class Snapshot {
+        private final long[][] returnCodes;
+        private final long[] flags;
+        private final LatencySnapshot[] latencies;
+        private final long[][] positions;
+        private final int maxPosition;
+
+        private Snapshot(long[][] returnCodes, long[] flags, LatencySnapshot[] latencies, long[][] positions, int maxPosition){
+            this.returnCodes = returnCodes;
+            this.flags = flags;
+            this.latencies = latencies;
+            this.positions = positions;
+            this.maxPosition = maxPosition;
+        }
+
+        /**
+         * @param operation The operation
+         * @return number of recorded operations
+         */
+        public long getCount(Operation operation){
+            long count = 0;
+
+            for(long codeCount : returnCodes[operation.ordinal()]){
+                count += codeCount;
+            }
+
+            return count;
+        }
+
+        /**
+         * @param operation The operation
+         * @param returnCode The return code
+         * @return number of operations which ended with the return code
+         */
+        public long getCount(Operation operation, OATHReturnCode returnCode){
+            return returnCodes[operation.ordinal()][returnCode.ordinal()];
+        }
+
+        /**
+         * @param flag Hash algorithm
+         * @return number of totp and hotp operations with the hash algorithm
+         */
+        public long getCount(OATHTotpFlag flag){
+            return flags[flag.ordinal()];
+        }
+
+        /**
+         * @param operation The operation
+         * @return the latencies of the operation in nanoseconds
+         */
+        public LatencySnapshot getLatency(Operation operation){
+            return latencies[operation.ordinal()];
+        }
+
+        /**
+         * @param operation TOTP_VALIDATE or HOTP_VALIDATE
+         * @param position relative position of valid otps, positions beyond {@link #getMaxPosition()} are counted at the edges
+         * @return number of valid otps at the position
+         * @throws IllegalArgumentException if the operation is no validation
+         */
+        public long getPositionCount(Operation operation, int position){
+            if(operation != Operation.TOTP_VALIDATE && operation != Operation.HOTP_VALIDATE){
+                throw new IllegalArgumentException("Positions are recorded for validations only, got " + operation);
+            }
+
+            if(position < -maxPosition || position > maxPosition){
+                return 0;
+            }
+
+            return positions[operation == Operation.TOTP_VALIDATE ? 0 : 1][position + maxPosition];
+        }
+
+        /**
+         * @return largest distinguished absolute position
+         */
+        public int getMaxPosition(){
+            return maxPosition;
+        }
+    }
+
+    /**
+     * Immutable latency histogram
+     */
+    public static final class LatencySnapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private LatencySnapshot(long[] counts, long count, long sum, long max){
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return number of recorded values
+         */
+        public long getCount(){
+            return count;
+        }
+
+        /**
+         * @return mean of the recorded values, 0 if empty
+         */
+        public double getMean(){
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @return largest recorded value, 0 if empty
+         */
+        public long getMax(){
+            return max;
+        }
+
+        /**
+         * Returns the value below which the given percentage of the recorded values fall,
+         * as the highest value of its bucket (but never more than the maximum)
+         * @param percentile percentile between 0 and 100
+         * @return the value, 0 if empty
+         */
+        public long getValueAtPercentile(double percentile){
+            long total = 0;
+
+            for(long bucketCount : counts){
+                total += bucketCount;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+            long seen = 0;
+
+            for(int i = 0; i < counts.length; i++){
+                seen += counts[i];
+
+                if(seen >= rank){
+                    long highest = i + 1 < BUCKETS ? lowestValue(i + 1) - 1 : Long.MAX_VALUE;
+                    return Math.min(highest, max);
+                }
+            }
+
+            return 0;
+        }
+    }
+}
@@ -26,44 +26,65 @@ import jnr.ffi.util.EnumMapper;
  * Positive values can be mapped to OATH_OK and another intValue
  */
 public enum OATHReturnCode implements EnumMapper.IntegerEnum {
-    OATH_OK(0),
-    OATH_CRYPTO_ERROR(-1),
-    OATH_INVALID_DIGITS(-2),
-    OATH_PRINTF_ERROR(-3),
-    OATH_INVALID_HEX ( -4),
-    OATH_TOO_SMALL_BUFFER ( -5),
-    OATH_INVALID_OTP ( -6),
-    OATH_REPLAYED_OTP ( -7),
-    OATH_BAD_PASSWORD ( -8),
-    OATH_INVALID_COUNTER ( -9),
-    OATH_INVALID_TIMESTAMP ( -10),
-    OATH_NO_SUCH_FILE ( -11),
-    OATH_UNKNOWN_USER ( -12),
-    OATH_FILE_SEEK_ERROR ( -13),
-    OATH_FILE_CREATE_ERROR ( -14),
-    OATH_FILE_LOCK_ERROR ( -15),
-    OATH_FILE_RENAME_ERROR ( -16),
-    OATH_FILE_UNLINK_ERROR ( -17),
-    OATH_TIME_ERROR ( -18),
-    OATH_STRCMP_ERROR ( -19),
-    OATH_INVALID_BASE32 ( -20),
-    OATH_BASE32_OVERFLOW ( -21),
-    OATH_MALLOC_ERROR ( -22),
-    OATH_FILE_FLUSH_ERROR ( -23),
-    OATH_FILE_SYNC_ERROR ( -24),
-    OATH_FILE_CLOSE_ERROR ( -25);
+    OATH_OK(0, "Successful return"),
+    OATH_CRYPTO_ERROR(-1, "Internal error in crypto functions"),
+    OATH_INVALID_DIGITS(-2, "Unsupported number of OTP digits"),
+    OATH_PRINTF_ERROR(-3, "Error from system printf call"),
+    OATH_INVALID_HEX(-4, "Hex string is invalid"),
+    OATH_TOO_SMALL_BUFFER(-5, "The output buffer is too small"),
+    OATH_INVALID_OTP(-6, "The OTP is not valid"),
+    OATH_REPLAYED_OTP(-7, "The OTP has been replayed"),
+    OATH_BAD_PASSWORD(-8, "The password does not match"),
+    OATH_INVALID_COUNTER(-9, "The counter value is corrupt"),
+    OATH_INVALID_TIMESTAMP(-10, "The timestamp is corrupt"),
+    OATH_NO_SUCH_FILE(-11, "The supplied filename does not exist"),
+    OATH_UNKNOWN_USER(-12, "Cannot find information about user"),
+    OATH_FILE_SEEK_ERROR(-13, "System error when seeking in file"),
+    OATH_FILE_CREATE_ERROR(-14, "System error when creating file"),
+    OATH_FILE_LOCK_ERROR(-15, "System error when locking file"),
+    OATH_FILE_RENAME_ERROR(-16, "System error when renaming file"),
+    OATH_FILE_UNLINK_ERROR(-17, "System error when removing file"),
+    OATH_TIME_ERROR(-18, "System error for time manipulation"),
+    OATH_STRCMP_ERROR(-19, "A strcmp callback returned an error"),
+    OATH_INVALID_BASE32(-20, "Base32 string is invalid"),
+    OATH_BASE32_OVERFLOW(-21, "Base32 encoding would overflow"),
+    OATH_MALLOC_ERROR(-22, "Memory allocation failed"),
+    OATH_FILE_FLUSH_ERROR(-23, "System error when flushing file buffer"),
+    OATH_FILE_SYNC_ERROR(-24, "System error when syncing file to disk"),
+    OATH_FILE_CLOSE_ERROR(-25, "System error when closing file");
+
+    /**
+     * All codes, indexed by the ordinal which is the negated liboath value
+     */
+    private static final OATHReturnCode[] VALUES = values();
 
     /**
      * Holds the intValue of this error code
      */
     int intValue;
 
+    /**
+     * The error string of liboath for this code, resolved once instead of calling oath_strerror
+     */
+    final String error;
+
     /**
      * Constructs a new error code with a specific int value
      * @param intValue the intValue
+     * @param error the error string of liboath
      */
-    OATHReturnCode(int intValue){
+    OATHReturnCode(int intValue, String error){
         this.intValue = intValue;
+        this.error = error;
+    }
+
+    /**
+     * Maps a negative liboath return value to its code without going through jnr-ffi
+     * @param intValue the negative liboath return value
+     * @return the code, OATH_CRYPTO_ERROR for values unknown to this version
+     */
+    static OATHReturnCode forErrorCode(int intValue){
+        return intValue < 0 && -intValue < VALUES.length ? VALUES[-intValue] : OATH_CRYPTO_ERROR;
     }
 
     /**
@@ -88,17 +109,17 @@ public enum OATHReturnCode implements EnumMapper.IntegerEnum {
     }
 
     /**
-     * @return the error as string
+     * @return the error as string, same as oath_strerror without calling the engine
      */
     public String getError(){
-        return intValue > 0 ? "" : OATH.strError(this);
+        return intValue > 0 ? "" : error;
     }
 
     /**
-     * @return the error name
+     * @return the error name, same as oath_strerror_name without calling the engine
      */
     public String getErrorName(){
-        return OATH.strErrorName(intValue > 0 ? OATH_OK : this);
+        return name();
     }
 
     @Override
@@ -0,0 +1,338 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Off-heap store for secrets, the secrets are kept in direct buffer slabs and referenced by an int handle.
+ * The generate and validate overloads of {@link OATH} taking a handle read the secret in place,
+ * so no long living copy of the secret ends up on the heap (or in a heap dump).
+ * Removed secrets are overwritten with zeros, as are all secrets if the store is closed.
+ * <p>
+ * Adding and removing is thread safe, reading a handle while it is removed is not:
+ * the reader may see a partially zeroed secret
+ */
+public final class OATHSecretStore implements AutoCloseable {
+    /**
+     * Bits of a handle used for the slot, the bits above hold the generation of the slot
+     */
+    private static final int SLOT_BITS = 24;
+
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+    /**
+     * Generations are 1 to 127 (0 marks a free slot), so handles are always positive
+     */
+    private static final int MAX_GENERATION = 127;
+
+    /**
+     * Size of the slot header (in use flag, generation and length of the secret)
+     */
+    private static final int HEADER_SIZE = 4;
+
+    /**
+     * Header flag of a slot holding a secret, a removed slot keeps only its generation
+     */
+    private static final int IN_USE = 1 << 24;
+
+    /**
+     * Maximum length of a secret in bytes
+     */
+    private final int maxSecretLength;
+
+    /**
+     * Size of a slot (header and secret) in bytes
+     */
+    private final int slotSize;
+
+    /**
+     * Number of slots per slab
+     */
+    private final int slotsPerSlab;
+
+    /**
+     * The slabs, replaced by a larger copy when growing (guarded by this for writes)
+     */
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+    /**
+     * Stack of removed slots, reused before new slots (guarded by this)
+     */
+    private int[] freeSlots = new int[16];
+
+    private int freeCount;
+
+    /**
+     * Number of slots ever used (guarded by this)
+     */
+    private int usedSlots;
+
+    /**
+     * Number of stored secrets (guarded by this)
+     */
+    private int size;
+
+    /**
+     * Constructs a store for secrets of up to 64 bytes (enough for HMAC-SHA512) with slabs of 4096 secrets
+     */
+    public OATHSecretStore(){
+        this(64, 4096);
+    }
+
+    /**
+     * Constructs a new store
+     * @param maxSecretLength Maximum length of a secret in bytes (at most 65535)
+     * @param slotsPerSlab Number of secrets per direct buffer slab
+     * @throws IllegalArgumentException if a parameter is out of range
+     */
+    public OATHSecretStore(int maxSecretLength, int slotsPerSlab){
+        if(maxSecretLength < 0 || maxSecretLength > 0xFFFF){
+            throw new IllegalArgumentException("Max secret length must be between 0 and 65535, got " + maxSecretLength);
+        }
+
+        //Align the slots to 8 bytes
+        int slotSize = (HEADER_SIZE + maxSecretLength + 7) & ~7;
+
+        if(slotsPerSlab <= 0 || (long) slotsPerSlab * slotSize > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Slots per slab must be positive and the slab at most 2 GiB, got " + slotsPerSlab);
+        }
+
+        this.maxSecretLength = maxSecretLength;
+        this.slotSize = slotSize;
+        this.slotsPerSlab = slotsPerSlab;
+    }
+
+    /**
+     * Copies a secret into the store, the caller should zero its array afterwards
+     * @param secret The secret
+     * @return the handle of the secret
+     * @throws IllegalArgumentException if the secret is too long
+     * @throws IllegalStateException if the store is full (16777216 secrets) or closed
+     */
+    public int add(byte[] secret){
+        return add(ByteBuffer.wrap(secret));
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer into the store without changing its position,
+     * e.g. a secret decoded into a direct buffer never touches the heap
+     * @param secret The secret
+     * @return the handle of the secret
+     * @throws IllegalArgumentException if the secret is too long
+     * @throws IllegalStateException if the store is full (16777216 secrets) or closed
+     */
+    public synchronized int add(ByteBuffer secret){
+        int length = secret.remaining();
+
+        if(length > maxSecretLength){
+            throw new IllegalArgumentException("Secret too long, " + length + " bytes, at most " + maxSecretLength);
+        }
+
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : newSlot();
+        ByteBuffer slab = slabs[slot / slotsPerSlab];
+        int offset = (slot % slotsPerSlab) * slotSize;
+        int generation = ((slab.getInt(offset) >>> 16) & MAX_GENERATION) % MAX_GENERATION + 1;
+
+        for(int i = 0; i < length; i++){
+            slab.put(offset + HEADER_SIZE + i, secret.get(secret.position() + i));
+        }
+
+        slab.putInt(offset, IN_USE | generation << 16 | length);
+        size++;
+
+        return generation << SLOT_BITS | slot;
+    }
+
+    /**
+     * Removes a secret and overwrites it with zeros, the handle becomes invalid
+     * (a later secret may reuse the slot with another generation)
+     * @param handle The handle of the secret
+     * @throws IllegalArgumentException if the handle is unknown or already removed
+     */
+    public synchronized void remove(int handle){
+        ByteBuffer slab = slab(handle);
+        int offset = offset(handle);
+        int length = checkHeader(slab, offset, handle) & 0xFFFF;
+
+        zero(slab, offset + HEADER_SIZE, length);
+        //Keep the generation so the next secret in this slot gets a new one
+        slab.putInt(offset, (handle >>> SLOT_BITS) << 16);
+
+        if(freeCount == freeSlots.length){
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+
+        freeSlots[freeCount++] = handle & SLOT_MASK;
+        size--;
+    }
+
+    /**
+     * @param handle The handle of the secret
+     * @return length of the secret in bytes
+     * @throws IllegalArgumentException if the handle is unknown or removed
+     */
+    public int length(int handle){
+        return checkHeader(slab(handle), offset(handle), handle) & 0xFFFF;
+    }
+
+    /**
+     * @param handle The handle
+     * @return true if the handle references a stored secret
+     */
+    public boolean contains(int handle){
+        try {
+            length(handle);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return number of stored secrets
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * Overwrites all secrets with zeros and releases the slabs, all handles become invalid
+     */
+    @Override
+    public synchronized void close(){
+        for(ByteBuffer slab : slabs){
+            zero(slab, 0, slab.capacity());
+        }
+
+        slabs = new ByteBuffer[0];
+        freeCount = 0;
+        usedSlots = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns a view of the secret for reading it in place, do not modify it and do not keep it
+     * @param handle The handle of the secret
+     * @return buffer with the secret between position 0 and limit
+     * @throws IllegalArgumentException if the handle is unknown or removed
+     */
+    ByteBuffer secret(int handle){
+        ByteBuffer slab = slab(handle);
+        int offset = offset(handle);
+        int length = checkHeader(slab, offset, handle) & 0xFFFF;
+        ByteBuffer secret = slab.duplicate();
+
+        secret.limit(offset + HEADER_SIZE + length).position(offset + HEADER_SIZE);
+        return secret.slice();
+    }
+
+    /**
+     * Copies the remaining bytes of a secret to the heap, for engines which cannot read it in place,
+     * zero the copy after use
+     * @param secret The secret
+     * @return the copy
+     */
+    static byte[] copyOf(ByteBuffer secret){
+        byte[] copy = new byte[secret.remaining()];
+        secret.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * Takes a slot which was never used, allocates a new slab if needed
+     * @return the slot
+     * @throws IllegalStateException if the store is full
+     */
+    private int newSlot(){
+        if(usedSlots > SLOT_MASK){
+            throw new IllegalStateException("Secret store is full");
+        }
+
+        if(usedSlots == slabs.length * slotsPerSlab){
+            ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+            grown[slabs.length] = ByteBuffer.allocateDirect(slotsPerSlab * slotSize);
+            slabs = grown;
+        }
+
+        return usedSlots++;
+    }
+
+    /**
+     * @param handle The handle
+     * @return the slab of the handle
+     * @throws IllegalArgumentException if the slot of the handle was never used
+     */
+    private ByteBuffer slab(int handle){
+        int slot = handle & SLOT_MASK;
+        ByteBuffer[] slabs = this.slabs;
+
+        if(handle <= 0 || slot / slotsPerSlab >= slabs.length){
+            throw new IllegalArgumentException("Unknown secret handle " + handle);
+        }
+
+        return slabs[slot / slotsPerSlab];
+    }
+
+    /**
+     * @param handle The handle
+     * @return offset of the slot of the handle in its slab
+     */
+    private int offset(int handle){
+        return ((handle & SLOT_MASK) % slotsPerSlab) * slotSize;
+    }
+
+    /**
+     * Reads the header of a slot and checks that it belongs to the handle
+     * @param slab The slab
+     * @param offset Offset of the slot
+     * @param handle The handle
+     * @return the header (flag and generation in the upper, length in the lower 16 bits)
+     * @throws IllegalArgumentException if the secret of the handle was removed
+     */
+    private static int checkHeader(ByteBuffer slab, int offset, int handle){
+        int header = slab.getInt(offset);
+
+        if((header & ~0xFFFF) != (IN_USE | (handle >>> SLOT_BITS) << 16)){
+            throw new IllegalArgumentException("Unknown secret handle " + handle);
+        }
+
+        return header;
+    }
+
+    /**
+     * Overwrites a region of a slab with zeros
+     * @param slab The slab
+     * @param offset Start of the region
+     * @param length Length of the region
+     */
+    private static void zero(ByteBuffer slab, int offset, int length){
+        int end = offset + length;
+
+        for(; offset + 8 <= end; offset += 8){
+            slab.putLong(offset, 0);
+        }
+
+        for(; offset < end; offset++){
+            slab.put(offset, (byte) 0);
+        }
+    }
+}
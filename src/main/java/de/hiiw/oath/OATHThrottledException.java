@@ -0,0 +1,59 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+/**
+ * Thrown by the {@link ValidationThrottle} if a credential is locked after too many failed attempts,
+ * the otp was not checked. Carries OATH_INVALID_OTP, so callers handling only {@link OATHException}
+ * treat it as a failed attempt
+ */
+public class OATHThrottledException extends OATHException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Milliseconds until the next attempt is allowed
+     */
+    private final long retryAfterMillis;
+
+    /**
+     * Constructs a new OATHThrottledException
+     * @param retryAfterMillis milliseconds until the next attempt is allowed
+     */
+    public OATHThrottledException(long retryAfterMillis){
+        super(OATHReturnCode.OATH_INVALID_OTP);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return the name, int value and error string of the return code and the time until the next attempt
+     */
+    @Override
+    public String getMessage(){
+        return super.getMessage() + ", throttled for " + retryAfterMillis + " ms";
+    }
+
+    /**
+     * Returns the time until the next attempt is allowed
+     * @return milliseconds
+     */
+    public long getRetryAfterMillis(){
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.io.PrintStream;
+
+/**
+ * Command line tool generating and validating one time tokens like oathtool, also the main class
+ * of the native executable (profile native):
+ * <pre>
+ * oathtool [--hotp|--totp[=sha1|sha256|sha512]] [-b] [-d digits] [-c counter] [-s step] [-N now] [-w window] KEY [OTP]
+ * </pre>
+ * Without an otp the otps of the window are printed, otherwise its position. Unlike oathtool the time (-N)
+ * is given in unix seconds. The engine is selected by the system property {@value OATH#ENGINE_PROPERTY}
+ */
+public final class OATHTool {
+    private static final String USAGE = "Usage: oathtool [--hotp|--totp[=sha1|sha256|sha512]] [-b|--base32] [-d|--digits=N] "
+            + "[-c|--counter=N] [-s|--time-step-size=N] [-N|--now=UNIX_SECONDS] [-w|--window=N] KEY [OTP]";
+
+    private OATHTool(){
+    }
+
+    public static void main(String[] args){
+        System.exit(run(OATH.getInstance(), args, System.out, System.err));
+    }
+
+    /**
+     * Runs the tool
+     * @param oath The wrapper
+     * @param args The arguments
+     * @param out Receives the otps or the position
+     * @param err Receives the errors
+     * @return the exit code, 0 on success, 1 if the otp is invalid or the arguments are wrong
+     */
+    static int run(OATH oath, String[] args, PrintStream out, PrintStream err){
+        OATHTotpFlag flag = null;
+        boolean base32 = false;
+        int digits = 6;
+        long counter = 0;
+        int timeStepSize = 30;
+        long now = System.currentTimeMillis() / 1000;
+        long window = 0;
+        String key = null;
+        String otp = null;
+
+        try {
+            for(int i = 0; i < args.length; i++){
+                String arg = args[i];
+                int equals = arg.indexOf('=');
+                String name = arg.startsWith("--") && equals > 0 ? arg.substring(0, equals) : arg;
+
+                switch (name){
+                    case "--hotp":
+                        flag = null;
+                        break;
+                    case "--totp":
+                        flag = equals > 0 ? totpFlag(arg.substring(equals + 1)) : OATHTotpFlag.OATH_TOTP_HMAC_SHA1;
+                        break;
+                    case "-b":
+                    case "--base32":
+                        base32 = true;
+                        break;
+                    case "-d":
+                    case "--digits":
+                        digits = Integer.parseInt(equals > 0 ? arg.substring(equals + 1) : next(args, ++i, arg));
+                        break;
+                    case "-c":
+                    case "--counter":
+                        counter = Long.parseUnsignedLong(equals > 0 ? arg.substring(equals + 1) : next(args, ++i, arg));
+                        break;
+                    case "-s":
+                    case "--time-step-size":
+                        timeStepSize = Integer.parseInt(equals > 0 ? arg.substring(equals + 1) : next(args, ++i, arg));
+                        break;
+                    case "-N":
+                    case "--now":
+                        now = Long.parseLong(equals > 0 ? arg.substring(equals + 1) : next(args, ++i, arg));
+                        break;
+                    case "-w":
+                    case "--window":
+                        window = Long.parseUnsignedLong(equals > 0 ? arg.substring(equals + 1) : next(args, ++i, arg));
+                        break;
+                    default:
+                        if(arg.startsWith("-")){
+                            throw new IllegalArgumentException("Unknown option " + arg);
+                        } else if(key == null){
+                            key = arg;
+                        } else if(otp == null){
+                            otp = arg;
+                        } else {
+                            throw new IllegalArgumentException("Too many arguments");
+                        }
+                }
+            }
+
+            if(key == null){
+                throw new IllegalArgumentException("Missing key");
+            }
+        } catch (IllegalArgumentException e) {
+            err.println("oathtool: " + e.getMessage());
+            err.println(USAGE);
+            return 1;
+        }
+
+        try {
+            OATHKey secret = new OATHKey(base32 ? oath.base32Decode(key) : oath.hex2Bin(key));
+
+            if(otp == null){
+                for(long i = 0; Long.compareUnsigned(i, window) <= 0; i++){
+                    out.println(flag == null ? oath.hotpGenerate(secret, counter + i, digits, 0)
+                            : oath.totpGenerate(secret, now + i * timeStepSize, timeStepSize, 0, digits, flag));
+                }
+
+                return 0;
+            }
+
+            int position = flag == null ? oath.validateHotpPosition(secret, counter, window, otp)
+                    : oath.validateTotpPosition(secret, now, timeStepSize, 0, (int) Math.min(window, Integer.MAX_VALUE), flag, otp);
+
+            if(!OATH.isValidPosition(position)){
+                err.println("oathtool: password \"" + otp + "\" not found in range " + (flag == null ? counter : -window)
+                        + " .. " + (flag == null ? counter + window : window));
+                return 1;
+            }
+
+            out.println(position);
+            return 0;
+        } catch (OATHException e) {
+            err.println("oathtool: " + e.getErrorCode().getError());
+            return 1;
+        }
+    }
+
+    /**
+     * @param args The arguments
+     * @param index Index of the value
+     * @param option The option
+     * @return the value of the option
+     */
+    private static String next(String[] args, int index, String option){
+        if(index >= args.length){
+            throw new IllegalArgumentException("Missing value of " + option);
+        }
+
+        return args[index];
+    }
+
+    private static OATHTotpFlag totpFlag(String mode){
+        switch (mode.toLowerCase()){
+            case "sha1":
+                return OATHTotpFlag.OATH_TOTP_HMAC_SHA1;
+            case "sha256":
+                return OATHTotpFlag.OATH_TOTP_HMAC_SHA256;
+            case "sha512":
+                return OATHTotpFlag.OATH_TOTP_HMAC_SHA512;
+            default:
+                throw new IllegalArgumentException("Unknown totp mode " + mode);
+        }
+    }
+}
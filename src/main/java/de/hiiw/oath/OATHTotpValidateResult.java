@@ -20,23 +20,24 @@
 package de.hiiw.oath;
 
 /**
- * A validate result, containing the (absolute and relative) position of the otp and a ok return code
+ * A validate result, containing the (absolute and relative) position of the otp and a ok return code.
+ * Instances are immutable and can be shared between threads
  */
 public class OATHTotpValidateResult {
     /**
      * The returncode
      */
-    private OATHReturnCode returnCode;
+    private final OATHReturnCode returnCode;
 
     /**
      * The relative position of the otp
      */
-    private int otpPos;
+    private final int otpPos;
 
     /**
      * The absolute position of the otp
      */
-    private int otpCounter;
+    private final int otpCounter;
 
     /**
      * Constructs a new OATHTotpValidateResult
@@ -0,0 +1,105 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+/**
+ * Reusable holder for the result of a totp validation, filled by
+ * {@link OATH#totpValidate(byte[], long, int, long, int, OATHTotpFlag, String, OATHTotpValidateResultHolder)}.
+ * A holder is not thread safe, use one per thread (or per request) to validate without allocations
+ */
+public class OATHTotpValidateResultHolder {
+    /**
+     * OATH_OK if the last validated otp was valid, else OATH_INVALID_OTP or OATH_INVALID_DIGITS
+     */
+    private OATHReturnCode returnCode = OATHReturnCode.OATH_INVALID_OTP;
+
+    /**
+     * The relative position of the otp
+     */
+    private int otpPos;
+
+    /**
+     * The absolute position of the otp
+     */
+    private int otpCounter;
+
+    /**
+     * Sets the result of a validation
+     * @param returnCode OATH_OK if the otp was valid, else why it is invalid
+     * @param otpPos The relative position of the otp
+     * @param otpCounter The absolute position of the otp
+     */
+    void set(OATHReturnCode returnCode, int otpPos, int otpCounter) {
+        this.returnCode = returnCode;
+        this.otpPos = otpPos;
+        this.otpCounter = otpCounter;
+    }
+
+    /**
+     * @return Whether the last validated otp was valid
+     */
+    public boolean isValid() {
+        return returnCode == OATHReturnCode.OATH_OK;
+    }
+
+    /**
+     * @return OATH_OK if the last validated otp was valid, OATH_INVALID_OTP or OATH_INVALID_DIGITS if not
+     */
+    public OATHReturnCode getReturnCode() {
+        return returnCode;
+    }
+
+    /**
+     * @return The relative position of the otp, {@link OATH#INVALID_POSITION} or
+     * {@link OATH#INVALID_DIGITS_POSITION} if invalid
+     */
+    public int getOtpPos() {
+        return otpPos;
+    }
+
+    /**
+     * @return The absolute position of the otp, 0 if invalid
+     */
+    public int getOtpCounter() {
+        return otpCounter;
+    }
+
+    /**
+     * Creates an immutable copy of a valid result
+     * @return the immutable result
+     * @throws OATHException with OATH_INVALID_OTP or OATH_INVALID_DIGITS if the otp was invalid
+     */
+    public OATHTotpValidateResult toResult() {
+        if(!isValid()){
+            throw new OATHException(returnCode);
+        }
+
+        return new OATHTotpValidateResult(OATHReturnCode.OATH_OK, otpPos, otpCounter);
+    }
+
+    @Override
+    public String toString() {
+        return "OATHTotpValidateResultHolder{" +
+                "returnCode=" + returnCode.name() +
+                ", otpPos=" + otpPos +
+                ", otpCounter=" + otpCounter +
+                '}';
+    }
+}
@@ -0,0 +1,742 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Authenticates users against a liboath usersfile (see oath_authenticate_usersfile), like
+ * <pre>
+ * HOTP      alice  -     3132333435363738393031323334353637383930
+ * HOTP/T30  bob    1234  3132333435363738393031323334353637383930  47  755224  2019-05-01T12:00:00L
+ * </pre>
+ * The file is read once into an in-memory index. Unlike liboath, a successful authentication does not rewrite
+ * the file, the new counter and last otp are appended to a log next to the file (file name with the suffix .log),
+ * concurrent authentications share one write and force of the log (group commit). Once the log holds enough
+ * records the file is rewritten in the background and the log is truncated, so the cost of an authentication
+ * does not depend on the size of the file. The log is replayed on open.
+ * <p>
+ * The log is locked while the file is open, the file must not be modified by others meanwhile.
+ * Instances are thread safe
+ */
+public final class OATHUsersFile implements AutoCloseable {
+    /**
+     * Token types of liboath: HOTP, HOTP/E, HOTP/E/8, HOTP/E8, HOTP/8, HOTP/T30, HOTP/T60/8, ...
+     */
+    private static final Pattern TYPE = Pattern.compile("HOTP(?:/T(\\d+))?(?:/E)?(?:/?([678]))?");
+
+    /**
+     * Format of the last otp time, liboath writes the local time
+     */
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'L'");
+
+    /**
+     * The wrapper used for validation
+     */
+    private final OATH oath;
+
+    /**
+     * The usersfile
+     */
+    private final Path file;
+
+    /**
+     * The log of updates since the last compaction
+     */
+    private final FileChannel log;
+
+    /**
+     * Exclusive lock of the log
+     */
+    private final FileLock lock;
+
+    /**
+     * The users by name
+     */
+    private final Map<String, User> users;
+
+    /**
+     * The lines of the file, a user or the unchanged text of other lines (comments, duplicate users)
+     */
+    private final List<Object> lines;
+
+    /**
+     * Number of log records which start a compaction
+     */
+    private final int compactThreshold;
+
+    /**
+     * Records which are not written yet, guarded by itself
+     */
+    private final StringBuilder batch = new StringBuilder();
+
+    /**
+     * Number of records added to the batch, guarded by the batch
+     */
+    private long appended;
+
+    /**
+     * Number of records in the batch, guarded by the batch
+     */
+    private int batchRecords;
+
+    /**
+     * Held while writing the log or compacting
+     */
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    /**
+     * Number of records which are forced to disk, guarded by the commit lock
+     */
+    private long durable;
+
+    /**
+     * Number of records in the log, written while holding the commit lock
+     */
+    private volatile int logRecords;
+
+    /**
+     * Set while a background compaction is scheduled or running
+     */
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    /**
+     * Runs the background compactions
+     */
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "oath-usersfile-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean closed;
+
+    private OATHUsersFile(OATH oath, Path file, FileChannel log, FileLock lock, Map<String, User> users, List<Object> lines, int compactThreshold){
+        this.oath = oath;
+        this.file = file;
+        this.log = log;
+        this.lock = lock;
+        this.users = users;
+        this.lines = lines;
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * Opens a usersfile, the file is compacted once the log holds as many records as there are users (at least 1024)
+     * @param oath The wrapper used for validation
+     * @param file The usersfile
+     * @return the opened usersfile
+     * @throws OATHException with OATH_NO_SUCH_FILE if the file does not exist, OATH_FILE_LOCK_ERROR if it is opened elsewhere,
+     * OATH_INVALID_HEX, OATH_INVALID_COUNTER or OATH_INVALID_TIMESTAMP if a line is corrupt or another file error
+     */
+    public static OATHUsersFile open(OATH oath, Path file){
+        return open(oath, file, 0);
+    }
+
+    /**
+     * Opens a usersfile
+     * @param oath The wrapper used for validation
+     * @param file The usersfile
+     * @param compactThreshold Number of log records which start a compaction, 0 for the number of users (at least 1024)
+     * @return the opened usersfile
+     * @throws OATHException with OATH_NO_SUCH_FILE if the file does not exist, OATH_FILE_LOCK_ERROR if it is opened elsewhere,
+     * OATH_INVALID_HEX, OATH_INVALID_COUNTER or OATH_INVALID_TIMESTAMP if a line is corrupt or another file error
+     * @throws IllegalArgumentException if compactThreshold is negative
+     */
+    public static OATHUsersFile open(OATH oath, Path file, int compactThreshold){
+        if(compactThreshold < 0){
+            throw new IllegalArgumentException("Compact threshold must not be negative, got " + compactThreshold);
+        }
+
+        List<String> text;
+
+        try {
+            text = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            throw new OATHException(OATHReturnCode.OATH_NO_SUCH_FILE);
+        } catch (IOException e) {
+            throw new OATHException(OATHReturnCode.OATH_FILE_SEEK_ERROR);
+        }
+
+        Map<String, User> users = new ConcurrentHashMap<>();
+        List<Object> lines = new ArrayList<>(text.size());
+
+        for(String line : text){
+            User user = User.parse(oath, line);
+
+            if(user != null && users.putIfAbsent(user.name, user) == null){
+                lines.add(user);
+            } else {
+                lines.add(line);
+            }
+        }
+
+        FileChannel log;
+
+        try {
+            log = FileChannel.open(logFile(file), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new OATHException(OATHReturnCode.OATH_FILE_CREATE_ERROR);
+        }
+
+        try {
+            FileLock lock;
+
+            try {
+                lock = log.tryLock();
+            } catch (IOException | OverlappingFileLockException e) {
+                lock = null;
+            }
+
+            if(lock == null){
+                throw new OATHException(OATHReturnCode.OATH_FILE_LOCK_ERROR);
+            }
+
+            OATHUsersFile usersFile = new OATHUsersFile(oath, file, log, lock, users, lines,
+                    compactThreshold == 0 ? Math.max(1024, users.size()) : compactThreshold);
+            usersFile.replay();
+            return usersFile;
+        } catch (RuntimeException e) {
+            try {
+                log.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Authenticates a user now, see {@link #authenticate(String, String, long, String, long)}
+     */
+    public long authenticate(String user, String otp, long window, String password){
+        return authenticate(user, otp, window, password, System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Authenticates a user with an one time token and a password, like oath_authenticate_usersfile.
+     * HOTP users accept the otps of the window after their counter, TOTP users the otps of the window
+     * around the timestamp which are newer than the last accepted one. The update is forced to disk
+     * before this method returns
+     * @param user The user name
+     * @param otp The otp to validate
+     * @param window Number of otps after the counter (HOTP) or around the timestamp (TOTP) to test
+     * @param password The password, the password column - requires an empty one, + accepts any
+     * @param unixTimestamp The timestamp (usually now)
+     * @return the unix time of the previous accepted otp of the user, 0 if there is none
+     * @throws OATHException with OATH_UNKNOWN_USER, OATH_BAD_PASSWORD, OATH_REPLAYED_OTP, OATH_INVALID_OTP
+     * or OATH_FILE_SYNC_ERROR if the log cannot be written
+     * @throws IllegalStateException if the usersfile is closed
+     */
+    public long authenticate(String user, String otp, long window, String password, long unixTimestamp){
+        if(closed){
+            throw new IllegalStateException("Usersfile is closed");
+        }
+
+        User entry = users.get(user);
+
+        if(entry == null){
+            throw new OATHException(OATHReturnCode.OATH_UNKNOWN_USER);
+        }
+
+        if(!entry.matchesPassword(password)){
+            throw new OATHException(OATHReturnCode.OATH_BAD_PASSWORD);
+        }
+
+        if(otp.length() != entry.digits){
+            throw new OATHException(OATHReturnCode.OATH_INVALID_OTP);
+        }
+
+        long previous;
+        long sequence;
+
+        synchronized (entry){
+            if(otp.equals(entry.lastOtp)){
+                throw new OATHException(OATHReturnCode.OATH_REPLAYED_OTP);
+            }
+
+            long movingFactor;
+
+            if(entry.timeStepSize == 0){
+                int position = oath.validateHotpPosition(entry.key, entry.movingFactor, window, otp);
+
+                if(!OATH.isValidPosition(position)){
+                    throw new OATHException(OATH.positionReturnCode(position));
+                }
+
+                movingFactor = entry.movingFactor + position + 1;
+            } else {
+                int position = oath.validateTotpPosition(entry.key, unixTimestamp, entry.timeStepSize, 0, (int) Math.min(window, Integer.MAX_VALUE),
+                        OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp);
+
+                if(!OATH.isValidPosition(position)){
+                    throw new OATHException(OATH.positionReturnCode(position));
+                }
+
+                movingFactor = OATH.timeStep(unixTimestamp, entry.timeStepSize, 0) + position;
+
+                if(entry.lastOtp != null && movingFactor <= entry.movingFactor){
+                    throw new OATHException(OATHReturnCode.OATH_REPLAYED_OTP);
+                }
+            }
+
+            previous = entry.lastTime;
+            entry.update(movingFactor, otp, unixTimestamp);
+            //Appended while holding the user, so the records of a user are in order
+            sequence = append(entry.name + '\t' + Long.toUnsignedString(movingFactor) + '\t' + otp + '\t' + unixTimestamp + '\n');
+        }
+
+        commit(sequence);
+        return previous;
+    }
+
+    /**
+     * @param user The user name
+     * @return the counter of a HOTP user or the time step of the last accepted otp of a TOTP user
+     * @throws OATHException with OATH_UNKNOWN_USER if the user is unknown
+     */
+    public long getMovingFactor(String user){
+        User entry = users.get(user);
+
+        if(entry == null){
+            throw new OATHException(OATHReturnCode.OATH_UNKNOWN_USER);
+        }
+
+        synchronized (entry){
+            return entry.movingFactor;
+        }
+    }
+
+    /**
+     * @return number of users
+     */
+    public int size(){
+        return users.size();
+    }
+
+    /**
+     * Rewrites the usersfile with the current state of all users and truncates the log,
+     * authentications wait for the log meanwhile
+     * @throws OATHException with OATH_FILE_CREATE_ERROR if the new file cannot be written,
+     * OATH_FILE_RENAME_ERROR if it cannot replace the file or OATH_FILE_SYNC_ERROR if the log cannot be truncated
+     */
+    public void compact(){
+        commitLock.lock();
+
+        try {
+            flush();
+
+            StringBuilder text = new StringBuilder();
+
+            for(Object line : lines){
+                if(line instanceof User){
+                    User user = (User) line;
+
+                    synchronized (user){
+                        user.format(text);
+                    }
+                } else {
+                    text.append((String) line);
+                }
+
+                text.append('\n');
+            }
+
+            Path temporary = file.resolveSibling(file.getFileName() + ".new");
+
+            try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)){
+                writeFully(channel, ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8)));
+                channel.force(true);
+            } catch (IOException e) {
+                throw new OATHException(OATHReturnCode.OATH_FILE_CREATE_ERROR);
+            }
+
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new OATHException(OATHReturnCode.OATH_FILE_RENAME_ERROR);
+            }
+
+            try {
+                log.truncate(0);
+                log.force(true);
+            } catch (IOException e) {
+                throw new OATHException(OATHReturnCode.OATH_FILE_SYNC_ERROR);
+            }
+
+            logRecords = 0;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Compacts the file and releases the log
+     * @throws OATHException if the compaction fails or with OATH_FILE_CLOSE_ERROR if the log cannot be closed
+     */
+    @Override
+    public void close(){
+        if(closed){
+            return;
+        }
+
+        closed = true;
+        compactor.shutdown();
+
+        try {
+            //A background compaction must not replace the file once the lock is released
+            awaitCompactor();
+            compact();
+        } finally {
+            try {
+                lock.release();
+                log.close();
+            } catch (IOException e) {
+                throw new OATHException(OATHReturnCode.OATH_FILE_CLOSE_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Adds a record to the batch
+     * @param record The record
+     * @return the sequence number of the record
+     */
+    private long append(String record){
+        synchronized (batch){
+            batch.append(record);
+            batchRecords++;
+            return ++appended;
+        }
+    }
+
+    /**
+     * Waits until a record is forced to disk, the first waiting thread writes the whole batch
+     * for all others (group commit)
+     * @param sequence The sequence number of the record
+     * @throws OATHException with OATH_FILE_SYNC_ERROR if the log cannot be written
+     */
+    private void commit(long sequence){
+        commitLock.lock();
+
+        try {
+            if(durable < sequence){
+                flush();
+            }
+        } finally {
+            commitLock.unlock();
+        }
+
+        if(logRecords >= compactThreshold && !closed && compacting.compareAndSet(false, true)){
+            try {
+                compactor.execute(() -> {
+                    try {
+                        //close() compacts itself
+                        if(!closed){
+                            compact();
+                        }
+                    } catch (OATHException e) {
+                        //The log is kept, the next threshold retries
+                    } finally {
+                        compacting.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //Closed meanwhile
+                compacting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Waits until a queued or running background compaction is finished, the compactor must be shut down
+     */
+    private void awaitCompactor(){
+        boolean interrupted = false;
+
+        while(!compactor.isTerminated()){
+            try {
+                compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes and forces the batch, the commit lock must be held
+     * @throws OATHException with OATH_FILE_SYNC_ERROR if the log cannot be written, the batch is kept
+     */
+    private void flush(){
+        String records;
+        int count;
+        long last;
+
+        synchronized (batch){
+            records = batch.toString();
+            count = batchRecords;
+            last = appended;
+            batch.setLength(0);
+            batchRecords = 0;
+        }
+
+        if(count == 0){
+            return;
+        }
+
+        try {
+            log.position(log.size());
+            writeFully(log, ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8)));
+            log.force(false);
+        } catch (IOException e) {
+            synchronized (batch){
+                batch.insert(0, records);
+                batchRecords += count;
+            }
+
+            throw new OATHException(OATHReturnCode.OATH_FILE_SYNC_ERROR);
+        }
+
+        logRecords += count;
+        durable = last;
+    }
+
+    /**
+     * Applies the log to the users, a torn last record is ignored
+     * @throws OATHException with OATH_FILE_SEEK_ERROR if the log cannot be read
+     */
+    private void replay(){
+        String text;
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) log.size());
+
+            while(buffer.hasRemaining() && log.read(buffer, buffer.position()) >= 0);
+
+            text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new OATHException(OATHReturnCode.OATH_FILE_SEEK_ERROR);
+        }
+
+        int start = 0;
+
+        for(int end = text.indexOf('\n'); end >= 0; start = end + 1, end = text.indexOf('\n', start)){
+            String[] fields = text.substring(start, end).split("\t");
+            User user = fields.length == 4 ? users.get(fields[0]) : null;
+
+            if(user != null){
+                try {
+                    user.update(Long.parseUnsignedLong(fields[1]), fields[2], Long.parseLong(fields[3]));
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+
+            logRecords++;
+        }
+    }
+
+    /**
+     * @param file The usersfile
+     * @return the log of the usersfile
+     */
+    private static Path logFile(Path file){
+        return file.resolveSibling(file.getFileName() + ".log");
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * A user line of the file
+     */
+    private static final class User {
+        private final String type;
+        private final String name;
+        private final String password;
+        private final String hexSecret;
+        private final OATHKey key;
+        private final int digits;
+        private final int timeStepSize;
+
+        /**
+         * The unchanged line, null once the user was updated
+         */
+        private String line;
+
+        /**
+         * Counter of HOTP users, time step of the last accepted otp of TOTP users
+         */
+        private long movingFactor;
+
+        /**
+         * The last accepted otp, null if none
+         */
+        private String lastOtp;
+
+        /**
+         * Unix time of the last accepted otp, 0 if none
+         */
+        private long lastTime;
+
+        private User(String type, String name, String password, String hexSecret, OATHKey key, int digits, int timeStepSize, String line){
+            this.type = type;
+            this.name = name;
+            this.password = password;
+            this.hexSecret = hexSecret;
+            this.key = key;
+            this.digits = digits;
+            this.timeStepSize = timeStepSize;
+            this.line = line;
+        }
+
+        /**
+         * Parses a line of the file
+         * @param oath The wrapper used for decoding the secret
+         * @param line The line
+         * @return the user or null if the line is no user line (like a comment)
+         * @throws OATHException with OATH_INVALID_HEX, OATH_INVALID_COUNTER or OATH_INVALID_TIMESTAMP if the user line is corrupt
+         */
+        private static User parse(OATH oath, String line){
+            String[] fields = line.trim().split("\\s+");
+
+            if(fields.length < 4 || fields[0].startsWith("#")){
+                return null;
+            }
+
+            Matcher type = TYPE.matcher(fields[0]);
+
+            if(!type.matches()){
+                return null;
+            }
+
+            User user = new User(fields[0], fields[1], fields[2], fields[3], new OATHKey(oath.hex2Bin(fields[3])),
+                    type.group(2) == null ? 6 : Integer.parseInt(type.group(2)),
+                    type.group(1) == null ? 0 : parseTimeStepSize(type.group(1)), line);
+
+            if(fields.length > 4){
+                try {
+                    user.movingFactor = Long.parseUnsignedLong(fields[4]);
+                } catch (NumberFormatException e) {
+                    throw new OATHException(OATHReturnCode.OATH_INVALID_COUNTER);
+                }
+            }
+
+            if(fields.length > 5){
+                user.lastOtp = fields[5];
+            }
+
+            if(fields.length > 6){
+                try {
+                    user.lastTime = LocalDateTime.parse(fields[6], TIMESTAMP).atZone(ZoneId.systemDefault()).toEpochSecond();
+                } catch (DateTimeParseException e) {
+                    throw new OATHException(OATHReturnCode.OATH_INVALID_TIMESTAMP);
+                }
+            }
+
+            return user;
+        }
+
+        private static int parseTimeStepSize(String value){
+            try {
+                int timeStepSize = Integer.parseInt(value);
+
+                if(timeStepSize > 0){
+                    return timeStepSize;
+                }
+            } catch (NumberFormatException e) {
+                //handled below
+            }
+
+            throw new OATHException(OATHReturnCode.OATH_INVALID_COUNTER);
+        }
+
+        private boolean matchesPassword(String given){
+            if("-".equals(password)){
+                return given == null || given.isEmpty();
+            }
+
+            if("+".equals(password)){
+                return true;
+            }
+
+            return given != null && MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void update(long movingFactor, String otp, long unixTimestamp){
+            this.movingFactor = movingFactor;
+            this.lastOtp = otp;
+            this.lastTime = unixTimestamp;
+            this.line = null;
+        }
+
+        /**
+         * Appends the line of this user as written by liboath
+         * @param text The text
+         */
+        private void format(StringBuilder text){
+            if(line != null){
+                text.append(line);
+                return;
+            }
+
+            text.append(type).append('\t').append(name).append('\t').append(password).append('\t').append(hexSecret)
+                    .append('\t').append(Long.toUnsignedString(movingFactor)).append('\t').append(lastOtp).append('\t')
+                    .append(TIMESTAMP.format(LocalDateTime.ofInstant(Instant.ofEpochSecond(lastTime), ZoneId.systemDefault())));
+        }
+    }
+}
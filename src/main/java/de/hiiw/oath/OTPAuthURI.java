@@ -0,0 +1,408 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Key URI of an authenticator app (otpauth://totp/Issuer:account?secret=...&amp;issuer=Issuer), as shown in
+ * enrollment QR codes. The secret is base32 encoded without padding, the label and issuer are percent encoded.
+ * Instances are immutable
+ */
+public final class OTPAuthURI {
+    private static final String SCHEME = "otpauth://";
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final boolean totp;
+    private final String issuer;
+    private final String account;
+    private final byte[] secret;
+    private final OATHTotpFlag flag;
+    private final int digits;
+    private final int period;
+    private final long counter;
+
+    private OTPAuthURI(boolean totp, String issuer, String account, byte[] secret, OATHTotpFlag flag, int digits, int period, long counter){
+        if(account == null || account.isEmpty()){
+            throw new IllegalArgumentException("Missing account");
+        } else if(digits < 6 || digits > 8){
+            throw new IllegalArgumentException("Digits must be 6, 7 or 8, got " + digits);
+        } else if(period <= 0){
+            throw new IllegalArgumentException("Period must be positive, got " + period);
+        }
+
+        this.totp = totp;
+        this.issuer = issuer;
+        this.account = account;
+        this.secret = secret.clone();
+        this.flag = flag;
+        this.digits = digits;
+        this.period = period;
+        this.counter = counter;
+    }
+
+    /**
+     * Creates the uri of a time based credential
+     * @param issuer The issuer (provider or service), null for none
+     * @param account The account name
+     * @param secret The secret, it is copied
+     * @param flag Hash algorithm
+     * @param digits Digits of the otp (6-8)
+     * @param period Size of timestep in seconds (usually 30)
+     * @return the uri
+     * @throws IllegalArgumentException if the account is empty, the digits are unsupported or the period is not positive
+     */
+    public static OTPAuthURI totp(String issuer, String account, byte[] secret, OATHTotpFlag flag, int digits, int period){
+        return new OTPAuthURI(true, issuer, account, secret, flag, digits, period, 0);
+    }
+
+    /**
+     * Creates the uri of a HMAC-based credential
+     * @param issuer The issuer (provider or service), null for none
+     * @param account The account name
+     * @param secret The secret, it is copied
+     * @param digits Digits of the otp (6-8)
+     * @param counter The initial counter
+     * @return the uri
+     * @throws IllegalArgumentException if the account is empty or the digits are unsupported
+     */
+    public static OTPAuthURI hotp(String issuer, String account, byte[] secret, int digits, long counter){
+        return new OTPAuthURI(false, issuer, account, secret, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, digits, 30, counter);
+    }
+
+    /**
+     * Parses an uri, the issuer parameter takes precedence over the issuer prefix of the label,
+     * unknown parameters (like image) are ignored
+     * @param uri The uri
+     * @return the parsed uri
+     * @throws IllegalArgumentException if the uri is malformed or a parameter is missing or unsupported
+     * @throws OATHException with OATH_INVALID_BASE32 if the secret is malformed
+     */
+    public static OTPAuthURI parse(String uri){
+        if(!uri.regionMatches(true, 0, SCHEME, 0, SCHEME.length())){
+            throw new IllegalArgumentException("Not an otpauth uri: " + uri);
+        }
+
+        int typeEnd = uri.indexOf('/', SCHEME.length());
+
+        if(typeEnd < 0){
+            throw new IllegalArgumentException("Missing label: " + uri);
+        }
+
+        String type = uri.substring(SCHEME.length(), typeEnd);
+        boolean totp = type.equalsIgnoreCase("totp");
+
+        if(!totp && !type.equalsIgnoreCase("hotp")){
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+
+        int queryStart = uri.indexOf('?', typeEnd);
+        int labelEnd = queryStart < 0 ? uri.length() : queryStart;
+        int separator = uri.indexOf(':', typeEnd + 1);
+        String issuer;
+        String account;
+
+        if(separator >= 0 && separator < labelEnd){
+            //A literal colon separates the issuer, colons of the issuer itself are encoded
+            issuer = decode(uri, typeEnd + 1, separator, false).trim();
+            account = decode(uri, separator + 1, labelEnd, false).trim();
+        } else {
+            String label = decode(uri, typeEnd + 1, labelEnd, false);
+            int colon = label.indexOf(':');
+            issuer = colon < 0 ? null : label.substring(0, colon).trim();
+            account = label.substring(colon + 1).trim();
+        }
+        String secret = null;
+        OATHTotpFlag flag = OATHTotpFlag.OATH_TOTP_HMAC_SHA1;
+        int digits = 6;
+        int period = 30;
+        String counter = null;
+
+        for(int start = queryStart + 1; queryStart >= 0 && start <= uri.length();){
+            int end = uri.indexOf('&', start);
+            end = end < 0 ? uri.length() : end;
+            int equals = uri.indexOf('=', start);
+
+            if(equals < 0 || equals > end){
+                equals = end;
+            }
+
+            String name = uri.substring(start, equals);
+            String value = equals == end ? "" : decode(uri, equals + 1, end, true);
+
+            try {
+                switch (name){
+                    case "secret":
+                        secret = value;
+                        break;
+                    case "issuer":
+                        issuer = value;
+                        break;
+                    case "algorithm":
+                        flag = flag(value);
+                        break;
+                    case "digits":
+                        digits = Integer.parseInt(value);
+                        break;
+                    case "period":
+                        period = Integer.parseInt(value);
+                        break;
+                    case "counter":
+                        counter = value;
+                        break;
+                    default:
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + name + " " + value);
+            }
+
+            start = end + 1;
+        }
+
+        if(secret == null){
+            throw new IllegalArgumentException("Missing secret: " + uri);
+        } else if(!totp && counter == null){
+            throw new IllegalArgumentException("Missing counter: " + uri);
+        }
+
+        try {
+            return new OTPAuthURI(totp, issuer, account, OATHBase32.decode(secret), flag, digits, period,
+                    totp ? 0 : Long.parseUnsignedLong(counter));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid counter " + counter);
+        }
+    }
+
+    /**
+     * @return true for a time based, false for a HMAC-based credential
+     */
+    public boolean isTotp(){
+        return totp;
+    }
+
+    /**
+     * @return the issuer or null
+     */
+    public String getIssuer(){
+        return issuer;
+    }
+
+    /**
+     * @return the account name
+     */
+    public String getAccount(){
+        return account;
+    }
+
+    /**
+     * @return a copy of the secret
+     */
+    public byte[] getSecret(){
+        return secret.clone();
+    }
+
+    /**
+     * @return the hash algorithm, OATH_TOTP_HMAC_SHA1 for HMAC-based credentials
+     */
+    public OATHTotpFlag getFlag(){
+        return flag;
+    }
+
+    /**
+     * @return digits of the otp
+     */
+    public int getDigits(){
+        return digits;
+    }
+
+    /**
+     * @return the size of a timestep in seconds, 30 for HMAC-based credentials
+     */
+    public int getPeriod(){
+        return period;
+    }
+
+    /**
+     * @return the initial counter, 0 for time based credentials
+     */
+    public long getCounter(){
+        return counter;
+    }
+
+    /**
+     * @return the uri
+     */
+    @Override
+    public String toString(){
+        char[] base32 = new char[OATHBase32.encodedLength(secret.length)];
+        StringBuilder uri = new StringBuilder(64 + base32.length);
+        append(uri, totp, issuer, account, base32, encodeSecret(secret, base32), flag, digits, totp ? period : counter);
+        return uri.toString();
+    }
+
+    /**
+     * Encodes a secret for an uri
+     * @param secret The secret
+     * @param base32 Receives the base32 characters, at least {@link OATHBase32#encodedLength(int)} long
+     * @return number of characters without padding
+     */
+    static int encodeSecret(byte[] secret, char[] base32){
+        int length = OATHBase32.encode(secret, 0, secret.length, base32, 0);
+
+        while(length > 0 && base32[length - 1] == '='){
+            length--;
+        }
+
+        return length;
+    }
+
+    /**
+     * Appends an uri without creating an instance
+     * @param uri Receives the uri
+     * @param totp true for a time based, false for a HMAC-based credential
+     * @param issuer The issuer or null
+     * @param account The account name
+     * @param base32 The base32 encoded secret, see {@link #encodeSecret(byte[], char[])}
+     * @param base32Length Number of characters of the secret
+     * @param flag Hash algorithm
+     * @param digits Digits of the otp
+     * @param periodOrCounter The period of a time based or the counter of a HMAC-based credential
+     */
+    static void append(StringBuilder uri, boolean totp, String issuer, String account, char[] base32, int base32Length,
+                       OATHTotpFlag flag, int digits, long periodOrCounter){
+        uri.append(SCHEME).append(totp ? "totp/" : "hotp/");
+
+        if(issuer != null){
+            encode(uri, issuer);
+            uri.append(':');
+        }
+
+        encode(uri, account);
+        uri.append("?secret=").append(base32, 0, base32Length);
+
+        if(issuer != null){
+            uri.append("&issuer=");
+            encode(uri, issuer);
+        }
+
+        uri.append("&algorithm=").append(algorithm(flag)).append("&digits=").append(digits);
+
+        if(totp){
+            uri.append("&period=").append(periodOrCounter);
+        } else {
+            uri.append("&counter=").append(Long.toUnsignedString(periodOrCounter));
+        }
+    }
+
+    /**
+     * Percent encodes all characters except the unreserved ones of RFC 3986
+     * @param uri Receives the encoded text
+     * @param text The text
+     */
+    private static void encode(StringBuilder uri, String text){
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+
+            if(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '.' || c == '_' || c == '~'){
+                uri.append(c);
+                continue;
+            }
+
+            int end = Character.isHighSurrogate(c) && i + 1 < text.length() ? i + 2 : i + 1;
+
+            for(byte b : text.substring(i, end).getBytes(StandardCharsets.UTF_8)){
+                uri.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+            }
+
+            i = end - 1;
+        }
+    }
+
+    /**
+     * Decodes a percent encoded part of an uri
+     * @param uri The uri
+     * @param start Start of the part
+     * @param end End of the part
+     * @param query true to decode + as space
+     * @return the decoded text
+     * @throws IllegalArgumentException if a percent escape is malformed
+     */
+    private static String decode(String uri, int start, int end, boolean query){
+        if(uri.indexOf('%', start) < 0 && (!query || uri.indexOf('+', start) < 0)){
+            return uri.substring(start, end);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(end - start);
+
+        for(int i = start; i < end; i++){
+            char c = uri.charAt(i);
+
+            if(c == '%'){
+                int high = i + 2 < end ? Character.digit(uri.charAt(i + 1), 16) : -1;
+                int low = high < 0 ? -1 : Character.digit(uri.charAt(i + 2), 16);
+
+                if(low < 0){
+                    throw new IllegalArgumentException("Malformed escape in " + uri);
+                }
+
+                bytes.write(high << 4 | low);
+                i += 2;
+            } else if(c == '+' && query){
+                bytes.write(' ');
+            } else if(c < 0x80){
+                bytes.write(c);
+            } else {
+                int next = Character.isHighSurrogate(c) && i + 1 < end ? i + 2 : i + 1;
+                byte[] encoded = uri.substring(i, next).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+                i = next - 1;
+            }
+        }
+
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String algorithm(OATHTotpFlag flag){
+        switch (flag){
+            case OATH_TOTP_HMAC_SHA256:
+                return "SHA256";
+            case OATH_TOTP_HMAC_SHA512:
+                return "SHA512";
+            default:
+                return "SHA1";
+        }
+    }
+
+    private static OATHTotpFlag flag(String algorithm){
+        switch (algorithm.toUpperCase()){
+            case "SHA1":
+                return OATHTotpFlag.OATH_TOTP_HMAC_SHA1;
+            case "SHA256":
+                return OATHTotpFlag.OATH_TOTP_HMAC_SHA256;
+            case "SHA512":
+                return OATHTotpFlag.OATH_TOTP_HMAC_SHA512;
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm " + algorithm);
+        }
+    }
+}
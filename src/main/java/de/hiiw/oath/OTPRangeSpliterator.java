@@ -0,0 +1,149 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Lazily generates the otps of a range of counters (or time steps) in chunks, splits the range in halves
+ * for parallel streams. Every spliterator has its own chunk buffer
+ */
+final class OTPRangeSpliterator implements Spliterator.OfInt {
+    /**
+     * Number of otps generated at once
+     */
+    private static final int CHUNK = 64;
+
+    /**
+     * Generates the otps of a part of the range
+     */
+    interface RangeGenerator {
+        /**
+         * @param index Index of the first otp in the range
+         * @param otps receives the otps
+         * @param offset Index of the first otp in otps
+         * @param count Number of otps
+         */
+        void generate(long index, int[] otps, int offset, int count);
+    }
+
+    private final RangeGenerator generator;
+
+    /**
+     * Index of the next otp which is not generated yet
+     */
+    private long origin;
+
+    /**
+     * Index after the last otp
+     */
+    private final long fence;
+
+    /**
+     * Generated otps, created on first use
+     */
+    private int[] buffer;
+    private int bufferIndex;
+    private int bufferSize;
+
+    /**
+     * Constructs a new spliterator
+     * @param generator Generates the otps
+     * @param origin Index of the first otp
+     * @param fence Index after the last otp
+     */
+    OTPRangeSpliterator(RangeGenerator generator, long origin, long fence){
+        this.generator = generator;
+        this.origin = origin;
+        this.fence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(IntConsumer action){
+        if(bufferIndex == bufferSize && !fill()){
+            return false;
+        }
+
+        action.accept(buffer[bufferIndex++]);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(IntConsumer action){
+        do {
+            while(bufferIndex < bufferSize){
+                action.accept(buffer[bufferIndex++]);
+            }
+        } while(fill());
+    }
+
+    @Override
+    public Spliterator.OfInt trySplit(){
+        long remaining = fence - origin;
+
+        if(remaining < 2 * CHUNK){
+            return null;
+        }
+
+        //The prefix keeps the otps generated already, a chunk aligned half of the rest
+        long middle = origin + remaining / 2 / CHUNK * CHUNK;
+        OTPRangeSpliterator prefix = new OTPRangeSpliterator(generator, origin, middle);
+        prefix.buffer = buffer;
+        prefix.bufferIndex = bufferIndex;
+        prefix.bufferSize = bufferSize;
+
+        buffer = null;
+        bufferIndex = 0;
+        bufferSize = 0;
+        origin = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize(){
+        return fence - origin + bufferSize - bufferIndex;
+    }
+
+    @Override
+    public int characteristics(){
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Generates the next chunk into the buffer
+     * @return false if the range is exhausted
+     */
+    private boolean fill(){
+        if(origin >= fence){
+            return false;
+        }
+
+        if(buffer == null){
+            buffer = new int[CHUNK];
+        }
+
+        bufferSize = (int) Math.min(CHUNK, fence - origin);
+        bufferIndex = 0;
+        generator.generate(origin, buffer, 0, bufferSize);
+        origin += bufferSize;
+        return true;
+    }
+}
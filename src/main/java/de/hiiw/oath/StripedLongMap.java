@@ -0,0 +1,437 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Compact lock-striped hash map from long keys to long values, used for per user or per credential state.
+ * Every entry carries a stamp (in a unit chosen by the caller, e.g. time steps or milliseconds),
+ * entries older than the time to live are treated as missing and dropped when space is needed.
+ * The number of entries is bounded, if a stripe is full its expired entries are dropped, if none is expired
+ * the oldest sixteenth of the stripe is evicted, so a stripe is swept at most once per sixteenth of its size
+ * and inserts stay amortized constant even if every insert is a new key.
+ * Keys and values are stored in primitive arrays with linear probing, so no objects are allocated per entry
+ */
+class StripedLongMap {
+    /**
+     * Number of stripes, power of two
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * Initial table capacity of a stripe, power of two
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * A full stripe without expired entries evicts maxSize / EVICTION_FRACTION (at least one) of its oldest entries
+     */
+    private static final int EVICTION_FRACTION = 16;
+
+    /**
+     * The stripes, each one guarded by itself
+     */
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Entries with a stamp older than now - timeToLive are expired
+     */
+    private final long timeToLive;
+
+    /**
+     * Constructs a new map
+     * @param maxEntries Maximum number of entries
+     * @param timeToLive Entries with a stamp older than now - timeToLive are expired
+     * @throws IllegalArgumentException if maxEntries is not positive or timeToLive is negative
+     */
+    StripedLongMap(int maxEntries, long timeToLive){
+        if(maxEntries <= 0){
+            throw new IllegalArgumentException("Maximum number of entries must be positive, got " + maxEntries);
+        } else if(timeToLive < 0){
+            throw new IllegalArgumentException("Time to live must not be negative, got " + timeToLive);
+        }
+
+        this.timeToLive = timeToLive;
+
+        for(int i = 0; i < STRIPES; i++){
+            stripes[i] = new Stripe(Math.max(1, (maxEntries + STRIPES - 1 - i) / STRIPES));
+        }
+    }
+
+    /**
+     * Returns the value of a key
+     * @param key The key
+     * @param missingValue value returned if the key is missing or expired
+     * @param now The current stamp
+     * @return the value or missingValue
+     */
+    long get(long key, long missingValue, long now){
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> 58)];
+
+        synchronized (stripe){
+            int index = stripe.find(key, hash);
+            return index < 0 || isExpired(stripe.stamps[index], now) ? missingValue : stripe.values[index];
+        }
+    }
+
+    /**
+     * Atomically updates the value of a key and stamps it with now
+     * @param key The key
+     * @param missingValue value passed to the function if the key is missing or expired
+     * @param now The current stamp
+     * @param function computes the new value from the old one
+     * @return the previous value or missingValue
+     */
+    long getAndUpdate(long key, long missingValue, long now, LongUnaryOperator function){
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> 58)];
+
+        synchronized (stripe){
+            int index = stripe.find(key, hash);
+            long previous = index < 0 || isExpired(stripe.stamps[index], now) ? missingValue : stripe.values[index];
+            long next = function.applyAsLong(previous);
+
+            if(index < 0){
+                if(stripe.size >= stripe.maxSize){
+                    stripe.makeRoom(now, timeToLive);
+                }
+
+                index = stripe.insert(key, hash);
+            }
+
+            stripe.values[index] = next;
+            stripe.stamps[index] = now;
+            return previous;
+        }
+    }
+
+    /**
+     * Removes a key
+     * @param key The key
+     * @return true if the key was present
+     */
+    boolean remove(long key){
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> 58)];
+
+        synchronized (stripe){
+            int index = stripe.find(key, hash);
+
+            if(index < 0){
+                return false;
+            }
+
+            stripe.delete(index);
+            return true;
+        }
+    }
+
+    /**
+     * Removes all expired entries
+     * @param now The current stamp
+     */
+    void purge(long now){
+        for(Stripe stripe : stripes){
+            synchronized (stripe){
+                stripe.purge(now, timeToLive);
+            }
+        }
+    }
+
+    /**
+     * Calls the consumer for every entry which is not expired, stripe by stripe (not a consistent snapshot)
+     * @param now The current stamp
+     * @param consumer receives key and value
+     */
+    void forEach(long now, EntryConsumer consumer){
+        for(Stripe stripe : stripes){
+            synchronized (stripe){
+                for(int i = 0; i < stripe.used.length; i++){
+                    if(stripe.used[i] && !isExpired(stripe.stamps[i], now)){
+                        consumer.accept(stripe.keys[i], stripe.values[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of entries, including expired ones which were not dropped yet
+     */
+    int size(){
+        int size = 0;
+
+        for(Stripe stripe : stripes){
+            synchronized (stripe){
+                size += stripe.size;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * @param stamp stamp of an entry
+     * @param now The current stamp
+     * @return true if the entry is expired
+     */
+    private boolean isExpired(long stamp, long now){
+        return now - stamp > timeToLive;
+    }
+
+    /**
+     * Spreads the bits of a key (murmur3 finalizer)
+     * @param key The key
+     * @return the hash
+     */
+    static long mix(long key){
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Receives the entries of a map
+     */
+    interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    /**
+     * Open addressing table with linear probing, guarded by the stripe itself
+     */
+    private static final class Stripe {
+        private final int maxSize;
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private long[] values = new long[INITIAL_CAPACITY];
+        private long[] stamps = new long[INITIAL_CAPACITY];
+        private boolean[] used = new boolean[INITIAL_CAPACITY];
+        private int size;
+
+        /**
+         * Stamps of the live entries while making room, created on first use
+         */
+        private long[] scratch;
+
+        private Stripe(int maxSize){
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @return index of the key or -1 if missing
+         */
+        private int find(long key, long hash){
+            int mask = used.length - 1;
+
+            for(int i = (int) hash & mask; used[i]; i = (i + 1) & mask){
+                if(keys[i] == key){
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * Inserts a missing key, grows the table if needed
+         * @return index of the key
+         */
+        private int insert(long key, long hash){
+            if((size + 1) * 4 > used.length * 3){
+                resize(used.length * 2);
+            }
+
+            int mask = used.length - 1;
+            int i = (int) hash & mask;
+
+            while(used[i]){
+                i = (i + 1) & mask;
+            }
+
+            used[i] = true;
+            keys[i] = key;
+            size++;
+            return i;
+        }
+
+        /**
+         * Deletes the entry at index, shifting following entries back (no tombstones)
+         */
+        private void delete(int index){
+            int mask = used.length - 1;
+            int hole = index;
+            used[hole] = false;
+            size--;
+
+            for(int i = (hole + 1) & mask; used[i]; i = (i + 1) & mask){
+                int home = (int) mix(keys[i]) & mask;
+
+                //Move the entry into the hole if its home slot is not between the hole and its slot
+                if(((i - home) & mask) >= ((i - hole) & mask)){
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    stamps[hole] = stamps[i];
+                    used[hole] = true;
+                    used[i] = false;
+                    hole = i;
+                }
+            }
+        }
+
+        /**
+         * Drops expired entries, if none is expired the oldest entries until a sixteenth of maxSize is free
+         */
+        private void makeRoom(long now, long timeToLive){
+            if(scratch == null || scratch.length < used.length){
+                scratch = new long[used.length];
+            }
+
+            int live = 0;
+
+            for(int i = 0; i < used.length; i++){
+                if(used[i] && now - stamps[i] <= timeToLive){
+                    scratch[live++] = stamps[i];
+                }
+            }
+
+            int evict = live - (maxSize - Math.max(1, maxSize / EVICTION_FRACTION));
+
+            if(evict <= 0){
+                sweep(now, timeToLive, Long.MIN_VALUE, 0);
+                return;
+            }
+
+            //Entries older than the threshold are evicted, of the ones with exactly the threshold only as many as needed
+            long threshold = select(scratch, live, evict - 1);
+            int older = 0;
+
+            for(int i = 0; i < live; i++){
+                if(scratch[i] < threshold){
+                    older++;
+                }
+            }
+
+            sweep(now, timeToLive, threshold, evict - older);
+        }
+
+        /**
+         * Drops all expired entries in place, does nothing if none is expired
+         */
+        private void purge(long now, long timeToLive){
+            for(int i = 0; i < used.length; i++){
+                if(used[i] && now - stamps[i] > timeToLive){
+                    sweep(now, timeToLive, Long.MIN_VALUE, 0);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Deletes in place the expired entries, the ones with a stamp older than threshold
+         * and the first ties entries with a stamp equal to threshold
+         */
+        private void sweep(long now, long timeToLive, long threshold, int ties){
+            for(int i = 0; i < used.length;){
+                //Deleting shifts following entries back into i, so it is checked again
+                if(used[i] && (now - stamps[i] > timeToLive || stamps[i] < threshold || (stamps[i] == threshold && ties-- > 0))){
+                    delete(i);
+                } else {
+                    i++;
+                }
+            }
+        }
+
+        /**
+         * Partially sorts the first length values (quickselect)
+         * @return the k-th smallest of the first length values
+         */
+        private static long select(long[] values, int length, int k){
+            int left = 0;
+            int right = length - 1;
+
+            while(left < right){
+                long pivot = values[(left + right) >>> 1];
+                int i = left;
+                int j = right;
+
+                while(i <= j){
+                    while(values[i] < pivot){
+                        i++;
+                    }
+
+                    while(values[j] > pivot){
+                        j--;
+                    }
+
+                    if(i <= j){
+                        long swap = values[i];
+                        values[i++] = values[j];
+                        values[j--] = swap;
+                    }
+                }
+
+                if(k <= j){
+                    right = j;
+                } else if(k >= i){
+                    left = i;
+                } else {
+                    return values[k];
+                }
+            }
+
+            return values[k];
+        }
+
+        /**
+         * Grows the table keeping all entries
+         */
+        private void resize(int capacity){
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            long[] oldStamps = stamps;
+            boolean[] oldUsed = used;
+            rebuild(capacity);
+
+            for(int i = 0; i < oldUsed.length; i++){
+                if(oldUsed[i]){
+                    int index = insert(oldKeys[i], mix(oldKeys[i]));
+                    values[index] = oldValues[i];
+                    stamps[index] = oldStamps[i];
+                }
+            }
+        }
+
+        /**
+         * Replaces the table with an empty one
+         */
+        private void rebuild(int capacity){
+            keys = new long[capacity];
+            values = new long[capacity];
+            stamps = new long[capacity];
+            used = new boolean[capacity];
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Validates time based one time tokens with a wide window while remembering the clock drift
+ * (the accepted {@link OATHTotpValidateResult#getOtpPos()}) per user.
+ * The window is searched outward from the learned drift, so users with a drifting token find their otp
+ * with a single hmac instead of paying for the wide window on every login, while every position is checked
+ * at most once and an invalid otp costs no more than with the plain validator.
+ * The accepted otps are the same as with {@link OATH#validateTotpPosition(OATHKey, long, int, long, int, OATHTotpFlag, String)},
+ * only the search order differs. The memory is bounded by the maximum number of users,
+ * if it is exceeded the users with the oldest validation are forgotten.
+ * Instances are thread safe
+ */
+public class TotpDriftValidator {
+    /**
+     * The wrapper used for validation
+     */
+    private final OATH oath;
+
+    /**
+     * The window (token offset) of accepted tokens
+     */
+    private final int window;
+
+    /**
+     * Learned drift (relative position) per user, stamped with the time step of the last valid otp
+     */
+    private final StripedLongMap drifts;
+
+    /**
+     * Valid otps found at the learned drift
+     */
+    private final LongAdder learnedHits = new LongAdder();
+
+    /**
+     * Valid otps found by searching the whole window
+     */
+    private final LongAdder searchHits = new LongAdder();
+
+    /**
+     * Invalid otps (the whole window was searched)
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructs a new drift validator which keeps the drift until the user is evicted
+     * @param oath The wrapper used for validation
+     * @param window The window (token offset) of accepted tokens
+     * @param maxUsers Maximum number of remembered users
+     * @throws IllegalArgumentException if window is negative or maxUsers is not positive
+     */
+    public TotpDriftValidator(OATH oath, int window, int maxUsers){
+        this(oath, window, maxUsers, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a new drift validator
+     * @param oath The wrapper used for validation
+     * @param window The window (token offset) of accepted tokens
+     * @param maxUsers Maximum number of remembered users
+     * @param timeToLive Time steps after the last valid otp of a user until its drift is forgotten
+     * @throws IllegalArgumentException if window or timeToLive is negative or maxUsers is not positive
+     */
+    public TotpDriftValidator(OATH oath, int window, int maxUsers, long timeToLive){
+        if(window < 0){
+            throw new IllegalArgumentException("Window must not be negative, got " + window);
+        }
+
+        this.oath = oath;
+        this.window = window;
+        this.drifts = new StripedLongMap(maxUsers, timeToLive);
+    }
+
+    /**
+     * Validates an one time token of a user against a prepared secret, checking the learned drift first,
+     * measured as a single validation by the metrics of the wrapper
+     * @param userId The user
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return the relative position of the otp or {@link OATH#INVALID_POSITION} if the otp is invalid,
+     * {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_validate4)
+     */
+    public int validatePosition(long userId, OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, OATHTotpFlag flag, String otp){
+        return oath.measureTotpValidation(flag, window, () -> search(userId, key, unixTimestamp, timeStepSize, startOffset, flag, otp));
+    }
+
+    /**
+     * Searches the window outward from the learned drift, every step is checked by the engine,
+     * so the wrapper measures the search as a single validation
+     * @return the relative position of the otp, {@link OATH#INVALID_POSITION} or {@link OATH#INVALID_DIGITS_POSITION}
+     */
+    private int search(long userId, OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, OATHTotpFlag flag, String otp){
+        int digits = otp.length();
+
+        if(digits < 6 || digits > 8){
+            return OATH.INVALID_DIGITS_POSITION;
+        }
+
+        OATHEngine engine = oath.getEngine();
+        int value = OATH.parseOtp(otp);
+        long step = OATH.timeStep(unixTimestamp, timeStepSize, startOffset);
+        int drift = (int) Math.max(-window, Math.min(window, drifts.get(userId, 0, step)));
+        long stepSize = timeStepSize == 0 ? LibOATH.OATH_TOTP_DEFAULT_TIME_STEP_SIZE : Integer.toUnsignedLong(timeStepSize);
+
+        //Nearest to the learned drift first, a drift of 0 gives the search order of the plain validator
+        for(long distance = 0; value >= 0 && (drift + distance <= window || drift - distance >= -window); distance++){
+            for(long otpPos = drift + distance; otpPos >= drift - distance; otpPos -= Math.max(1, 2 * distance)){
+                if(Math.abs(otpPos) <= window && engine.totpValidatePosition(key, unixTimestamp + otpPos * stepSize,
+                        timeStepSize, startOffset, 0, flag, value, digits) == 0){
+                    return accept(userId, step, drift, (int) otpPos);
+                }
+            }
+        }
+
+        misses.increment();
+        return OATH.INVALID_POSITION;
+    }
+
+    /**
+     * Validates an one time token of a user against a secret, checking the learned drift first
+     * @param userId The user
+     * @param secret The secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return the relative position of the otp or {@link OATH#INVALID_POSITION} if the otp is invalid,
+     * {@link OATH#INVALID_DIGITS_POSITION} if the digits are unsupported
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_totp_validate4)
+     */
+    public int validatePosition(long userId, byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, OATHTotpFlag flag, String otp){
+        return validatePosition(userId, new OATHKey(secret), unixTimestamp, timeStepSize, startOffset, flag, otp);
+    }
+
+    /**
+     * Returns the learned drift of a user
+     * @param userId The user
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @return the drift in time steps, 0 if unknown
+     */
+    public int getDrift(long userId, long unixTimestamp, int timeStepSize, long startOffset){
+        return (int) drifts.get(userId, 0, OATH.timeStep(unixTimestamp, timeStepSize, startOffset));
+    }
+
+    /**
+     * Counts the remembered users per learned drift, e.g. for exporting it as metric
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @return number of users per drift, index 0 is a drift of -window, index window no drift
+     */
+    public long[] getDriftHistogram(long unixTimestamp, int timeStepSize, long startOffset){
+        long[] histogram = new long[2 * window + 1];
+        drifts.forEach(OATH.timeStep(unixTimestamp, timeStepSize, startOffset), (userId, drift) -> histogram[(int) drift + window]++);
+        return histogram;
+    }
+
+    /**
+     * @return number of valid otps found at the learned drift (or at no drift for new users)
+     */
+    public long getLearnedHits(){
+        return learnedHits.sum();
+    }
+
+    /**
+     * @return number of valid otps which needed a search of the whole window
+     */
+    public long getSearchHits(){
+        return searchHits.sum();
+    }
+
+    /**
+     * @return number of invalid otps
+     */
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    /**
+     * Counts a valid otp and remembers its position as drift of the user
+     * @param userId The user
+     * @param step The current time step
+     * @param drift The learned drift
+     * @param otpPos The relative position of the otp
+     * @return otpPos
+     */
+    private int accept(long userId, long step, int drift, int otpPos){
+        if(otpPos == drift){
+            learnedHits.increment();
+        } else {
+            searchHits.increment();
+        }
+
+        drifts.getAndUpdate(userId, 0, step, previous -> otpPos);
+        return otpPos;
+    }
+
+    /**
+     * Forgets the learned drift of a user, e.g. if the token changed
+     * @param userId The user
+     */
+    public void reset(long userId){
+        drifts.remove(userId);
+    }
+
+    /**
+     * @return number of remembered users
+     */
+    public int size(){
+        return drifts.size();
+    }
+}
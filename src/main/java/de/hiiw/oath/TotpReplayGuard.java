@@ -0,0 +1,146 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+/**
+ * Validates time based one time tokens and rejects otps which were already accepted,
+ * by remembering the last accepted time step ({@link OATHTotpValidateResult#getOtpCounter()}) per user.
+ * An otp is only accepted if its time step is newer than the last accepted one.
+ * Entries are forgotten once they aged out of the window (then no otp of the window can be a replay),
+ * the memory is bounded by the maximum number of users, if it is exceeded the oldest entries are evicted.
+ * Instances are thread safe
+ */
+public class TotpReplayGuard {
+    /**
+     * Value of a user without an accepted otp
+     */
+    private static final long NO_STEP = Long.MIN_VALUE;
+
+    /**
+     * The wrapper used for validation
+     */
+    private final OATH oath;
+
+    /**
+     * The window (token offset) of accepted tokens
+     */
+    private final int window;
+
+    /**
+     * Last accepted time step per user, stamped with the current time step
+     */
+    private final StripedLongMap lastSteps;
+
+    /**
+     * Constructs a new replay guard
+     * @param oath The wrapper used for validation
+     * @param window The window (token offset) of accepted tokens
+     * @param maxUsers Maximum number of remembered users
+     * @throws IllegalArgumentException if window is negative or maxUsers is not positive
+     */
+    public TotpReplayGuard(OATH oath, int window, int maxUsers){
+        if(window < 0){
+            throw new IllegalArgumentException("Window must not be negative, got " + window);
+        }
+
+        this.oath = oath;
+        this.window = window;
+        //An entry can be forgotten if its step is older than the window, it is stamped with the step
+        //of the validation which is at most window steps newer than the accepted step
+        this.lastSteps = new StripedLongMap(maxUsers, 2L * window);
+    }
+
+    /**
+     * Validates an one time token of a user and rejects replays
+     * @param userId The user
+     * @param secret The secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return a validate result, containing the (absolute and relative) position of the otp and a ok return code
+     * @throws OATHException with OATH_REPLAYED_OTP if the otp (or a newer one) was already accepted,
+     * OATH_INVALID_OTP if the otp is invalid or if another exception occurred
+     */
+    public OATHTotpValidateResult validate(long userId, byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, OATHTotpFlag flag, String otp){
+        return accept(userId, oath.totpValidate(secret, unixTimestamp, timeStepSize, startOffset, window, flag, otp));
+    }
+
+    /**
+     * Validates an one time token of a user against a prepared secret and rejects replays
+     * @param userId The user
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return a validate result, containing the (absolute and relative) position of the otp and a ok return code
+     * @throws OATHException with OATH_REPLAYED_OTP if the otp (or a newer one) was already accepted,
+     * OATH_INVALID_OTP if the otp is invalid or if another exception occurred
+     */
+    public OATHTotpValidateResult validate(long userId, OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, OATHTotpFlag flag, String otp){
+        return accept(userId, oath.totpValidate(key, unixTimestamp, timeStepSize, startOffset, window, flag, otp));
+    }
+
+    /**
+     * Marks the otp of a validate result as used, for results validated with the same window elsewhere
+     * @param userId The user
+     * @param result The validate result
+     * @return true if the otp is newer than the last accepted otp of the user, false if it is a replay
+     */
+    public boolean markUsed(long userId, OATHTotpValidateResult result){
+        long step = result.getOtpCounter();
+        long currentStep = step - result.getOtpPos();
+
+        return lastSteps.getAndUpdate(userId, NO_STEP, currentStep, last -> Math.max(last, step)) < step;
+    }
+
+    /**
+     * Forgets the last accepted otp of a user, e.g. if the secret changed
+     * @param userId The user
+     */
+    public void reset(long userId){
+        lastSteps.remove(userId);
+    }
+
+    /**
+     * @return number of remembered users
+     */
+    public int size(){
+        return lastSteps.size();
+    }
+
+    /**
+     * Marks the otp as used or throws if it is a replay
+     * @param userId The user
+     * @param result The validate result
+     * @return result
+     * @throws OATHException with OATH_REPLAYED_OTP if it is a replay
+     */
+    private OATHTotpValidateResult accept(long userId, OATHTotpValidateResult result){
+        if(!markUsed(userId, result)){
+            throw new OATHException(OATHReturnCode.OATH_REPLAYED_OTP);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the validation attempts per credential against online guessing. After the free attempts failed
+ * each further attempt locks the credential for an exponentially growing delay (base delay, doubled per attempt,
+ * up to the maximum delay), attempts of a locked credential are rejected with an {@link OATHThrottledException}
+ * before any hmac is computed. A valid otp resets the credential.
+ * <p>
+ * Attempts are counted when they start, so concurrent guesses cannot pass the limit. The state of a credential
+ * (attempts and lock expiry) is a single long in a {@link StripedLongMap}, it is forgotten after twice the maximum
+ * delay without attempts. The memory is bounded by the maximum number of credentials, if it is exceeded the
+ * credentials with the oldest attempt are evicted, so size it above the number of credentials under attack.
+ * Instances are thread safe
+ */
+public class ValidationThrottle {
+    /**
+     * Bits of the state holding the lock expiry, the upper bits hold the attempts
+     */
+    private static final int LOCKED_UNTIL_BITS = 48;
+
+    private static final long LOCKED_UNTIL_MASK = (1L << LOCKED_UNTIL_BITS) - 1;
+
+    private static final long MAX_ATTEMPTS = (1L << (64 - LOCKED_UNTIL_BITS)) - 1;
+
+    /**
+     * The wrapper used for validation
+     */
+    private final OATH oath;
+
+    /**
+     * Failed attempts before the credential is locked
+     */
+    private final int freeAttempts;
+
+    private final long baseDelayMillis;
+
+    private final long maxDelayMillis;
+
+    /**
+     * Attempts and lock expiry per credential, stamped with the time of the last attempt
+     */
+    private final StripedLongMap states;
+
+    /**
+     * Milliseconds since the creation of this throttle
+     */
+    private final LongSupplier clock;
+
+    /**
+     * Attempts rejected without validation
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructs a new throttle allowing 3 free attempts, then locking for 1 second doubled per attempt up to 15 minutes
+     * @param oath The wrapper used for validation
+     * @param maxCredentials Maximum number of remembered credentials
+     * @throws IllegalArgumentException if maxCredentials is not positive
+     */
+    public ValidationThrottle(OATH oath, int maxCredentials){
+        this(oath, 3, 1000, 15 * 60 * 1000, maxCredentials);
+    }
+
+    /**
+     * Constructs a new throttle
+     * @param oath The wrapper used for validation
+     * @param freeAttempts Failed attempts before the credential is locked
+     * @param baseDelayMillis Lock once the free attempts failed
+     * @param maxDelayMillis Maximum lock
+     * @param maxCredentials Maximum number of remembered credentials
+     * @throws IllegalArgumentException if freeAttempts is not positive, a delay is not positive, the base delay
+     * exceeds the maximum delay or maxCredentials is not positive
+     */
+    public ValidationThrottle(OATH oath, int freeAttempts, long baseDelayMillis, long maxDelayMillis, int maxCredentials){
+        this(oath, freeAttempts, baseDelayMillis, maxDelayMillis, maxCredentials, monotonicClock());
+    }
+
+    ValidationThrottle(OATH oath, int freeAttempts, long baseDelayMillis, long maxDelayMillis, int maxCredentials, LongSupplier clock){
+        if(freeAttempts <= 0){
+            throw new IllegalArgumentException("Free attempts must be positive, got " + freeAttempts);
+        } else if(baseDelayMillis <= 0 || baseDelayMillis > maxDelayMillis || maxDelayMillis > LOCKED_UNTIL_MASK / 4){
+            throw new IllegalArgumentException("Invalid delays, got " + baseDelayMillis + " and " + maxDelayMillis);
+        }
+
+        this.oath = oath;
+        this.freeAttempts = freeAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.states = new StripedLongMap(maxCredentials, 2 * maxDelayMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * Validates a time based one time token of a credential unless it is locked,
+     * see {@link OATH#validateTotpPosition(OATHKey, long, int, long, int, OATHTotpFlag, String)}
+     * @param credentialId The credential
+     * @param key The prepared secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return the position, see {@link OATH#isValidPosition(int)}
+     * @throws OATHThrottledException if the credential is locked
+     */
+    public int validateTotpPosition(long credentialId, OATHKey key, long unixTimestamp, int timeStepSize, long startOffset, int window,
+                                    OATHTotpFlag flag, String otp){
+        acquire(credentialId);
+        return release(credentialId, oath.validateTotpPosition(key, unixTimestamp, timeStepSize, startOffset, window, flag, otp));
+    }
+
+    /**
+     * Validates a time based one time token of a credential unless it is locked,
+     * see {@link OATH#validateTotpPosition(byte[], long, int, long, int, OATHTotpFlag, String)}
+     * @param credentialId The credential
+     * @param secret The secret
+     * @param unixTimestamp The timestamp (usually now)
+     * @param timeStepSize Size of timestep in seconds (usually 30)
+     * @param startOffset Offset to start from
+     * @param window The window (token offset) of accepted tokens
+     * @param flag Hash algorithm
+     * @param otp The otp to validate
+     * @return the position, see {@link OATH#isValidPosition(int)}
+     * @throws OATHThrottledException if the credential is locked
+     */
+    public int validateTotpPosition(long credentialId, byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int window,
+                                    OATHTotpFlag flag, String otp){
+        acquire(credentialId);
+        return release(credentialId, oath.validateTotpPosition(secret, unixTimestamp, timeStepSize, startOffset, window, flag, otp));
+    }
+
+    /**
+     * Validates a HMAC-based one time token of a credential unless it is locked,
+     * see {@link OATH#validateHotpPosition(OATHKey, long, long, String)}
+     * @param credentialId The credential
+     * @param key The prepared secret
+     * @param startMovingFactor start counter in OTP stream
+     * @param window how many OTPs after start counter to test
+     * @param otp The otp to validate
+     * @return the position, see {@link OATH#isValidPosition(int)}
+     * @throws OATHThrottledException if the credential is locked
+     */
+    public int validateHotpPosition(long credentialId, OATHKey key, long startMovingFactor, long window, String otp){
+        acquire(credentialId);
+        return release(credentialId, oath.validateHotpPosition(key, startMovingFactor, window, otp));
+    }
+
+    /**
+     * Validates a HMAC-based one time token of a credential unless it is locked,
+     * see {@link OATH#validateHotpPosition(byte[], long, long, String)}
+     * @param credentialId The credential
+     * @param secret The secret
+     * @param startMovingFactor start counter in OTP stream
+     * @param window how many OTPs after start counter to test
+     * @param otp The otp to validate
+     * @return the position, see {@link OATH#isValidPosition(int)}
+     * @throws OATHThrottledException if the credential is locked
+     */
+    public int validateHotpPosition(long credentialId, byte[] secret, long startMovingFactor, long window, String otp){
+        acquire(credentialId);
+        return release(credentialId, oath.validateHotpPosition(secret, startMovingFactor, window, otp));
+    }
+
+    /**
+     * @param credentialId The credential
+     * @return milliseconds until the next attempt is allowed, 0 if the credential is not locked
+     */
+    public long getRetryAfterMillis(long credentialId){
+        long now = clock.getAsLong();
+        return Math.max(0, lockedUntil(states.get(credentialId, 0, now)) - now);
+    }
+
+    /**
+     * Forgets the failed attempts of a credential, e.g. after an unlock by an administrator
+     * @param credentialId The credential
+     */
+    public void reset(long credentialId){
+        states.remove(credentialId);
+    }
+
+    /**
+     * @return number of attempts rejected without validation
+     */
+    public long getRejected(){
+        return rejected.sum();
+    }
+
+    /**
+     * @return number of remembered credentials
+     */
+    public int size(){
+        return states.size();
+    }
+
+    /**
+     * Counts an attempt and locks the credential if the free attempts are used up
+     * @param credentialId The credential
+     * @throws OATHThrottledException if the credential is locked
+     */
+    private void acquire(long credentialId){
+        long now = clock.getAsLong();
+        long previous = states.getAndUpdate(credentialId, 0, now, state -> lockedUntil(state) > now ? state : attempt(state, now));
+        long lockedUntil = lockedUntil(previous);
+
+        if(lockedUntil > now){
+            rejected.increment();
+            throw new OATHThrottledException(lockedUntil - now);
+        }
+    }
+
+    /**
+     * Resets the credential if the otp is valid
+     * @param credentialId The credential
+     * @param position The position of the validation
+     * @return position
+     */
+    private int release(long credentialId, int position){
+        if(OATH.isValidPosition(position)){
+            states.remove(credentialId);
+        }
+
+        return position;
+    }
+
+    /**
+     * @param state The state of the credential
+     * @param now The current time
+     * @return the state after another attempt
+     */
+    private long attempt(long state, long now){
+        long attempts = Math.min(MAX_ATTEMPTS, (state >>> LOCKED_UNTIL_BITS) + 1);
+        long locked = attempts - freeAttempts + 1;
+        long delay;
+
+        if(locked <= 0){
+            delay = 0;
+        } else if(locked - 1 >= Long.numberOfLeadingZeros(baseDelayMillis) - 1){
+            //Doubling again would overflow
+            delay = maxDelayMillis;
+        } else {
+            delay = Math.min(maxDelayMillis, baseDelayMillis << (locked - 1));
+        }
+
+        return attempts << LOCKED_UNTIL_BITS | (now + delay);
+    }
+
+    private static long lockedUntil(long state){
+        return state & LOCKED_UNTIL_MASK;
+    }
+
+    /**
+     * @return milliseconds since the call, never negative and not affected by changes of the wall clock
+     */
+    private static LongSupplier monotonicClock(){
+        long origin = System.nanoTime();
+        return () -> (System.nanoTime() - origin) / 1000000;
+    }
+}
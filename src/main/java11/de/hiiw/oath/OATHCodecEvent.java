@@ -0,0 +1,70 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a base32 or hex encoding or decoding of the {@link OATH} facade.
+ * Disabled by default, enable de.hiiw.oath.Codec in the recording settings
+ */
+@Name("de.hiiw.oath.Codec")
+@Label("OATH Codec")
+@Category("OATH")
+@Description("Base32 or hex encoding or decoding")
+@StackTrace(false)
+@Enabled(false)
+public final class OATHCodecEvent extends Event implements OATHEvents.Event {
+    @Label("Operation")
+    @Description("BASE32_ENCODE, BASE32_DECODE, HEX_ENCODE or HEX_DECODE")
+    String operation;
+
+    @Label("Return Code")
+    @Description("OATH_OK or the error of the codec")
+    String returnCode;
+
+    /**
+     * @param operation The operation
+     */
+    OATHCodecEvent(String operation){
+        this.operation = operation;
+    }
+
+    /**
+     * Ends the event and commits it if it exceeds the threshold of the recording
+     */
+    @Override
+    public void finish(OATHEngine engine, OATHTotpFlag flag, OATHReturnCode returnCode, long window, int position){
+        end();
+
+        if(!shouldCommit()){
+            return;
+        }
+
+        this.returnCode = returnCode.name();
+        commit();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import jdk.jfr.EventType;
+
+/**
+ * Recorder of the flight recorder events ({@link OATHValidateEvent}, {@link OATHGenerateEvent} and
+ * {@link OATHCodecEvent}), loaded reflectively by {@link OATHEvents}. The events are only created while a recording
+ * enables them
+ */
+final class OATHFlightRecorder implements OATHEvents.Recorder {
+    private final EventType validate = EventType.getEventType(OATHValidateEvent.class);
+    private final EventType generate = EventType.getEventType(OATHGenerateEvent.class);
+    private final EventType codec = EventType.getEventType(OATHCodecEvent.class);
+
+    private OATHFlightRecorder(){
+    }
+
+    /**
+     * @return a new recorder
+     */
+    public static OATHEvents.Recorder create(){
+        return new OATHFlightRecorder();
+    }
+
+    @Override
+    public boolean isEnabled(OATHMetrics.Operation operation){
+        switch (operation){
+            case TOTP_VALIDATE:
+            case HOTP_VALIDATE:
+                return validate.isEnabled();
+            case TOTP_GENERATE:
+            case HOTP_GENERATE:
+                return generate.isEnabled();
+            default:
+                return codec.isEnabled();
+        }
+    }
+
+    @Override
+    public OATHEvents.Event begin(OATHMetrics.Operation operation){
+        if(!isEnabled(operation)){
+            return null;
+        }
+
+        switch (operation){
+            case TOTP_VALIDATE:
+            case HOTP_VALIDATE:
+                return begin(new OATHValidateEvent(operation.name()));
+            case TOTP_GENERATE:
+            case HOTP_GENERATE:
+                return begin(new OATHGenerateEvent(operation.name()));
+            default:
+                return begin(new OATHCodecEvent(operation.name()));
+        }
+    }
+
+    /**
+     * @param event The created event
+     * @return the started event
+     */
+    private static <E extends jdk.jfr.Event & OATHEvents.Event> E begin(E event){
+        event.begin();
+        return event;
+    }
+}
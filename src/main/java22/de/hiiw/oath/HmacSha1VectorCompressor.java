@@ -0,0 +1,100 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SHA-1 compression of all lanes of {@link HmacSha1Lanes} with the Vector API, the lane interleaved schedule
+ * and state are loaded as vectors of {@link HmacSha1Lanes#LANES} ints, so every round is one vector operation
+ * over all lanes. Needs the module jdk.incubator.vector (--add-modules jdk.incubator.vector)
+ */
+final class HmacSha1VectorCompressor implements HmacSha1Lanes.Compressor {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_256;
+
+    private HmacSha1VectorCompressor(){
+    }
+
+    /**
+     * Called reflectively by {@link HmacSha1Lanes}
+     * @return the compression or null if the cpu has no 256 bit vectors (the Vector API would fall back to scalar code)
+     */
+    public static HmacSha1Lanes.Compressor create(){
+        if(SPECIES.length() != HmacSha1Lanes.LANES || IntVector.SPECIES_PREFERRED.vectorBitSize() < SPECIES.vectorBitSize()){
+            return null;
+        }
+
+        return new HmacSha1VectorCompressor();
+    }
+
+    @Override
+    public void compress(int[] w, int[] h){
+        int lanes = HmacSha1Lanes.LANES;
+
+        for(int t = 16; t < 80; t++){
+            IntVector.fromArray(SPECIES, w, (t - 3) * lanes)
+                    .lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, w, (t - 8) * lanes))
+                    .lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, w, (t - 14) * lanes))
+                    .lanewise(VectorOperators.XOR, IntVector.fromArray(SPECIES, w, (t - 16) * lanes))
+                    .lanewise(VectorOperators.ROL, 1)
+                    .intoArray(w, t * lanes);
+        }
+
+        IntVector a = IntVector.fromArray(SPECIES, h, 0);
+        IntVector b = IntVector.fromArray(SPECIES, h, lanes);
+        IntVector c = IntVector.fromArray(SPECIES, h, 2 * lanes);
+        IntVector d = IntVector.fromArray(SPECIES, h, 3 * lanes);
+        IntVector e = IntVector.fromArray(SPECIES, h, 4 * lanes);
+
+        for(int t = 0; t < 80; t++){
+            IntVector f;
+            int k;
+
+            if(t < 20){
+                f = b.and(c).or(b.not().and(d));
+                k = 0x5A827999;
+            } else if(t < 40){
+                f = b.lanewise(VectorOperators.XOR, c).lanewise(VectorOperators.XOR, d);
+                k = 0x6ED9EBA1;
+            } else if(t < 60){
+                f = b.and(c).or(b.and(d)).or(c.and(d));
+                k = 0x8F1BBCDC;
+            } else {
+                f = b.lanewise(VectorOperators.XOR, c).lanewise(VectorOperators.XOR, d);
+                k = 0xCA62C1D6;
+            }
+
+            IntVector temp = a.lanewise(VectorOperators.ROL, 5).add(f).add(e).add(k).add(IntVector.fromArray(SPECIES, w, t * lanes));
+            e = d;
+            d = c;
+            c = b.lanewise(VectorOperators.ROL, 30);
+            b = a;
+            a = temp;
+        }
+
+        IntVector.fromArray(SPECIES, h, 0).add(a).intoArray(h, 0);
+        IntVector.fromArray(SPECIES, h, lanes).add(b).intoArray(h, lanes);
+        IntVector.fromArray(SPECIES, h, 2 * lanes).add(c).intoArray(h, 2 * lanes);
+        IntVector.fromArray(SPECIES, h, 3 * lanes).add(d).intoArray(h, 3 * lanes);
+        IntVector.fromArray(SPECIES, h, 4 * lanes).add(e).intoArray(h, 4 * lanes);
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BOOLEAN;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Engine calling the native liboath through the Foreign Function and Memory API (Java 22 or newer).
+ * The otp functions are linked as critical functions with heap access, so secrets, otps and
+ * output buffers are passed as heap segments without copying them to native memory,
+ * secrets of an {@link OATHSecretStore} are passed in place.
+ * size_t and time_t are bound as 64 bit values, only 64 bit platforms are supported.
+ * Needs --enable-native-access=ALL-UNNAMED (or the module name) to run without warnings
+ */
+public class PanamaOATHEngine implements OATHEngine {
+    /**
+     * File names tried for loading liboath
+     */
+    private static final String[] LIBRARY_NAMES = {System.mapLibraryName("oath"), "liboath.so.0", "liboath.0.dylib"};
+
+    /**
+     * Per thread buffers for the nul terminated otp and the position output
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Owns the loaded library, closed with the engine
+     */
+    private final Arena arena;
+
+    private final MethodHandle oathDone;
+    private final MethodHandle oathCheckVersion;
+    private final MethodHandle oathStrError;
+    private final MethodHandle oathStrErrorName;
+    private final MethodHandle oathTotpGenerate2;
+    private final MethodHandle oathTotpValidate4;
+    private final MethodHandle oathHotpGenerate;
+    private final MethodHandle oathHotpValidate;
+
+    /**
+     * Set once {@link #close()} called oath_done
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Loads the native liboath and initializes it, see {@link #PanamaOATHEngine(SymbolLookup, Arena)}
+     * @return the native engine
+     * @throws UnsatisfiedLinkError if the lib cannot be found or is too old
+     */
+    public static PanamaOATHEngine load(){
+        Arena arena = Arena.ofShared();
+
+        for(String name : LIBRARY_NAMES){
+            SymbolLookup lookup;
+
+            try {
+                lookup = SymbolLookup.libraryLookup(name, arena);
+            } catch (IllegalArgumentException e) {
+                //Not found under this name, try the next one
+                continue;
+            }
+
+            try {
+                return new PanamaOATHEngine(lookup, arena);
+            } catch (RuntimeException | Error e) {
+                arena.close();
+                throw e;
+            }
+        }
+
+        arena.close();
+        throw new UnsatisfiedLinkError("Cannot find liboath, tried " + String.join(", ", LIBRARY_NAMES));
+    }
+
+    /**
+     * Links the functions, checks if the native installed lib is newer or the actual supported version
+     * and initializes the lib, call {@link #close()} for deinitialization
+     * @param lookup lookup of the liboath symbols
+     * @param arena arena the lookup is bound to, closed with the engine
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_init)
+     * @throws UnsatisfiedLinkError if a symbol is missing or the lib is too old
+     */
+    public PanamaOATHEngine(SymbolLookup lookup, Arena arena){
+        this.arena = arena;
+
+        MethodHandle oathInit = link(lookup, "oath_init", FunctionDescriptor.of(JAVA_INT), false);
+        this.oathDone = link(lookup, "oath_done", FunctionDescriptor.of(JAVA_INT), false);
+        this.oathCheckVersion = link(lookup, "oath_check_version", FunctionDescriptor.of(ADDRESS, ADDRESS), false);
+        this.oathStrError = link(lookup, "oath_strerror", FunctionDescriptor.of(ADDRESS, JAVA_INT), false);
+        this.oathStrErrorName = link(lookup, "oath_strerror_name", FunctionDescriptor.of(ADDRESS, JAVA_INT), false);
+        this.oathTotpGenerate2 = link(lookup, "oath_totp_generate2", FunctionDescriptor.of(JAVA_INT,
+                ADDRESS, JAVA_LONG, JAVA_LONG, JAVA_INT, JAVA_LONG, JAVA_INT, JAVA_INT, ADDRESS), true);
+        this.oathTotpValidate4 = link(lookup, "oath_totp_validate4", FunctionDescriptor.of(JAVA_INT,
+                ADDRESS, JAVA_LONG, JAVA_LONG, JAVA_INT, JAVA_LONG, JAVA_LONG, ADDRESS, ADDRESS, JAVA_INT, ADDRESS), true);
+        this.oathHotpGenerate = link(lookup, "oath_hotp_generate", FunctionDescriptor.of(JAVA_INT,
+                ADDRESS, JAVA_LONG, JAVA_LONG, JAVA_INT, JAVA_BOOLEAN, JAVA_LONG, ADDRESS), true);
+        this.oathHotpValidate = link(lookup, "oath_hotp_validate", FunctionDescriptor.of(JAVA_INT,
+                ADDRESS, JAVA_LONG, JAVA_LONG, JAVA_LONG, ADDRESS), true);
+
+        if(checkVersion(LibOATH.OATH_VERSION) == null){
+            throw new UnsatisfiedLinkError("OATH version too old, required version: "
+                    + LibOATH.OATH_VERSION + ", found version " + checkVersion(null));
+        }
+
+        try {
+            handleError((int) oathInit.invokeExact());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Deinitializes the native lib (oath_done) and unloads it, only the first call has an effect
+     * @throws OATHException if an exception occurred, see documentation of liboath (oath_done)
+     */
+    @Override
+    public void close(){
+        if(closed.compareAndSet(false, true)){
+            try {
+                handleError((int) oathDone.invokeExact());
+            } catch (Throwable t) {
+                throw rethrow(t);
+            } finally {
+                arena.close();
+            }
+        }
+    }
+
+    @Override
+    public String checkVersion(String requiredVersion){
+        try(Arena local = Arena.ofConfined()){
+            MemorySegment required = requiredVersion == null ? MemorySegment.NULL : local.allocateFrom(requiredVersion);
+            return toJavaString((MemorySegment) oathCheckVersion.invokeExact(required));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public String strError(OATHReturnCode errorCode){
+        try {
+            return toJavaString((MemorySegment) oathStrError.invokeExact(errorCode.intValue()));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public String strErrorName(OATHReturnCode errorCode){
+        try {
+            return toJavaString((MemorySegment) oathStrErrorName.invokeExact(errorCode.intValue()));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public String totpGenerate(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        return totpGenerate(MemorySegment.ofArray(secret), unixTimestamp, timeStepSize, startOffset, digits, flag);
+    }
+
+    @Override
+    public String totpGenerate(ByteBuffer secret, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        return totpGenerate(MemorySegment.ofBuffer(secret), unixTimestamp, timeStepSize, startOffset, digits, flag);
+    }
+
+    @Override
+    public int totpValidatePosition(byte[] secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        return totpValidatePosition(MemorySegment.ofArray(secret), unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+    }
+
+    @Override
+    public int totpValidatePosition(ByteBuffer secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        return totpValidatePosition(MemorySegment.ofBuffer(secret), unixTimestamp, timeStepSize, startOffset, window, flag, otp);
+    }
+
+    @Override
+    public String hotpGenerate(byte[] secret, long movingFactor, int digits, long truncationOffset){
+        return hotpGenerate(MemorySegment.ofArray(secret), movingFactor, digits, truncationOffset);
+    }
+
+    @Override
+    public String hotpGenerate(ByteBuffer secret, long movingFactor, int digits, long truncationOffset){
+        return hotpGenerate(MemorySegment.ofBuffer(secret), movingFactor, digits, truncationOffset);
+    }
+
+    @Override
+    public int hotpValidatePosition(byte[] secret, long startMovingFactor, long window, String otp){
+        return hotpValidatePosition(MemorySegment.ofArray(secret), startMovingFactor, window, otp);
+    }
+
+    @Override
+    public int hotpValidatePosition(ByteBuffer secret, long startMovingFactor, long window, String otp){
+        return hotpValidatePosition(MemorySegment.ofBuffer(secret), startMovingFactor, window, otp);
+    }
+
+    private String totpGenerate(MemorySegment secret, long unixTimestamp, int timeStepSize, long startOffset, int digits, OATHTotpFlag flag){
+        byte[] buffer = new byte[digits + 1];
+        int result;
+
+        try {
+            result = (int) oathTotpGenerate2.invokeExact(secret, secret.byteSize(), unixTimestamp,
+                    timeStepSize, startOffset, digits, flag.ordinal(), MemorySegment.ofArray(buffer));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+
+        handleError(result);
+        return new String(buffer, 0, digits, StandardCharsets.US_ASCII);
+    }
+
+    private int totpValidatePosition(MemorySegment secret, long unixTimestamp, int timeStepSize, long startOffset, int window, OATHTotpFlag flag, String otp){
+        Scratch scratch = SCRATCH.get();
+        int result;
+
+        try {
+            result = (int) oathTotpValidate4.invokeExact(secret, secret.byteSize(), unixTimestamp,
+                    timeStepSize, startOffset, (long) window, scratch.position, MemorySegment.NULL, flag.ordinal(), scratch.otp(otp));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+
+        return result < 0 ? handleValidateError(result) : scratch.positionValue[0];
+    }
+
+    private String hotpGenerate(MemorySegment secret, long movingFactor, int digits, long truncationOffset){
+        byte[] buffer = new byte[digits + 1];
+        int result;
+
+        try {
+            result = (int) oathHotpGenerate.invokeExact(secret, secret.byteSize(), movingFactor,
+                    digits, false, truncationOffset, MemorySegment.ofArray(buffer));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+
+        handleError(result);
+        return new String(buffer, 0, digits, StandardCharsets.US_ASCII);
+    }
+
+    private int hotpValidatePosition(MemorySegment secret, long startMovingFactor, long window, String otp){
+        int result;
+
+        try {
+            result = (int) oathHotpValidate.invokeExact(secret, secret.byteSize(), startMovingFactor,
+                    window, SCRATCH.get().otp(otp));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+
+        return result < 0 ? handleValidateError(result) : result;
+    }
+
+    /**
+     * Creates a downcall handle for a liboath function
+     * @param lookup lookup of the liboath symbols
+     * @param name name of the function
+     * @param descriptor signature of the function
+     * @param critical link as critical function with heap access, only for short functions which do not call back
+     * @return the downcall handle
+     * @throws UnsatisfiedLinkError if the symbol is missing
+     */
+    private static MethodHandle link(SymbolLookup lookup, String name, FunctionDescriptor descriptor, boolean critical){
+        MemorySegment symbol = lookup.find(name).orElseThrow(() -> new UnsatisfiedLinkError("Missing liboath symbol " + name));
+
+        return critical ? Linker.nativeLinker().downcallHandle(symbol, descriptor, Linker.Option.critical(true))
+                : Linker.nativeLinker().downcallHandle(symbol, descriptor);
+    }
+
+    /**
+     * Reads a nul terminated string returned by liboath
+     * @param string pointer to the string
+     * @return the string or null for a null pointer
+     */
+    private static String toJavaString(MemorySegment string){
+        return string.equals(MemorySegment.NULL) ? null : string.reinterpret(Long.MAX_VALUE).getString(0, Charset.defaultCharset());
+    }
+
+    /**
+     * Helper function mapping an invalid otp to {@link OATH#INVALID_POSITION}, unsupported digits
+     * to {@link OATH#INVALID_DIGITS_POSITION} and throwing on other errors
+     * @param oathReturnCode The negative return code of a validate function
+     * @return {@link OATH#INVALID_POSITION} or {@link OATH#INVALID_DIGITS_POSITION}
+     * @throws OATHException if oathReturnCode is not OATH_INVALID_OTP or OATH_INVALID_DIGITS
+     */
+    private static int handleValidateError(int oathReturnCode){
+        if(oathReturnCode == OATHReturnCode.OATH_INVALID_OTP.intValue()){
+            return OATH.INVALID_POSITION;
+        }
+
+        if(oathReturnCode == OATHReturnCode.OATH_INVALID_DIGITS.intValue()){
+            return OATH.INVALID_DIGITS_POSITION;
+        }
+
+        return handleError(oathReturnCode);
+    }
+
+    /**
+     * Helper function to construct and throw an exception
+     * @param oathReturnCode The return code
+     * @return oathReturnCode
+     * @throws OATHException if oathReturnCode &lt; 0
+     */
+    private static int handleError(int oathReturnCode){
+        if(oathReturnCode < 0){
+            throw new OATHException(OATHReturnCode.forErrorCode(oathReturnCode));
+        }
+
+        return oathReturnCode;
+    }
+
+    /**
+     * Passes unchecked throwables of a downcall through and wraps the (impossible) checked ones
+     * @param t The throwable
+     * @return never returns
+     */
+    private static RuntimeException rethrow(Throwable t){
+        if(t instanceof RuntimeException){
+            throw (RuntimeException) t;
+        }
+
+        if(t instanceof Error){
+            throw (Error) t;
+        }
+
+        throw new IllegalStateException(t);
+    }
+
+    /**
+     * Reusable heap buffers of a thread, passed to the critical downcalls without copying
+     */
+    private static final class Scratch {
+        /**
+         * Nul terminated otp, large enough for every otp liboath accepts
+         */
+        private final byte[] otpValue = new byte[16];
+
+        private final MemorySegment otp = MemorySegment.ofArray(otpValue);
+
+        private final int[] positionValue = new int[1];
+
+        private final MemorySegment position = MemorySegment.ofArray(positionValue);
+
+        /**
+         * Copies the otp into the buffer like jnr-ffi would (default charset, nul terminated)
+         * @param otp The otp
+         * @return segment holding the nul terminated otp
+         */
+        MemorySegment otp(String otp){
+            int length = otp.length();
+
+            if(length >= otpValue.length){
+                return MemorySegment.ofArray((otp + '\0').getBytes(Charset.defaultCharset()));
+            }
+
+            for(int i = 0; i < length; i++){
+                char c = otp.charAt(i);
+
+                if(c >= 0x80){
+                    return MemorySegment.ofArray((otp + '\0').getBytes(Charset.defaultCharset()));
+                }
+
+                otpValue[i] = (byte) c;
+            }
+
+            otpValue[length] = 0;
+            return this.otp;
+        }
+    }
+}
@@ -23,6 +23,15 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * Testing base32 stuff
  */
@@ -66,6 +75,109 @@ class Base32Test {
             Assertions.assertEquals(correctHexValue, testedBase32Value, "Base32 value " + i + " not matching");
         }
     }
+
+    @Test
+    void testBufferEncodeDecode(){
+        char[] chars = new char[256];
+        ByteBuffer bytes = ByteBuffer.allocate(256);
+
+        for(int i = 0; i < byteList.length; i++){
+            int length = oath.base32Encode(byteList[i], 0, byteList[i].length, chars, 3);
+            Assertions.assertEquals(base32Values[i], new String(chars, 3, length), "Base32 value " + i + " not matching");
+            Assertions.assertEquals(OATH.base32EncodedLength(byteList[i].length), length);
+
+            bytes.clear();
+            int decodedLength = oath.base32Decode(chars, 3, length, bytes);
+            Assertions.assertArrayEquals(byteList[i], Arrays.copyOf(bytes.array(), decodedLength), "Byte value " + i + " not matching");
+        }
+    }
+
+    @Test
+    void testTooSmallBuffer(){
+        OATHException exception = Assertions.assertThrows(OATHException.class, () -> oath.base32Encode(byteList[1], 0, byteList[1].length, new char[8], 0),
+                "Encoding into a too small buffer");
+        Assertions.assertEquals(OATHReturnCode.OATH_TOO_SMALL_BUFFER, exception.getErrorCode(),
+                "OATH not throwing the correct error code");
+
+        char[] input = base32Values[1].toCharArray();
+        exception = Assertions.assertThrows(OATHException.class, () -> oath.base32Decode(input, 0, input.length, ByteBuffer.allocate(1)),
+                "Decoding into a too small buffer");
+        Assertions.assertEquals(OATHReturnCode.OATH_TOO_SMALL_BUFFER, exception.getErrorCode(),
+                "OATH not throwing the correct error code");
+    }
+
+    @Test
+    void testLenientDecode(){
+        Assertions.assertArrayEquals(oath.base32Decode("GEZDGNBV"), oath.base32Decode("gezd gnbv"));
+        Assertions.assertArrayEquals(oath.base32Decode("GEZDGNA="), oath.base32Decode("GEZDGNA"));
+
+        OATHException exception = Assertions.assertThrows(OATHException.class, () -> oath.base32Decode("GE======GEZDGNBV"),
+                "Decoding data after padding");
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_BASE32, exception.getErrorCode(),
+                "OATH not throwing the correct error code");
+    }
+
+    @Test
+    void testByteBufferCodec(){
+        ByteBuffer encoded = ByteBuffer.allocateDirect(256);
+        ByteBuffer decoded = ByteBuffer.allocateDirect(256);
+
+        for(int i = 0; i < byteList.length; i++){
+            encoded.clear();
+            oath.base32Encode(ByteBuffer.wrap(byteList[i]), encoded);
+            encoded.flip();
+            Assertions.assertEquals(base32Values[i], StandardCharsets.US_ASCII.decode(encoded.duplicate()).toString(), "Base32 value " + i + " not matching");
+
+            decoded.clear();
+            oath.base32Decode(encoded, decoded);
+            decoded.flip();
+            byte[] bytes = new byte[decoded.remaining()];
+            decoded.get(bytes);
+            Assertions.assertArrayEquals(byteList[i], bytes, "Byte value " + i + " not matching");
+
+            byte[] ascii = base32Values[i].getBytes(StandardCharsets.US_ASCII);
+            byte[] array = new byte[byteList[i].length + 2];
+            Assertions.assertEquals(byteList[i].length, OATHBase32.decode(ascii, 0, ascii.length, array, 2));
+            Assertions.assertArrayEquals(byteList[i], Arrays.copyOfRange(array, 2, array.length), "Byte value " + i + " not matching");
+        }
+    }
+
+    @Test
+    void testStreams() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+
+        for(int i = 0; i < byteList.length; i++){
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+            try(OutputStream stream = new OATHBase32.EncodingOutputStream(encoded)){
+                //Write in odd chunks to cross block boundaries
+                for(int j = 0; j < byteList[i].length; j += 3){
+                    stream.write(byteList[i], j, Math.min(3, byteList[i].length - j));
+                }
+            }
+
+            Assertions.assertEquals(base32Values[i], new String(encoded.toByteArray(), StandardCharsets.US_ASCII), "Base32 value " + i + " not matching");
+            expected.write(byteList[i]);
+        }
+
+        try(OutputStream stream = new OATHBase32.EncodingOutputStream(all)){
+            stream.write(expected.toByteArray());
+        }
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+
+        try(InputStream stream = new OATHBase32.DecodingInputStream(new ByteArrayInputStream(all.toByteArray()))){
+            byte[] buffer = new byte[7];
+            int read;
+
+            while((read = stream.read(buffer)) >= 0){
+                decoded.write(buffer, 0, read);
+            }
+        }
+
+        Assertions.assertArrayEquals(expected.toByteArray(), decoded.toByteArray(), "Streamed bytes not matching");
+    }
 }
 
 /* Code to generate test input
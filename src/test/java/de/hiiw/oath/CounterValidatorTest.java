@@ -0,0 +1,119 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Testing the counter stores and the validator sharing them
+ */
+class CounterValidatorTest {
+    private static OATH oath;
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @BeforeAll
+    static void setup(){
+        oath = OATH.getInstance();
+    }
+
+    @Test
+    void testCompareAndSet(@TempDir Path directory) throws IOException {
+        try(HotpCounterStore file = HotpCounterStore.open(oath, directory.resolve("counters"), 100, false)){
+            for(CounterStore store : new CounterStore[]{new InMemoryCounterStore(), file}){
+                Assertions.assertEquals(0, store.getCounter(1));
+                Assertions.assertFalse(store.compareAndSet(1, 5, 6));
+                Assertions.assertTrue(store.compareAndSet(1, 0, 6));
+                Assertions.assertFalse(store.compareAndSet(1, 0, 7));
+                Assertions.assertTrue(store.compareAndSet(1, 6, 7));
+                Assertions.assertTrue(store.compareAndSet(2, 0, 3));
+                Assertions.assertArrayEquals(new long[]{7, 3, 0}, store.getCounters(new long[]{1, 2, 3}));
+            }
+        }
+    }
+
+    @Test
+    void testNodesSharingStore(){
+        CounterStore store = new InMemoryCounterStore();
+        CounterValidator first = new CounterValidator(oath, store, 100);
+        CounterValidator second = new CounterValidator(oath, store, 100);
+        OATHKey key = new OATHKey(secret);
+
+        Assertions.assertEquals(2, first.validateHotpPosition(1, key, 5, oath.hotpGenerate(secret, 2, 6, 0)));
+        Assertions.assertEquals(3, store.getCounter(1));
+        Assertions.assertEquals(OATH.INVALID_POSITION, second.validateHotpPosition(1, key, 5, oath.hotpGenerate(secret, 2, 6, 0)));
+        Assertions.assertEquals(0, second.validateHotpPosition(1, key, 5, oath.hotpGenerate(secret, 3, 6, 0)));
+
+        //The cache of the first node is stale, the otp is still rejected and the next one accepted
+        Assertions.assertEquals(OATH.INVALID_POSITION, first.validateHotpPosition(1, key, 5, oath.hotpGenerate(secret, 3, 6, 0)));
+        Assertions.assertEquals(OATH.INVALID_POSITION, first.validateHotpPosition(1, key, 0, oath.hotpGenerate(secret, 2, 6, 0)));
+        Assertions.assertEquals(0, second.validateHotpPosition(1, key, 0, oath.hotpGenerate(secret, 4, 6, 0)));
+        Assertions.assertEquals(0, first.validateHotpPosition(1, key, 0, oath.hotpGenerate(secret, 5, 6, 0)));
+        Assertions.assertEquals(6, store.getCounter(1));
+
+        //Time steps only move forward
+        String otp = oath.totpGenerate(secret, 1000, 30, 0, 6);
+        Assertions.assertEquals(0, first.validateTotpPosition(2, key, 1000, 30, 0, 1, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp));
+        Assertions.assertEquals(OATH.INVALID_POSITION, second.validateTotpPosition(2, key, 1010, 30, 0, 1, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp));
+        Assertions.assertEquals(OATH.INVALID_POSITION, first.validateTotpPosition(2, key, 1000, 30, 0, 1, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                oath.totpGenerate(secret, 970, 30, 0, 6)));
+        Assertions.assertEquals(1, second.validateTotpPosition(2, key, 1000, 30, 0, 1, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                oath.totpGenerate(secret, 1030, 30, 0, 6)));
+        Assertions.assertEquals(1000 / 30 + 2, store.getCounter(2));
+
+        int[] positions = second.validateHotpBatch(new long[]{1, 3, 4}, new OATHKey[]{key, key, key}, 2,
+                new String[]{oath.hotpGenerate(secret, 6, 6, 0), oath.hotpGenerate(secret, 1, 6, 0), "000000"});
+        Assertions.assertArrayEquals(new int[]{0, 1, OATH.INVALID_POSITION}, positions);
+    }
+
+    @Test
+    void testConcurrentNodes(@TempDir Path directory) throws IOException {
+        try(HotpCounterStore store = HotpCounterStore.open(oath, directory.resolve("counters"), 100, false)){
+            CounterValidator[] nodes = {new CounterValidator(oath, store, 10), new CounterValidator(oath, store, 10)};
+            OATHKey key = new OATHKey(secret);
+            String[] otps = IntStream.range(0, 50).mapToObj(counter -> oath.hotpGenerate(secret, counter, 6, 0)).toArray(String[]::new);
+            AtomicIntegerArray accepted = new AtomicIntegerArray(otps.length);
+
+            //Every otp is tried four times on both nodes, none is accepted twice
+            IntStream.range(0, otps.length * 8).parallel().forEach(i -> {
+                if(OATH.isValidPosition(nodes[i % 2].validateHotpPosition(1, key, 50, otps[i / 8]))){
+                    accepted.incrementAndGet(i / 8);
+                }
+            });
+
+            int last = -1;
+
+            for(int counter = 0; counter < otps.length; counter++){
+                Assertions.assertTrue(accepted.get(counter) <= 1, "Otp accepted twice");
+                last = accepted.get(counter) == 1 ? counter : last;
+            }
+
+            Assertions.assertEquals(last + 1, store.getCounter(1));
+        }
+    }
+}
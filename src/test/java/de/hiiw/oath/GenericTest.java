@@ -22,6 +22,7 @@ package de.hiiw.oath;
 import jnr.ffi.Runtime;
 import jnr.ffi.TypeAlias;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -36,8 +37,62 @@ public class GenericTest {
         oath = OATH.getInstance();
     }
 
+    @Test
+    void testEngineNotNull(){
+        Assertions.assertNotNull(oath.getEngine(), "Engine cannot be null");
+    }
+
+    @Test
+    void testSharedInstance(){
+        Assertions.assertSame(oath, OATH.getInstance(), "Shared instance should not change");
+
+        oath.close();
+        Assertions.assertNotNull(oath.totpGenerate(new byte[20], 59, 30, 0, 8, OATHTotpFlag.OATH_TOTP_HMAC_SHA1),
+                "Closing the shared instance should have no effect");
+    }
+
+    @Test
+    void testIndependentInstance(){
+        try(OATH independent = OATH.create("java")){
+            Assertions.assertNotSame(oath, independent, "Instances should be independent");
+            Assertions.assertTrue(independent.getEngine() instanceof JavaOATHEngine, "Java engine expected");
+            Assertions.assertEquals(oath.totpGenerate(new byte[20], 59, 30, 0, 8, OATHTotpFlag.OATH_TOTP_HMAC_SHA1),
+                    independent.totpGenerate(new byte[20], 59, 30, 0, 8, OATHTotpFlag.OATH_TOTP_HMAC_SHA1));
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> OATH.create("unknown"));
+        Assertions.assertThrows(NullPointerException.class, () -> new OATH(null));
+    }
+
+    @Test
+    void testPanamaEngine(){
+        OATH panama;
+
+        try {
+            panama = OATH.create("panama");
+        } catch (UnsatisfiedLinkError e) {
+            Assumptions.assumeTrue(false, "Panama engine not available: " + e.getMessage());
+            return;
+        }
+
+        try(OATH java = OATH.create("java")){
+            byte[] secret = "12345678901234567890".getBytes();
+            String otp = java.totpGenerate(secret, 59, 30, 0, 8, OATHTotpFlag.OATH_TOTP_HMAC_SHA1);
+
+            Assertions.assertEquals(otp, panama.totpGenerate(secret, 59, 30, 0, 8, OATHTotpFlag.OATH_TOTP_HMAC_SHA1));
+            Assertions.assertEquals(-1, panama.validateTotpPosition(secret, 89, 30, 0, 1, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp));
+            Assertions.assertEquals(OATH.INVALID_DIGITS_POSITION, panama.validateHotpPosition(secret, 0, 5, "12345"));
+            Assertions.assertEquals(java.hotpGenerate(secret, 3, 6, 0), panama.hotpGenerate(secret, 3, 6, 0));
+            Assertions.assertEquals(3, panama.validateHotpPosition(secret, 0, 5, java.hotpGenerate(secret, 3, 6, 0)));
+            Assertions.assertNotNull(panama.getEngine().checkVersion(LibOATH.OATH_VERSION));
+        } finally {
+            panama.close();
+        }
+    }
+
     @Test
     void testLibInterfaceNotNull(){
+        Assumptions.assumeTrue(oath.getEngine() instanceof NativeOATHEngine, "Native liboath not loaded");
         Assertions.assertNotNull(oath.getLibOATH(), "OATHLib instance cannot be null");
     }
 
@@ -58,6 +113,7 @@ public class GenericTest {
 
     @Test
     void testHOTPSizeMakro(){
+        Assumptions.assumeTrue(oath.getEngine() instanceof NativeOATHEngine, "Native liboath not loaded");
         Assertions.assertEquals(0, oath.getLibOATH().OATH_HOTP_LENGTH(0, false));
         Assertions.assertEquals(6, oath.getLibOATH().OATH_HOTP_LENGTH(6, false));
 
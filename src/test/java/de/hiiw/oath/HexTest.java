@@ -23,6 +23,15 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * Testing hex stuff
  */
@@ -65,6 +74,68 @@ class HexTest {
         Assertions.assertEquals(OATHReturnCode.OATH_INVALID_HEX, exception.getErrorCode(),
                 "OATH not throwing the correct error code");
     }
+
+    @Test
+    void testByteBufferCodec(){
+        ByteBuffer encoded = ByteBuffer.allocateDirect(256);
+        ByteBuffer decoded = ByteBuffer.allocateDirect(256);
+
+        for(int i = 0; i < byteList.length; i++){
+            encoded.clear();
+            oath.bin2Hex(ByteBuffer.wrap(byteList[i]), encoded);
+            encoded.flip();
+            Assertions.assertEquals(hexValues[i], StandardCharsets.US_ASCII.decode(encoded.duplicate()).toString(), "Hex value " + i + " not matching");
+
+            decoded.clear();
+            oath.hex2Bin(encoded, decoded);
+            decoded.flip();
+            byte[] bytes = new byte[decoded.remaining()];
+            decoded.get(bytes);
+            Assertions.assertArrayEquals(byteList[i], bytes, "Byte value " + i + " not matching");
+
+            byte[] ascii = hexValues[i].getBytes(StandardCharsets.US_ASCII);
+            byte[] array = new byte[byteList[i].length + 2];
+            Assertions.assertEquals(byteList[i].length, OATHHex.decode(ascii, 0, ascii.length, array, 2));
+            Assertions.assertArrayEquals(byteList[i], Arrays.copyOfRange(array, 2, array.length), "Byte value " + i + " not matching");
+        }
+    }
+
+    @Test
+    void testStreams() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+
+        for(int i = 0; i < byteList.length; i++){
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+            try(OutputStream stream = new OATHHex.EncodingOutputStream(encoded)){
+                //Write in odd chunks to cross block boundaries
+                for(int j = 0; j < byteList[i].length; j += 3){
+                    stream.write(byteList[i], j, Math.min(3, byteList[i].length - j));
+                }
+            }
+
+            Assertions.assertEquals(hexValues[i], new String(encoded.toByteArray(), StandardCharsets.US_ASCII), "Hex value " + i + " not matching");
+            expected.write(byteList[i]);
+        }
+
+        try(OutputStream stream = new OATHHex.EncodingOutputStream(all)){
+            stream.write(expected.toByteArray());
+        }
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+
+        try(InputStream stream = new OATHHex.DecodingInputStream(new ByteArrayInputStream(all.toByteArray()))){
+            byte[] buffer = new byte[7];
+            int read;
+
+            while((read = stream.read(buffer)) >= 0){
+                decoded.write(buffer, 0, read);
+            }
+        }
+
+        Assertions.assertArrayEquals(expected.toByteArray(), decoded.toByteArray(), "Streamed bytes not matching");
+    }
 }
 
 /* Code to generate test input
@@ -0,0 +1,357 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Testing the persistent hotp counters
+ */
+class HotpCounterStoreTest {
+    private static OATH oath;
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @BeforeAll
+    static void setup(){
+        oath = OATH.getInstance();
+    }
+
+    @Test
+    void testValidateAdvances(@TempDir Path dir) throws IOException {
+        try(HotpCounterStore store = HotpCounterStore.open(oath, dir.resolve("counters"), 100, false)){
+            Assertions.assertEquals(0, store.getCounter(1));
+            Assertions.assertEquals(2, store.validatePosition(1, secret, 5, oath.hotpGenerate(secret, 2, 6, 0)));
+            Assertions.assertEquals(3, store.getCounter(1));
+
+            //Replays and older otps are rejected
+            Assertions.assertEquals(OATH.INVALID_POSITION, store.validatePosition(1, secret, 5, oath.hotpGenerate(secret, 2, 6, 0)));
+            Assertions.assertEquals(OATH.INVALID_POSITION, store.validatePosition(1, secret, 5, oath.hotpGenerate(secret, 1, 6, 0)));
+            Assertions.assertEquals(OATH.INVALID_DIGITS_POSITION, store.validatePosition(1, secret, 5, "12345"));
+            Assertions.assertEquals(0, store.validatePosition(1, secret, 5, oath.hotpGenerate(secret, 3, 6, 0)));
+
+            //Other credentials are independent
+            Assertions.assertEquals(1, store.validatePosition(2, secret, 5, oath.hotpGenerate(secret, 1, 6, 0)));
+            Assertions.assertEquals(2, store.size());
+
+            Assertions.assertTrue(store.remove(1));
+            Assertions.assertFalse(store.remove(1));
+            Assertions.assertEquals(0, store.getCounter(1));
+            Assertions.assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    void testResync(@TempDir Path dir) throws IOException {
+        try(HotpCounterStore store = HotpCounterStore.open(oath, dir.resolve("counters"), 100, false)){
+            store.setCounter(1, 10);
+
+            //Out of the validation window
+            Assertions.assertEquals(OATH.INVALID_POSITION, store.validatePosition(1, secret, 10, oath.hotpGenerate(secret, 500, 6, 0)));
+
+            //Not consecutive
+            Assertions.assertEquals(OATH.INVALID_POSITION, store.resync(1, secret, 1000,
+                    oath.hotpGenerate(secret, 500, 6, 0), oath.hotpGenerate(secret, 502, 6, 0)));
+            Assertions.assertEquals(10, store.getCounter(1));
+
+            Assertions.assertEquals(490, store.resync(1, secret, 1000,
+                    oath.hotpGenerate(secret, 500, 6, 0), oath.hotpGenerate(secret, 501, 6, 0)));
+            Assertions.assertEquals(502, store.getCounter(1));
+            Assertions.assertEquals(0, store.validatePosition(1, secret, 10, oath.hotpGenerate(secret, 502, 6, 0)));
+
+            //Out of the look-ahead window
+            Assertions.assertEquals(OATH.INVALID_POSITION, store.resync(1, secret, 100,
+                    oath.hotpGenerate(secret, 700, 6, 0), oath.hotpGenerate(secret, 701, 6, 0)));
+        }
+    }
+
+    @Test
+    void testPersistence(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("counters");
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, file, 1000, false)){
+            for(long id = 0; id < 500; id++){
+                store.setCounter(id, id * 7);
+            }
+
+            store.remove(3);
+        }
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, file, 1, false)){
+            Assertions.assertEquals(499, store.size());
+
+            for(long id = 0; id < 500; id++){
+                Assertions.assertEquals(id == 3 ? 0 : id * 7, store.getCounter(id), "Wrong counter of " + id);
+            }
+        }
+    }
+
+    @Test
+    void testJournalReplay(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("counters");
+        Path crashed = dir.resolve("crashed");
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, file, 1000, true)){
+            for(long id = 0; id < 100; id++){
+                store.setCounter(id, 1);
+            }
+
+            //A table which was not written since the checkpoint
+            store.checkpoint();
+            Files.copy(file, crashed);
+
+            for(long id = 0; id < 100; id++){
+                store.setCounter(id, id + 2);
+            }
+
+            store.remove(5);
+            Files.copy(dir.resolve("counters.journal"), dir.resolve("crashed.journal"));
+        }
+
+        //A torn record at the end is ignored
+        Files.write(dir.resolve("crashed.journal"), new byte[]{1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, crashed, 1000, false)){
+            for(long id = 0; id < 100; id++){
+                Assertions.assertEquals(id == 5 ? 0 : id + 2, store.getCounter(id), "Wrong counter of " + id);
+            }
+
+            Assertions.assertEquals(99, store.size());
+            Assertions.assertEquals(0, Files.size(dir.resolve("crashed.journal")), "Journal not truncated");
+        }
+    }
+
+    @Test
+    void testChurn(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("counters");
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, file, 1000, false)){
+            //Credentials are removed and new ones enrolled, many times the capacity over the life of the store
+            for(long id = 0; id < 50000; id++){
+                store.setCounter(id, id + 1);
+
+                if(id >= 500){
+                    Assertions.assertTrue(store.remove(id - 500));
+                }
+            }
+
+            Assertions.assertEquals(500, store.size());
+        }
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, file, 1000, false)){
+            Assertions.assertEquals(500, store.size());
+
+            for(long id = 49000; id < 50000; id++){
+                Assertions.assertEquals(id < 49500 ? 0 : id + 1, store.getCounter(id), "Wrong counter of " + id);
+            }
+        }
+    }
+
+    @Test
+    void testCapacity(@TempDir Path dir) throws IOException {
+        for(int capacity : new int[]{1, 2, 10, 100, 1000, 10000}){
+            try(HotpCounterStore store = HotpCounterStore.open(oath, dir.resolve("counters" + capacity), capacity, false)){
+                for(long id = 0; id < capacity; id++){
+                    store.setCounter(id, 5);
+                }
+
+                Assertions.assertEquals(capacity, store.size());
+            }
+        }
+
+        //Ids which are not consecutive
+        Random random = new Random(42);
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, dir.resolve("random"), 5000, false)){
+            for(int i = 0; i < 5000; i++){
+                store.setCounter(random.nextLong(), 5);
+            }
+
+            Assertions.assertEquals(5000, store.size());
+        }
+    }
+
+    @Test
+    void testCounterLimit(@TempDir Path dir) throws IOException {
+        try(HotpCounterStore store = HotpCounterStore.open(oath, dir.resolve("counters"), 10, false)){
+            store.setCounter(1, -3);
+            Assertions.assertEquals(-3, store.getCounter(1));
+
+            //Counters which would wrap onto the empty or removed state are rejected
+            Assertions.assertEquals(OATHReturnCode.OATH_INVALID_COUNTER,
+                    Assertions.assertThrows(OATHException.class, () -> store.setCounter(1, -2)).getErrorCode());
+            Assertions.assertEquals(OATHReturnCode.OATH_INVALID_COUNTER,
+                    Assertions.assertThrows(OATHException.class, () -> store.compareAndSet(1, -3, -1)).getErrorCode());
+            Assertions.assertEquals(-3, store.getCounter(1));
+            Assertions.assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    void testCompactionReplay(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("counters");
+        Path crashed = dir.resolve("crashed");
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, file, 1000, false)){
+            for(long id = 0; id < 600; id++){
+                store.setCounter(id, id + 1);
+            }
+
+            for(long id = 0; id < 600; id += 2){
+                store.remove(id);
+            }
+
+            store.checkpoint();
+            Files.copy(file, crashed);
+        }
+
+        //A rehash interrupted after its records were journaled: the stripe of credential 1 is wiped in the table
+        int stripe = (int) (StripedLongMap.mix(1) >>> 58);
+        List<Long> live = new ArrayList<>();
+
+        for(long id = 1; id < 600; id += 2){
+            if((int) (StripedLongMap.mix(id) >>> 58) == stripe){
+                live.add(id);
+            }
+        }
+
+        ByteBuffer journal = ByteBuffer.allocate(24 * (live.size() + 1));
+        journal.putLong(stripe).putLong(0).putLong(checksum(stripe, 0));
+
+        for(long id : live){
+            journal.putLong(id).putLong(id + 1 + 2).putLong(checksum(id, id + 1 + 2));
+        }
+
+        Files.write(dir.resolve("crashed.journal"), journal.array());
+
+        try(FileChannel channel = FileChannel.open(crashed, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            ByteBuffer header = ByteBuffer.allocate(16);
+            channel.read(header, 0);
+            int slotsPerStripe = header.getInt(8);
+            channel.write(ByteBuffer.allocate(slotsPerStripe * 16), 16 + (long) stripe * slotsPerStripe * 16);
+        }
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, crashed, 1000, false)){
+            Assertions.assertEquals(300, store.size());
+
+            for(long id = 0; id < 600; id++){
+                Assertions.assertEquals(id % 2 == 0 ? 0 : id + 1, store.getCounter(id), "Wrong counter of " + id);
+            }
+        }
+    }
+
+    /**
+     * @return checksum of a journal record, see {@link HotpCounterStore}
+     */
+    private static long checksum(long credentialId, long state){
+        return StripedLongMap.mix(credentialId ^ StripedLongMap.mix(state ^ 0x4F415448));
+    }
+
+    @Test
+    void testConcurrentValidation(@TempDir Path dir) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, dir.resolve("counters"), 100, false)){
+            OATHKey key = new OATHKey(secret);
+            String otp = oath.hotpGenerate(secret, 3, 6, 0);
+            AtomicInteger accepted = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+
+            for(int i = 0; i < 64; i++){
+                futures.add(executor.submit(() -> {
+                    if(OATH.isValidPosition(store.validatePosition(1, key, 10, otp))){
+                        accepted.incrementAndGet();
+                    }
+                }));
+            }
+
+            for(Future<?> future : futures){
+                future.get();
+            }
+
+            Assertions.assertEquals(1, accepted.get(), "Otp accepted more than once");
+            Assertions.assertEquals(4, store.getCounter(1));
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testConcurrentSync(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("counters");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, file, 100, true)){
+            OATHKey key = new OATHKey(secret);
+            List<Future<?>> futures = new ArrayList<>();
+
+            //Forced updates of different credentials share the forces of the journal
+            for(int credential = 0; credential < 16; credential++){
+                long credentialId = credential;
+
+                futures.add(executor.submit(() -> {
+                    for(long counter = 0; counter < 50; counter++){
+                        Assertions.assertEquals(0, store.validatePosition(credentialId, key, 0, oath.hotpGenerate(secret, counter, 6, 0)));
+                    }
+                }));
+            }
+
+            for(Future<?> future : futures){
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        try(HotpCounterStore store = HotpCounterStore.open(oath, file, 100, false)){
+            for(long id = 0; id < 16; id++){
+                Assertions.assertEquals(50, store.getCounter(id), "Wrong counter of " + id);
+            }
+        }
+    }
+
+    @Test
+    void testNotAStore(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("counters");
+        Files.write(file, "no counters".getBytes(StandardCharsets.US_ASCII));
+
+        Assertions.assertThrows(IOException.class, () -> HotpCounterStore.open(oath, file, 100, false));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Testing the asynchronous wrapper
+ */
+class OATHAsyncTest {
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void testResults() throws Exception {
+        try(OATH oath = OATH.create("java"); OATHAsync async = new OATHAsync(oath, 16, Duration.ofSeconds(10))){
+            OATHKey key = new OATHKey(secret);
+            String otp = oath.totpGenerate(key, 1030, 30, 0, 6, OATHTotpFlag.OATH_TOTP_HMAC_SHA1);
+
+            Assertions.assertEquals(otp, async.totpGenerate(key, 1030, 30, 0, 6, OATHTotpFlag.OATH_TOTP_HMAC_SHA1).get());
+            Assertions.assertEquals(1, async.validateTotpPosition(key, 1000, 30, 0, 2, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp).get());
+            Assertions.assertEquals(1, async.totpValidate(key, 1000, 30, 0, 2, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp).get().getOtpPos());
+            Assertions.assertEquals(3, async.validateHotpPosition(key, 0, 5, async.hotpGenerate(key, 3, 6, 0).get()).get());
+
+            ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                    () -> async.totpValidate(key, 1000, 30, 0, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp).get());
+            Assertions.assertEquals(OATHReturnCode.OATH_INVALID_OTP, ((OATHException) exception.getCause()).getErrorCode());
+            Assertions.assertEquals(0, async.getPending());
+        }
+    }
+
+    @Test
+    void testBackpressureAndDeadline() throws Exception {
+        List<Runnable> queued = new ArrayList<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        try(OATH oath = OATH.create("java")){
+            OATHAsync async = new OATHAsync(oath, queued::add, 2, null);
+            CompletableFuture<Integer> first = async.submit(o -> calls.incrementAndGet());
+            CompletableFuture<Integer> expiring = async.submit(o -> calls.incrementAndGet(), Duration.ofMillis(1));
+
+            CompletableFuture<Integer> rejected = async.submit(o -> calls.incrementAndGet());
+            Assertions.assertTrue(rejected.isCompletedExceptionally(), "Operation above the limit accepted");
+            Assertions.assertEquals(2, async.getPending());
+
+            ExecutionException exception = Assertions.assertThrows(ExecutionException.class, expiring::get);
+            Assertions.assertTrue(exception.getCause() instanceof TimeoutException);
+
+            queued.forEach(Runnable::run);
+            Assertions.assertEquals(1, first.get());
+            Assertions.assertEquals(1, calls.get(), "Expired operation was run");
+            Assertions.assertEquals(0, async.getPending());
+
+            async.close();
+            exception = Assertions.assertThrows(ExecutionException.class, () -> async.submit(o -> 0).get());
+            Assertions.assertTrue(exception.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
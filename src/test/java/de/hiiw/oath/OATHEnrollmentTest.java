@@ -0,0 +1,144 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Testing the otpauth uris and the bulk enrollment
+ */
+class OATHEnrollmentTest {
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void testParse(){
+        OTPAuthURI uri = OTPAuthURI.parse("otpauth://totp/Example:alice@google.com?secret=JBSWY3DPEHPK3PXP&issuer=Example");
+
+        Assertions.assertTrue(uri.isTotp());
+        Assertions.assertEquals("Example", uri.getIssuer());
+        Assertions.assertEquals("alice@google.com", uri.getAccount());
+        Assertions.assertArrayEquals("Hello!Þ­¾ï".getBytes(StandardCharsets.ISO_8859_1), uri.getSecret());
+        Assertions.assertEquals(OATHTotpFlag.OATH_TOTP_HMAC_SHA1, uri.getFlag());
+        Assertions.assertEquals(6, uri.getDigits());
+        Assertions.assertEquals(30, uri.getPeriod());
+
+        OTPAuthURI hotp = OTPAuthURI.parse("otpauth://hotp/ACME%20Co:john?secret=jbswy3dpehpk3pxp&digits=8&counter=42");
+        Assertions.assertFalse(hotp.isTotp());
+        Assertions.assertEquals("ACME Co", hotp.getIssuer());
+        Assertions.assertEquals("john", hotp.getAccount());
+        Assertions.assertEquals(8, hotp.getDigits());
+        Assertions.assertEquals(42, hotp.getCounter());
+    }
+
+    @Test
+    void testParseInvalid(){
+        Assertions.assertThrows(IllegalArgumentException.class, () -> OTPAuthURI.parse("https://example.com"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> OTPAuthURI.parse("otpauth://motp/alice?secret=JBSWY3DP"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> OTPAuthURI.parse("otpauth://totp/alice?issuer=Example"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> OTPAuthURI.parse("otpauth://hotp/alice?secret=JBSWY3DP"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> OTPAuthURI.parse("otpauth://totp/alice?secret=JBSWY3DP&digits=x"));
+
+        OATHException exception = Assertions.assertThrows(OATHException.class,
+                () -> OTPAuthURI.parse("otpauth://totp/alice?secret=JBSWY3D1"), "Parsing a malformed secret");
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_BASE32, exception.getErrorCode(),
+                "OATH not throwing the correct error code");
+    }
+
+    @Test
+    void testRoundTrip(){
+        OTPAuthURI totp = OTPAuthURI.totp("Big & Co: 100%", "jöhn+doe@example.com", secret, OATHTotpFlag.OATH_TOTP_HMAC_SHA256, 8, 60);
+        OTPAuthURI parsed = OTPAuthURI.parse(totp.toString());
+
+        Assertions.assertEquals(totp.toString(), parsed.toString());
+        Assertions.assertEquals("Big & Co: 100%", parsed.getIssuer());
+        Assertions.assertEquals("jöhn+doe@example.com", parsed.getAccount());
+        Assertions.assertArrayEquals(secret, parsed.getSecret());
+        Assertions.assertEquals(OATHTotpFlag.OATH_TOTP_HMAC_SHA256, parsed.getFlag());
+        Assertions.assertEquals(8, parsed.getDigits());
+        Assertions.assertEquals(60, parsed.getPeriod());
+
+        OTPAuthURI hotp = OTPAuthURI.parse(OTPAuthURI.hotp(null, "alice", secret, 6, 7).toString());
+        Assertions.assertNull(hotp.getIssuer());
+        Assertions.assertEquals(7, hotp.getCounter());
+        Assertions.assertArrayEquals(secret, hotp.getSecret());
+    }
+
+    @Test
+    void testEnroll(){
+        OATHEnrollment enrollment = new OATHEnrollment("Example", 20, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, 6, 30);
+        OTPAuthURI uri = enrollment.enroll("alice");
+
+        Assertions.assertEquals("Example", uri.getIssuer());
+        Assertions.assertEquals("alice", uri.getAccount());
+        Assertions.assertEquals(20, uri.getSecret().length);
+        Assertions.assertFalse(Arrays.equals(uri.getSecret(), enrollment.enroll("alice").getSecret()));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new OATHEnrollment("Example", 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, 6, 30));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new OATHEnrollment("Example", 20, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, 9, 30));
+    }
+
+    @Test
+    void testBulkEnroll() throws IOException {
+        OATHEnrollment enrollment = new OATHEnrollment("Example", 32, OATHTotpFlag.OATH_TOTP_HMAC_SHA512, 8, 30);
+        List<String> accounts = new ArrayList<>();
+
+        for(int i = 0; i < 10000; i++){
+            accounts.add("user" + i + "@example.com");
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            Assertions.assertEquals(accounts.size(), enrollment.enroll(accounts.iterator(), out, pool));
+        } finally {
+            pool.shutdown();
+        }
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+        Assertions.assertEquals(accounts.size(), lines.length);
+        Set<String> secrets = new HashSet<>();
+
+        for(int i = 0; i < lines.length; i++){
+            OTPAuthURI uri = OTPAuthURI.parse(lines[i]);
+
+            Assertions.assertEquals(accounts.get(i), uri.getAccount(), "Wrong order at line " + i);
+            Assertions.assertEquals("Example", uri.getIssuer());
+            Assertions.assertEquals(32, uri.getSecret().length);
+            Assertions.assertEquals(OATHTotpFlag.OATH_TOTP_HMAC_SHA512, uri.getFlag());
+            Assertions.assertEquals(8, uri.getDigits());
+            secrets.add(Base64.getEncoder().encodeToString(uri.getSecret()));
+        }
+
+        Assertions.assertEquals(accounts.size(), secrets.size(), "Secrets are not distinct");
+    }
+}
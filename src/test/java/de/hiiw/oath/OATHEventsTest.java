@@ -0,0 +1,92 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Testing the flight recorder events of the wrapper
+ */
+class OATHEventsTest {
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void testRecordedEvents(@TempDir Path directory) throws IOException {
+        Assumptions.assumeTrue(OATHEvents.AVAILABLE, "Flight recorder not available");
+
+        try(OATH oath = OATH.create("java")){
+            Assertions.assertFalse(OATHEvents.isEnabled(OATHMetrics.Operation.TOTP_VALIDATE));
+            Assertions.assertNull(OATHEvents.begin(OATHMetrics.Operation.TOTP_VALIDATE));
+
+            Path file = directory.resolve("oath.jfr");
+
+            try(Recording recording = new Recording()){
+                recording.enable("de.hiiw.oath.Validate").withThreshold(Duration.ZERO);
+                recording.enable("de.hiiw.oath.Generate").withThreshold(Duration.ZERO);
+                recording.start();
+
+                Assertions.assertTrue(OATHEvents.isEnabled(OATHMetrics.Operation.HOTP_VALIDATE));
+                Assertions.assertFalse(OATHEvents.isEnabled(OATHMetrics.Operation.HEX_ENCODE));
+
+                String otp = oath.totpGenerate(secret, 1030, 30, 0, 6, OATHTotpFlag.OATH_TOTP_HMAC_SHA256);
+                Assertions.assertEquals(1, oath.validateTotpPosition(secret, 1000, 30, 0, 3, OATHTotpFlag.OATH_TOTP_HMAC_SHA256, otp));
+                Assertions.assertEquals(OATH.INVALID_POSITION, oath.validateHotpPosition(secret, 0, 2, "000000"));
+                oath.bin2Hex(secret);
+
+                recording.stop();
+                recording.dump(file);
+            }
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().startsWith("de.hiiw.oath."))
+                    .collect(Collectors.toList());
+            Assertions.assertEquals(3, events.size(), "Codec events recorded without being enabled");
+
+            RecordedEvent generate = events.stream().filter(event -> "TOTP_GENERATE".equals(event.getString("operation"))).findFirst().get();
+            Assertions.assertEquals("de.hiiw.oath.Generate", generate.getEventType().getName());
+            Assertions.assertEquals("OATH_TOTP_HMAC_SHA256", generate.getString("algorithm"));
+            Assertions.assertEquals("JavaOATHEngine", generate.getString("engine"));
+            Assertions.assertEquals("OATH_OK", generate.getString("returnCode"));
+
+            RecordedEvent totp = events.stream().filter(event -> "TOTP_VALIDATE".equals(event.getString("operation"))).findFirst().get();
+            Assertions.assertEquals("OATH_OK", totp.getString("returnCode"));
+            Assertions.assertEquals(3, totp.getLong("window"));
+            Assertions.assertEquals(1, totp.getInt("position"));
+
+            RecordedEvent hotp = events.stream().filter(event -> "HOTP_VALIDATE".equals(event.getString("operation"))).findFirst().get();
+            Assertions.assertEquals("OATH_INVALID_OTP", hotp.getString("returnCode"));
+            Assertions.assertEquals(2, hotp.getLong("window"));
+            Assertions.assertEquals(0, hotp.getInt("position"));
+        }
+    }
+}
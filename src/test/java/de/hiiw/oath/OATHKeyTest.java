@@ -0,0 +1,88 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Testing prepared secrets and the key cache
+ */
+class OATHKeyTest {
+    private static OATH oath;
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @BeforeAll
+    static void setup(){
+        oath = OATH.getInstance();
+    }
+
+    @Test
+    void testKeyMatchesSecret(){
+        OATHKey key = new OATHKey(secret, OATHTotpFlag.OATH_TOTP_HMAC_SHA1);
+
+        for(OATHTotpFlag flag : OATHTotpFlag.values()){
+            for(long time = 0; time < 3000; time += 30){
+                Assertions.assertEquals(oath.totpGenerate(secret, time, 30, 0, 8, flag), oath.totpGenerate(key, time, 30, 0, 8, flag),
+                        "TOTP value " + time + " with " + flag + " not matching");
+            }
+        }
+
+        Assertions.assertEquals("520489", oath.hotpGenerate(key, 9, 6, LibOATH.OATH_HOTP_DYNAMIC_TRUNCATION));
+        Assertions.assertEquals(9, oath.validateHotpPosition(key, 0, 10, "520489"));
+        Assertions.assertEquals(-1, oath.validateTotpPosition(key, 89, 30, 0, 1, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "94287082"));
+        Assertions.assertEquals(1, oath.totpValidate(key, 89, 30, 0, 1, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "94287082").getOtpCounter());
+    }
+
+    @Test
+    void testKeyCopiesSecret(){
+        byte[] copy = secret.clone();
+        OATHKey key = new OATHKey(copy);
+        copy[0] = 0;
+
+        Assertions.assertEquals("755224", oath.hotpGenerate(key, 0, 6, LibOATH.OATH_HOTP_DYNAMIC_TRUNCATION));
+    }
+
+    @Test
+    void testEmptySecret(){
+        Assertions.assertEquals(oath.hotpGenerate(new byte[0], 0, 6, 0), oath.hotpGenerate(new OATHKey(new byte[0]), 0, 6, 0));
+    }
+
+    @Test
+    void testCacheEviction(){
+        OATHKeyCache<String> cache = new OATHKeyCache<>(2);
+        OATHKey first = cache.get("first", id -> secret);
+        cache.get("second", id -> secret);
+
+        Assertions.assertSame(first, cache.get("first"), "Cached key not returned");
+
+        cache.get("third", id -> secret);
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertNull(cache.get("second"), "Least recently used key not evicted");
+        Assertions.assertNotNull(cache.get("first"));
+
+        Assertions.assertSame(first, cache.invalidate("first"));
+        Assertions.assertNull(cache.get("first"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new OATHKeyCache<String>(0));
+    }
+}
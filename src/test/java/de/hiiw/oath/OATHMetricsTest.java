@@ -0,0 +1,104 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Testing the metrics of the wrapper and the in process recorder
+ */
+class OATHMetricsTest {
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void testRecordedOperations(){
+        try(OATH oath = OATH.create("java")){
+            OATHMetricsRecorder recorder = new OATHMetricsRecorder(2);
+            oath.setMetrics(recorder);
+
+            oath.totpGenerate(secret, 1000, 30, 0, 6);
+            Assertions.assertThrows(OATHException.class, () -> oath.totpGenerate(secret, 1000, 30, 0, 9));
+
+            Assertions.assertEquals(1, oath.validateTotpPosition(secret, 1000, 30, 0, 5, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                    oath.totpGenerate(secret, 1030, 30, 0, 6)));
+            Assertions.assertEquals(-4, oath.validateTotpPosition(new OATHKey(secret), 1000, 30, 0, 5, OATHTotpFlag.OATH_TOTP_HMAC_SHA256,
+                    oath.totpGenerate(secret, 880, 30, 0, 6, OATHTotpFlag.OATH_TOTP_HMAC_SHA256)));
+            oath.validateTotpPosition(secret, 1000, 30, 0, 5, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "12345");
+            Assertions.assertThrows(OATHException.class, () -> oath.totpValidate(secret, 1000, 30, 0, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "000000"));
+
+            Assertions.assertEquals(3, oath.validateHotpPosition(secret, 0, 10, oath.hotpGenerate(secret, 3, 6, 0)));
+            Assertions.assertThrows(OATHException.class, () -> oath.base32Decode("1"));
+            oath.bin2Hex(secret);
+
+            OATHMetricsRecorder.Snapshot snapshot = recorder.snapshot();
+            Assertions.assertEquals(4, snapshot.getCount(OATHMetrics.Operation.TOTP_GENERATE));
+            Assertions.assertEquals(1, snapshot.getCount(OATHMetrics.Operation.TOTP_GENERATE, OATHReturnCode.OATH_INVALID_DIGITS));
+            Assertions.assertEquals(4, snapshot.getCount(OATHMetrics.Operation.TOTP_VALIDATE));
+            Assertions.assertEquals(2, snapshot.getCount(OATHMetrics.Operation.TOTP_VALIDATE, OATHReturnCode.OATH_OK));
+            Assertions.assertEquals(1, snapshot.getCount(OATHMetrics.Operation.TOTP_VALIDATE, OATHReturnCode.OATH_INVALID_DIGITS));
+            Assertions.assertEquals(1, snapshot.getCount(OATHMetrics.Operation.TOTP_VALIDATE, OATHReturnCode.OATH_INVALID_OTP));
+            Assertions.assertEquals(1, snapshot.getCount(OATHMetrics.Operation.HOTP_VALIDATE, OATHReturnCode.OATH_OK));
+            Assertions.assertEquals(1, snapshot.getCount(OATHMetrics.Operation.BASE32_DECODE, OATHReturnCode.OATH_INVALID_BASE32));
+            Assertions.assertEquals(1, snapshot.getCount(OATHMetrics.Operation.HEX_ENCODE));
+            Assertions.assertEquals(2, snapshot.getCount(OATHTotpFlag.OATH_TOTP_HMAC_SHA256));
+
+            //Positions beyond the maximum are counted at the edges
+            Assertions.assertEquals(1, snapshot.getPositionCount(OATHMetrics.Operation.TOTP_VALIDATE, 1));
+            Assertions.assertEquals(1, snapshot.getPositionCount(OATHMetrics.Operation.TOTP_VALIDATE, -2));
+            Assertions.assertEquals(1, snapshot.getPositionCount(OATHMetrics.Operation.HOTP_VALIDATE, 2));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> snapshot.getPositionCount(OATHMetrics.Operation.HEX_ENCODE, 0));
+
+            OATHMetricsRecorder.LatencySnapshot latency = snapshot.getLatency(OATHMetrics.Operation.TOTP_VALIDATE);
+            Assertions.assertEquals(4, latency.getCount());
+            Assertions.assertTrue(latency.getMax() > 0);
+            Assertions.assertTrue(latency.getValueAtPercentile(50) <= latency.getValueAtPercentile(100));
+            Assertions.assertEquals(latency.getMax(), latency.getValueAtPercentile(100));
+
+            //Disabled metrics record nothing
+            oath.setMetrics(null);
+            oath.bin2Hex(secret);
+            Assertions.assertEquals(1, recorder.snapshot().getCount(OATHMetrics.Operation.HEX_ENCODE));
+
+            recorder.reset();
+            Assertions.assertEquals(0, recorder.snapshot().getLatency(OATHMetrics.Operation.TOTP_VALIDATE).getCount());
+        }
+    }
+
+    @Test
+    void testHistogramBuckets(){
+        int previous = -1;
+
+        for(long value = 0; value < 1 << 20; value++){
+            int bucket = OATHMetricsRecorder.bucket(value);
+
+            Assertions.assertTrue(bucket == previous || bucket == previous + 1, "Buckets not continuous at " + value);
+            Assertions.assertTrue(OATHMetricsRecorder.lowestValue(bucket) <= value);
+            Assertions.assertTrue(value - OATHMetricsRecorder.lowestValue(bucket) <= value / 32, "Bucket too wide at " + value);
+            previous = bucket;
+        }
+
+        Assertions.assertEquals((1L << 57) - 1, Long.MAX_VALUE - OATHMetricsRecorder.lowestValue(OATHMetricsRecorder.bucket(Long.MAX_VALUE)),
+                "Width of the last bucket");
+        Assertions.assertEquals(0, OATHMetricsRecorder.bucket(-1));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Testing the off-heap secret store
+ */
+class OATHSecretStoreTest {
+    private static OATH oath;
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @BeforeAll
+    static void setup(){
+        oath = OATH.getInstance();
+    }
+
+    @Test
+    void testHandleMatchesSecret(){
+        //Longer than the block size of every hash algorithm to cover key hashing
+        byte[] longSecret = new byte[200];
+
+        for(int i = 0; i < longSecret.length; i++){
+            longSecret[i] = (byte) (i * 31);
+        }
+
+        try(OATHSecretStore store = new OATHSecretStore(256, 4)){
+            for(byte[] current : new byte[][]{secret, longSecret, new byte[0]}){
+                int handle = store.add(current);
+
+                for(OATHTotpFlag flag : OATHTotpFlag.values()){
+                    for(long time = 0; time < 600; time += 30){
+                        Assertions.assertEquals(oath.totpGenerate(current, time, 30, 0, 8, flag), oath.totpGenerate(store, handle, time, 30, 0, 8, flag),
+                                "TOTP value " + time + " with " + flag + " not matching");
+                    }
+                }
+
+                Assertions.assertEquals(current.length, store.length(handle));
+                Assertions.assertEquals(oath.hotpGenerate(current, 9, 6, 0), oath.hotpGenerate(store, handle, 9, 6, 0));
+            }
+
+            int handle = store.add(ByteBuffer.wrap(secret));
+            Assertions.assertEquals(9, oath.validateHotpPosition(store, handle, 0, 10, "520489"));
+            Assertions.assertEquals(-1, oath.validateTotpPosition(store, handle, 89, 30, 0, 1, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "94287082"));
+            Assertions.assertEquals(OATH.INVALID_POSITION, oath.validateTotpPosition(store, handle, 89, 30, 0, 1,
+                    OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "00000000"));
+            Assertions.assertEquals(OATH.INVALID_DIGITS_POSITION, oath.validateHotpPosition(store, handle, 0, 10, "12345"));
+        }
+    }
+
+    @Test
+    void testRemoveZeroes(){
+        OATHSecretStore store = new OATHSecretStore(32, 2);
+        int first = store.add(secret);
+        int second = store.add(secret);
+        int third = store.add(secret);
+        ByteBuffer view = store.secret(second);
+
+        Assertions.assertEquals(3, store.size());
+        store.remove(second);
+        Assertions.assertEquals(2, store.size());
+        Assertions.assertFalse(store.contains(second));
+
+        for(int i = 0; i < view.limit(); i++){
+            Assertions.assertEquals(0, view.get(i), "Removed secret not zeroed");
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.remove(second));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> oath.totpGenerate(store, second, 0, 30, 0, 6,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1));
+
+        //The slot is reused with another generation, the old handle stays invalid
+        int reused = store.add(new byte[]{1, 2, 3});
+        Assertions.assertNotEquals(second, reused);
+        Assertions.assertFalse(store.contains(second));
+        Assertions.assertEquals(3, store.length(reused));
+        Assertions.assertEquals(20, store.length(first));
+        Assertions.assertEquals(20, store.length(third));
+
+        ByteBuffer firstView = store.secret(first);
+        store.close();
+        Assertions.assertEquals(0, store.size());
+        Assertions.assertFalse(store.contains(first));
+        Assertions.assertEquals(0, firstView.get(0), "Closed store not zeroed");
+    }
+
+    @Test
+    void testInvalidArguments(){
+        OATHSecretStore store = new OATHSecretStore(8, 16);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.add(secret));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.length(0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.length(-1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.length(1 << 24));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new OATHSecretStore(-1, 16));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new OATHSecretStore(64, 0));
+    }
+}
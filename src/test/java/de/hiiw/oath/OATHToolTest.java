@@ -0,0 +1,64 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Testing the command line tool
+ */
+class OATHToolTest {
+    private static final String SECRET = "3132333435363738393031323334353637383930";
+
+    private static String run(int exitCode, String... args){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        try(OATH oath = OATH.create("java")){
+            Assertions.assertEquals(exitCode, OATHTool.run(oath, args, new PrintStream(out, true), new PrintStream(err, true)), err::toString);
+        }
+
+        return exitCode == 0 ? out.toString().trim() : err.toString().trim();
+    }
+
+    @Test
+    void testGenerate(){
+        //RFC 4226 and RFC 6238 test vectors
+        Assertions.assertEquals("755224\n287082\n359152", run(0, SECRET, "-w", "2").replace(System.lineSeparator(), "\n"));
+        Assertions.assertEquals("338314", run(0, "--counter=4", SECRET));
+        Assertions.assertEquals("94287082", run(0, "--totp", "-d", "8", "-N", "59", SECRET));
+        Assertions.assertEquals("46119246", run(0, "--totp=sha256", "--digits=8", "--now=59", SECRET + "313233343536373839303132"));
+        Assertions.assertEquals("755224", run(0, "-b", "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ"));
+    }
+
+    @Test
+    void testValidate(){
+        Assertions.assertEquals("3", run(0, "-w", "5", SECRET, "969429"));
+        Assertions.assertEquals("-1", run(0, "--totp", "-N", "89", "-w", "1", SECRET, "287082"));
+        Assertions.assertTrue(run(1, "-w", "2", SECRET, "969429").contains("not found in range 0 .. 2"));
+        Assertions.assertTrue(run(1, "--totp=md5", SECRET).contains("Unknown totp mode"));
+        Assertions.assertTrue(run(1, "-d").contains("Missing value"));
+        Assertions.assertTrue(run(1, "XY").contains("Hex string is invalid"));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Testing the usersfile authentication
+ */
+class OATHUsersFileTest {
+    private static OATH oath;
+    private static final String SECRET = "3132333435363738393031323334353637383930";
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @BeforeAll
+    static void setup(){
+        oath = OATH.getInstance();
+    }
+
+    private static Path write(Path directory, String... lines) throws IOException {
+        return Files.write(directory.resolve("users.oath"), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testAuthenticate(@TempDir Path directory) throws IOException {
+        Path file = write(directory,
+                "# comment",
+                "HOTP\talice\t-\t" + SECRET,
+                "HOTP/T30/8\tbob\t1234\t" + SECRET);
+
+        try(OATHUsersFile users = OATHUsersFile.open(oath, file)){
+            Assertions.assertEquals(2, users.size());
+            assertError(OATHReturnCode.OATH_UNKNOWN_USER, () -> users.authenticate("eve", "755224", 10, ""));
+            assertError(OATHReturnCode.OATH_BAD_PASSWORD, () -> users.authenticate("alice", "755224", 10, "secret"));
+            assertError(OATHReturnCode.OATH_INVALID_OTP, () -> users.authenticate("alice", "000000", 10, ""));
+
+            Assertions.assertEquals(0, users.authenticate("alice", oath.hotpGenerate(secret, 2, 6, 0), 10, "", 1000));
+            Assertions.assertEquals(3, users.getMovingFactor("alice"));
+            assertError(OATHReturnCode.OATH_REPLAYED_OTP, () -> users.authenticate("alice", oath.hotpGenerate(secret, 2, 6, 0), 10, ""));
+            assertError(OATHReturnCode.OATH_INVALID_OTP, () -> users.authenticate("alice", oath.hotpGenerate(secret, 1, 6, 0), 10, ""));
+            Assertions.assertEquals(1000, users.authenticate("alice", oath.hotpGenerate(secret, 3, 6, 0), 0, "", 2000));
+
+            String otp = oath.totpGenerate(secret, 1030, 30, 0, 8);
+            assertError(OATHReturnCode.OATH_BAD_PASSWORD, () -> users.authenticate("bob", otp, 1, "", 1000));
+            assertError(OATHReturnCode.OATH_INVALID_OTP, () -> users.authenticate("bob", otp.substring(2), 1, "1234", 1000));
+            users.authenticate("bob", otp, 1, "1234", 1000);
+            Assertions.assertEquals(34, users.getMovingFactor("bob"));
+            //An older otp of the window is a replay
+            assertError(OATHReturnCode.OATH_REPLAYED_OTP, () -> users.authenticate("bob", oath.totpGenerate(secret, 1000, 30, 0, 8), 1, "1234", 1030));
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Assertions.assertEquals("# comment", lines.get(0));
+        Assertions.assertTrue(lines.get(1).startsWith("HOTP\talice\t-\t" + SECRET + "\t4\t" + oath.hotpGenerate(secret, 3, 6, 0) + "\t"));
+        Assertions.assertTrue(lines.get(2).startsWith("HOTP/T30/8\tbob\t1234\t" + SECRET + "\t34\t"));
+        Assertions.assertEquals(0, Files.size(directory.resolve("users.oath.log")));
+
+        try(OATHUsersFile users = OATHUsersFile.open(oath, file)){
+            Assertions.assertEquals(4, users.getMovingFactor("alice"));
+            assertError(OATHReturnCode.OATH_REPLAYED_OTP, () -> users.authenticate("alice", oath.hotpGenerate(secret, 3, 6, 0), 10, ""));
+        }
+    }
+
+    @Test
+    void testLogReplayedAndLocked(@TempDir Path directory) throws IOException {
+        Path file = write(directory, "HOTP alice - " + SECRET + " 5");
+        OATHUsersFile users = OATHUsersFile.open(oath, file);
+        users.authenticate("alice", oath.hotpGenerate(secret, 7, 6, 0), 10, "");
+
+        assertError(OATHReturnCode.OATH_FILE_LOCK_ERROR, () -> OATHUsersFile.open(oath, file));
+        Assertions.assertEquals(1, Files.readAllLines(directory.resolve("users.oath.log")).size());
+
+        //Simulate a crash: copy the file and the log (with a torn record) before they are compacted
+        Path copy = Files.createDirectory(directory.resolve("copy"));
+        Files.copy(file, copy.resolve("users.oath"));
+        Files.write(copy.resolve("users.oath.log"), (new String(Files.readAllBytes(directory.resolve("users.oath.log")),
+                StandardCharsets.UTF_8) + "alice\t9").getBytes(StandardCharsets.UTF_8));
+        users.close();
+
+        try(OATHUsersFile recovered = OATHUsersFile.open(oath, copy.resolve("users.oath"))){
+            Assertions.assertEquals(8, recovered.getMovingFactor("alice"));
+        }
+
+        assertError(OATHReturnCode.OATH_NO_SUCH_FILE, () -> OATHUsersFile.open(oath, directory.resolve("missing")));
+        Path corrupt = write(copy, "HOTP alice - 3g");
+        assertError(OATHReturnCode.OATH_INVALID_HEX, () -> OATHUsersFile.open(oath, corrupt));
+    }
+
+    @Test
+    void testUnsignedCounterReplayed(@TempDir Path directory) throws IOException {
+        //Counters of 2^63 or more are logged unsigned, the records after them are replayed as well
+        Path file = write(directory, "HOTP alice - " + SECRET + " 9223372036854775808", "HOTP bob - " + SECRET);
+        Path copy = Files.createDirectory(directory.resolve("copy"));
+
+        try(OATHUsersFile users = OATHUsersFile.open(oath, file)){
+            users.authenticate("alice", oath.hotpGenerate(secret, Long.MIN_VALUE + 2, 6, 0), 10, "");
+            users.authenticate("bob", oath.hotpGenerate(secret, 4, 6, 0), 10, "");
+
+            Files.copy(file, copy.resolve("users.oath"));
+            Files.copy(directory.resolve("users.oath.log"), copy.resolve("users.oath.log"));
+        }
+
+        try(OATHUsersFile recovered = OATHUsersFile.open(oath, copy.resolve("users.oath"))){
+            Assertions.assertEquals(Long.MIN_VALUE + 3, recovered.getMovingFactor("alice"));
+            Assertions.assertEquals(5, recovered.getMovingFactor("bob"));
+        }
+    }
+
+    @Test
+    void testConcurrentAuthenticationsAndCompaction(@TempDir Path directory) throws IOException {
+        String[] lines = IntStream.range(0, 64).mapToObj(i -> "HOTP user" + i + " - " + SECRET).toArray(String[]::new);
+        Path file = write(directory, lines);
+        AtomicInteger accepted = new AtomicInteger();
+
+        try(OATHUsersFile users = OATHUsersFile.open(oath, file, 50)){
+            IntStream.range(0, 64).parallel().forEach(user -> {
+                for(int counter = 0; counter < 20; counter++){
+                    users.authenticate("user" + user, oath.hotpGenerate(secret, counter, 6, 0), 0, "");
+                    accepted.incrementAndGet();
+                }
+            });
+
+            Assertions.assertEquals(64 * 20, accepted.get());
+        }
+
+        try(OATHUsersFile users = OATHUsersFile.open(oath, file)){
+            for(int user = 0; user < 64; user++){
+                Assertions.assertEquals(20, users.getMovingFactor("user" + user));
+            }
+        }
+    }
+
+    private static void assertError(OATHReturnCode expected, Runnable call){
+        OATHException exception = Assertions.assertThrows(OATHException.class, call::run);
+        Assertions.assertEquals(expected, exception.getErrorCode(), "OATH not throwing the correct error code");
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Testing totp and hotp against the test vectors of RFC 4226 and RFC 6238
+ */
+class OTPTest {
+    private static OATH oath;
+    private static JavaOATHEngine javaEngine;
+    private byte[] sha1Secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private byte[] sha256Secret = "12345678901234567890123456789012".getBytes(StandardCharsets.US_ASCII);
+    private byte[] sha512Secret = "1234567890123456789012345678901234567890123456789012345678901234".getBytes(StandardCharsets.US_ASCII);
+    private String[] hotpValues = {"755224", "287082", "359152", "969429", "338314", "254676", "287922", "162583", "399871", "520489"};
+    private long[] totpTimes = {59L, 1111111109L, 1111111111L, 1234567890L, 2000000000L, 20000000000L};
+    private String[] totpSha1Values = {"94287082", "07081804", "14050471", "89005924", "69279037", "65353130"};
+    private String[] totpSha256Values = {"46119246", "68084774", "67062674", "91819424", "90698825", "77737706"};
+    private String[] totpSha512Values = {"90693936", "25091201", "99943326", "93441116", "38618901", "47863826"};
+
+    @BeforeAll
+    static void setup(){
+        oath = OATH.getInstance();
+        javaEngine = new JavaOATHEngine();
+    }
+
+    @Test
+    void testHotpGenerate(){
+        for(int i = 0; i < hotpValues.length; i++){
+            Assertions.assertEquals(hotpValues[i], oath.hotpGenerate(sha1Secret, i, 6, LibOATH.OATH_HOTP_DYNAMIC_TRUNCATION),
+                    "HOTP value " + i + " not matching");
+            Assertions.assertEquals(hotpValues[i], javaEngine.hotpGenerate(sha1Secret, i, 6, LibOATH.OATH_HOTP_DYNAMIC_TRUNCATION),
+                    "Java HOTP value " + i + " not matching");
+        }
+    }
+
+    @Test
+    void testHotpValidate(){
+        Assertions.assertEquals(7, oath.validateHotpPosition(sha1Secret, 0, 10, hotpValues[7]));
+        Assertions.assertEquals(7, javaEngine.hotpValidatePosition(sha1Secret, 0, 10, hotpValues[7]));
+        Assertions.assertEquals(OATH.INVALID_POSITION, oath.validateHotpPosition(sha1Secret, 0, 5, hotpValues[7]),
+                "Validating an otp outside of the window");
+
+        OATHException exception = Assertions.assertThrows(OATHException.class, () -> oath.hotpValidate(sha1Secret, 0, 5, hotpValues[7]),
+                "Validating an otp outside of the window");
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_OTP, exception.getErrorCode(),
+                "OATH not throwing the correct error code");
+    }
+
+    @Test
+    void testTotpGenerate(){
+        for(int i = 0; i < totpTimes.length; i++){
+            Assertions.assertEquals(totpSha1Values[i], oath.totpGenerate(sha1Secret, totpTimes[i], 30, 0, 8),
+                    "TOTP SHA1 value " + i + " not matching");
+            Assertions.assertEquals(totpSha256Values[i], oath.totpGenerate(sha256Secret, totpTimes[i], 30, 0, 8, OATHTotpFlag.OATH_TOTP_HMAC_SHA256),
+                    "TOTP SHA256 value " + i + " not matching");
+            Assertions.assertEquals(totpSha512Values[i], oath.totpGenerate(sha512Secret, totpTimes[i], 30, 0, 8, OATHTotpFlag.OATH_TOTP_HMAC_SHA512),
+                    "TOTP SHA512 value " + i + " not matching");
+            Assertions.assertEquals(totpSha1Values[i], javaEngine.totpGenerate(sha1Secret, totpTimes[i], 30, 0, 8, OATHTotpFlag.OATH_TOTP_HMAC_SHA1),
+                    "Java TOTP SHA1 value " + i + " not matching");
+        }
+    }
+
+    @Test
+    void testTotpValidate(){
+        OATHTotpValidateResult result = oath.totpValidate(sha1Secret, 1111111109L + 60, 30, 0, 2,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, totpSha1Values[1]);
+        Assertions.assertEquals(-2, result.getOtpPos());
+        Assertions.assertEquals(1111111109L / 30, result.getOtpCounter());
+
+        Assertions.assertEquals(OATHReturnCode.OATH_OK, result.getReturnCode());
+        Assertions.assertEquals(1, javaEngine.totpValidatePosition(sha1Secret, 1111111109L - 30, 30, 0, 2,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, totpSha1Values[1]));
+    }
+
+    @Test
+    void testTotpValidateHolder(){
+        OATHTotpValidateResultHolder holder = new OATHTotpValidateResultHolder();
+
+        Assertions.assertTrue(oath.totpValidate(sha1Secret, 1111111109L - 30, 30, 0, 2,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, totpSha1Values[1], holder));
+        Assertions.assertEquals(1, holder.getOtpPos());
+        Assertions.assertEquals(1111111109L / 30, holder.getOtpCounter());
+        Assertions.assertEquals(1, holder.toResult().getOtpPos());
+
+        Assertions.assertFalse(oath.totpValidate(sha1Secret, 59, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "00000000", holder));
+        Assertions.assertEquals(OATH.INVALID_POSITION, holder.getOtpPos());
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_OTP, holder.getReturnCode());
+        Assertions.assertEquals(OATH.INVALID_POSITION, oath.validateTotpPosition(sha1Secret, 59, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "00000000"));
+
+        Assertions.assertFalse(oath.totpValidate(sha1Secret, 59, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "12345", holder), "Otp with unsupported digits");
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_DIGITS, holder.getReturnCode());
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_DIGITS,
+                Assertions.assertThrows(OATHException.class, holder::toResult).getErrorCode());
+    }
+
+    @Test
+    void testNumericValidate(){
+        OATHKey key = new OATHKey(sha1Secret);
+
+        Assertions.assertEquals(-2, oath.validateTotpPosition(key, 1111111109L + 60, 30, 0, 2,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, 7081804, 8), "Leading zero otp not matching");
+        Assertions.assertEquals(OATH.INVALID_POSITION, oath.validateTotpPosition(sha1Secret, 1111111109L + 60, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, 7081804, 8), "Otp outside of the window");
+        Assertions.assertEquals(OATH.INVALID_POSITION, oath.validateTotpPosition(sha1Secret, 59, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, 100000000, 8), "Otp with too many digits");
+        Assertions.assertEquals(OATH.INVALID_POSITION, oath.validateTotpPosition(sha1Secret, 59, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "9428708a"), "Otp with non digits");
+        Assertions.assertEquals(3, oath.validateHotpPosition(sha1Secret, 0, 5, 969429, 6));
+
+        Assertions.assertEquals(OATH.INVALID_DIGITS_POSITION, oath.validateHotpPosition(sha1Secret, 0, 5, 12345, 5),
+                "Otp with unsupported digits");
+        Assertions.assertEquals(OATH.INVALID_DIGITS_POSITION, oath.validateHotpPosition(sha1Secret, 0, 5, "12345"),
+                "Otp with unsupported digits");
+        Assertions.assertEquals(OATH.INVALID_DIGITS_POSITION, oath.validateTotpPosition(sha1Secret, 59, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "123456789"), "Otp with unsupported digits");
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_DIGITS, OATH.positionReturnCode(OATH.INVALID_DIGITS_POSITION));
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_OTP, OATH.positionReturnCode(OATH.INVALID_POSITION));
+        Assertions.assertFalse(OATH.isValidPosition(OATH.INVALID_DIGITS_POSITION));
+        Assertions.assertTrue(OATH.isValidPosition(-3));
+    }
+
+    @Test
+    void testTotpBatch(){
+        byte[][] secrets = {sha1Secret, sha1Secret, sha1Secret, sha1Secret};
+        String[] otps = {totpSha1Values[0], totpSha1Values[1], "00000000", "12345"};
+        long[] times = {totpTimes[0], totpTimes[1] + 30, totpTimes[2], totpTimes[3]};
+        int[] expected = {0, -1, OATH.INVALID_POSITION, OATH.INVALID_POSITION};
+
+        Assertions.assertArrayEquals(expected, oath.validateTotpBatch(secrets, otps, times, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, false));
+
+        OATHKey key = new OATHKey(sha1Secret);
+        OATHKey[] keys = {key, key, key, key};
+        Assertions.assertArrayEquals(expected, oath.validateTotpBatch(keys, otps, times, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, true));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> oath.validateTotpBatch(keys, otps, new long[1], 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, false));
+    }
+
+    @Test
+    void testGenerateBatch(){
+        Random random = new Random(42);
+        int size = 100;
+        byte[][] secrets = new byte[size][];
+        OATHKey[] keys = new OATHKey[size];
+        long[] times = new long[size];
+
+        for(int i = 0; i < size; i++){
+            //Include secrets longer than the hmac block
+            secrets[i] = new byte[1 + random.nextInt(100)];
+            random.nextBytes(secrets[i]);
+            keys[i] = new OATHKey(secrets[i]);
+            times[i] = random.nextInt() & Integer.MAX_VALUE;
+        }
+
+        for(int digits = 6; digits <= 8; digits++){
+            int[] totps = oath.totpGenerateBatch(secrets, times, 30, 0, digits, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, false);
+            int[] hotps = oath.hotpGenerateBatch(keys, times, digits, true);
+
+            for(int i = 0; i < size; i++){
+                Assertions.assertEquals(oath.totpGenerate(secrets[i], times[i], 30, 0, digits), OATH.formatOtp(totps[i], digits));
+                Assertions.assertEquals(oath.hotpGenerate(secrets[i], times[i], digits, 0), OATH.formatOtp(hotps[i], digits));
+            }
+        }
+
+        //RFC 6238 test vectors, with the engine for other hash algorithms
+        for(OATHTotpFlag flag : OATHTotpFlag.values()){
+            byte[] secret = flag == OATHTotpFlag.OATH_TOTP_HMAC_SHA1 ? sha1Secret : flag == OATHTotpFlag.OATH_TOTP_HMAC_SHA256 ? sha256Secret : sha512Secret;
+            String[] values = flag == OATHTotpFlag.OATH_TOTP_HMAC_SHA1 ? totpSha1Values : flag == OATHTotpFlag.OATH_TOTP_HMAC_SHA256 ? totpSha256Values : totpSha512Values;
+            OATHKey[] sameKeys = new OATHKey[totpTimes.length];
+            Arrays.fill(sameKeys, new OATHKey(secret));
+
+            int[] otps = oath.totpGenerateBatch(sameKeys, totpTimes, 30, 0, 8, flag, false);
+
+            for(int i = 0; i < totpTimes.length; i++){
+                Assertions.assertEquals(values[i], OATH.formatOtp(otps[i], 8), "Wrong otp of " + flag + " at " + totpTimes[i]);
+            }
+        }
+
+        Assertions.assertThrows(OATHException.class, () -> oath.hotpGenerateBatch(keys, times, 5, false));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> oath.hotpGenerateBatch(keys, new long[1], 6, false));
+    }
+
+    @Test
+    void testGenerateRange(){
+        int[] hotps = oath.generateHotpRange(sha1Secret, 0, hotpValues.length, 6);
+
+        for(int i = 0; i < hotpValues.length; i++){
+            Assertions.assertEquals(hotpValues[i], OATH.formatOtp(hotps[i], 6));
+        }
+
+        OATHKey key = new OATHKey(sha1Secret);
+        int[] buffer = new int[hotpValues.length + 2];
+        oath.generateHotpRange(key, 3, 6, buffer, 2, hotpValues.length - 3);
+        Assertions.assertArrayEquals(Arrays.copyOfRange(hotps, 3, hotpValues.length), Arrays.copyOfRange(buffer, 2, hotpValues.length - 1));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> oath.generateHotpRange(key, 0, 6, buffer, 5, hotpValues.length));
+
+        for(OATHTotpFlag flag : OATHTotpFlag.values()){
+            byte[] secret = flag == OATHTotpFlag.OATH_TOTP_HMAC_SHA1 ? sha1Secret : flag == OATHTotpFlag.OATH_TOTP_HMAC_SHA256 ? sha256Secret : sha512Secret;
+            int[] totps = oath.generateTotpRange(secret, 1111111109L, 1111111109L + 6 * 30, 30, 0, 8, flag);
+
+            Assertions.assertEquals(7, totps.length);
+
+            for(int i = 0; i < totps.length; i++){
+                long time = 1111111109L + i * 30L;
+                Assertions.assertEquals(oath.totpGenerate(secret, time, 30, 0, 8, flag), OATH.formatOtp(totps[i], 8), "Wrong otp of " + flag + " at " + time);
+            }
+        }
+
+        Assertions.assertEquals(0, oath.generateTotpRange(sha1Secret, 1000, 900, 30, 0, 6, OATHTotpFlag.OATH_TOTP_HMAC_SHA1).length);
+        Assertions.assertThrows(OATHException.class, () -> oath.generateHotpRange(sha1Secret, 0, 10, 9));
+    }
+
+    @Test
+    void testRangeSpliterator(){
+        OATHKey key = new OATHKey(sha1Secret);
+        int[] expected = oath.generateHotpRange(key, 1000, 10000, 6);
+
+        Assertions.assertArrayEquals(expected, StreamSupport.intStream(oath.hotpRangeSpliterator(key, 1000, 10000, 6), false).toArray());
+        Assertions.assertArrayEquals(expected, StreamSupport.intStream(oath.hotpRangeSpliterator(key, 1000, 10000, 6), true).toArray());
+
+        //Splitting after a partial traversal keeps the order
+        Spliterator.OfInt spliterator = oath.hotpRangeSpliterator(key, 1000, 10000, 6);
+        int[] first = new int[1];
+        Assertions.assertTrue(spliterator.tryAdvance((int otp) -> first[0] = otp));
+        Spliterator.OfInt prefix = spliterator.trySplit();
+        Assertions.assertEquals(9999, prefix.estimateSize() + spliterator.estimateSize());
+
+        IntStream.Builder builder = IntStream.builder();
+        prefix.forEachRemaining((int otp) -> builder.add(otp));
+        spliterator.forEachRemaining((int otp) -> builder.add(otp));
+        Assertions.assertEquals(expected[0], first[0]);
+        Assertions.assertArrayEquals(Arrays.copyOfRange(expected, 1, expected.length), builder.build().toArray());
+
+        int[] totps = oath.generateTotpRange(key, 0, 30 * 999, 30, 0, 8, OATHTotpFlag.OATH_TOTP_HMAC_SHA256);
+        Assertions.assertArrayEquals(totps, StreamSupport.intStream(oath.totpRangeSpliterator(key, 0, 30 * 999, 30, 0, 8,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA256), true).toArray());
+    }
+
+    @Test
+    void testInvalidTotp(){
+        OATHException exception = Assertions.assertThrows(OATHException.class, () -> oath.totpValidate(sha1Secret, 59, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "00000000"), "Validating an invalid otp");
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_OTP, exception.getErrorCode(),
+                "OATH not throwing the correct error code");
+
+        Assertions.assertEquals(0, exception.getStackTrace().length, "Exception should be stackless");
+        Assertions.assertEquals("OATH_INVALID_OTP (-6) The OTP is not valid", exception.getMessage());
+
+        exception = Assertions.assertThrows(OATHException.class, () -> oath.totpGenerate(sha1Secret, 59, 30, 0, 5),
+                "Generating an otp with unsupported digits");
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_DIGITS, exception.getErrorCode(),
+                "OATH not throwing the correct error code");
+
+        exception = Assertions.assertThrows(OATHException.class, () -> oath.totpValidate(sha1Secret, 59, 30, 0, 1,
+                OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "12345"), "Validating an otp with unsupported digits");
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_DIGITS, exception.getErrorCode(),
+                "OATH not throwing the correct error code");
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Testing the drift learning validator
+ */
+class TotpDriftValidatorTest {
+    private static OATH oath;
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @BeforeAll
+    static void setup(){
+        oath = OATH.getInstance();
+    }
+
+    @Test
+    void testDriftLearned(){
+        TotpDriftValidator validator = new TotpDriftValidator(oath, 5, 100);
+        OATHKey key = new OATHKey(secret);
+
+        //The token of user 1 runs three steps ahead
+        Assertions.assertEquals(3, validator.validatePosition(1, key, 1000, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                oath.totpGenerate(secret, 1090, 30, 0, 6)));
+        Assertions.assertEquals(1, validator.getSearchHits());
+        Assertions.assertEquals(3, validator.getDrift(1, 1000, 30, 0));
+
+        for(long now = 2000; now < 5000; now += 30){
+            Assertions.assertEquals(3, validator.validatePosition(1, key, now, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                    oath.totpGenerate(secret, now + 90, 30, 0, 6)));
+        }
+
+        Assertions.assertEquals(100, validator.getLearnedHits());
+        Assertions.assertEquals(1, validator.getSearchHits());
+
+        //The drift changes, the window is searched again
+        Assertions.assertEquals(-2, validator.validatePosition(1, secret, 6000, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                oath.totpGenerate(secret, 5940, 30, 0, 6)));
+        Assertions.assertEquals(2, validator.getSearchHits());
+        Assertions.assertEquals(-2, validator.getDrift(1, 6000, 30, 0));
+
+        //Outside of the window
+        Assertions.assertEquals(OATH.INVALID_POSITION, validator.validatePosition(1, key, 6000, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                oath.totpGenerate(secret, 6600, 30, 0, 6)));
+        Assertions.assertEquals(1, validator.getMisses());
+        Assertions.assertEquals(OATH.INVALID_DIGITS_POSITION, validator.validatePosition(1, key, 6000, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "12345"));
+        Assertions.assertEquals(-2, validator.getDrift(1, 6000, 30, 0), "Invalid otps changed the drift");
+
+        validator.reset(1);
+        Assertions.assertEquals(0, validator.getDrift(1, 6000, 30, 0));
+        Assertions.assertEquals(0, validator.size());
+    }
+
+    @Test
+    void testSearchCost(){
+        try(OATH java = OATH.create("java")){
+            //Counts the single step validations of the engine
+            AtomicInteger hmacs = new AtomicInteger();
+            OATHEngine engine = java.getEngine();
+            OATHEngine counting = (OATHEngine) Proxy.newProxyInstance(OATHEngine.class.getClassLoader(), new Class<?>[]{OATHEngine.class},
+                    (proxy, method, args) -> {
+                        if(method.getName().equals("totpValidatePosition")){
+                            hmacs.incrementAndGet();
+                        }
+
+                        return method.invoke(engine, args);
+                    });
+
+            OATH counted = new OATH(counting);
+            OATHMetricsRecorder recorder = new OATHMetricsRecorder();
+            counted.setMetrics(recorder);
+            TotpDriftValidator validator = new TotpDriftValidator(counted, 5, 100);
+            OATHKey key = new OATHKey(secret);
+
+            Assertions.assertEquals(3, validator.validatePosition(1, key, 1000, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                    oath.totpGenerate(secret, 1090, 30, 0, 6)));
+            hmacs.set(0);
+            recorder.reset();
+
+            //A hit at the learned drift costs one hmac, a miss every position of the window exactly once
+            Assertions.assertEquals(3, validator.validatePosition(1, key, 2000, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                    oath.totpGenerate(secret, 2090, 30, 0, 6)));
+            Assertions.assertEquals(1, hmacs.getAndSet(0));
+
+            Assertions.assertEquals(OATH.INVALID_POSITION, validator.validatePosition(1, key, 2000, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                    oath.totpGenerate(secret, 2600, 30, 0, 6)));
+            Assertions.assertEquals(11, hmacs.get());
+
+            //Every login is measured once, whatever the number of steps searched
+            OATHMetricsRecorder.Snapshot snapshot = recorder.snapshot();
+            Assertions.assertEquals(2, snapshot.getCount(OATHMetrics.Operation.TOTP_VALIDATE));
+            Assertions.assertEquals(1, snapshot.getCount(OATHMetrics.Operation.TOTP_VALIDATE, OATHReturnCode.OATH_OK));
+            Assertions.assertEquals(1, snapshot.getCount(OATHMetrics.Operation.TOTP_VALIDATE, OATHReturnCode.OATH_INVALID_OTP));
+            Assertions.assertEquals(1, snapshot.getPositionCount(OATHMetrics.Operation.TOTP_VALIDATE, 3));
+        }
+    }
+
+    @Test
+    void testDriftHistogram(){
+        TotpDriftValidator validator = new TotpDriftValidator(oath, 2, 100, 10);
+
+        for(int user = 0; user < 10; user++){
+            int drift = user % 5 - 2;
+            Assertions.assertEquals(drift, validator.validatePosition(user, secret, 3000, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                    oath.totpGenerate(secret, 3000 + drift * 30, 30, 0, 6)));
+        }
+
+        Assertions.assertArrayEquals(new long[]{2, 2, 2, 2, 2}, validator.getDriftHistogram(3000, 30, 0));
+
+        //Forgotten after the time to live
+        Assertions.assertArrayEquals(new long[5], validator.getDriftHistogram(3000 + 11 * 30, 30, 0));
+        Assertions.assertEquals(0, validator.getDrift(1, 3000 + 11 * 30, 30, 0));
+    }
+
+    @Test
+    void testNegativeWindow(){
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new TotpDriftValidator(oath, -1, 100));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Testing the replay guard and its map
+ */
+class TotpReplayGuardTest {
+    private static OATH oath;
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @BeforeAll
+    static void setup(){
+        oath = OATH.getInstance();
+    }
+
+    @Test
+    void testReplayRejected(){
+        TotpReplayGuard guard = new TotpReplayGuard(oath, 1, 100);
+        String otp = oath.totpGenerate(secret, 1000, 30, 0, 6);
+
+        Assertions.assertEquals(0, guard.validate(1, secret, 1000, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp).getOtpPos());
+        OATHException exception = Assertions.assertThrows(OATHException.class,
+                () -> guard.validate(1, secret, 1030, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp), "Replaying an otp");
+        Assertions.assertEquals(OATHReturnCode.OATH_REPLAYED_OTP, exception.getErrorCode(),
+                "OATH not throwing the correct error code");
+
+        //Other users and newer otps are not affected
+        Assertions.assertEquals(0, guard.validate(2, secret, 1000, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp).getOtpPos());
+        String newer = oath.totpGenerate(secret, 1030, 30, 0, 6);
+        Assertions.assertEquals(0, guard.validate(1, secret, 1030, 30, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, newer).getOtpPos());
+
+        //An older otp of the window is a replay too
+        Assertions.assertFalse(guard.markUsed(1, oath.totpValidate(secret, 1030, 30, 0, 1, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp)));
+
+        guard.reset(1);
+        Assertions.assertTrue(guard.markUsed(1, oath.totpValidate(secret, 1030, 30, 0, 1, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, otp)));
+    }
+
+    @Test
+    void testMapBoundedAndExpiring(){
+        StripedLongMap map = new StripedLongMap(1000, 10);
+
+        for(long key = 0; key < 100000; key++){
+            map.getAndUpdate(key, -1, key / 100, value -> 1);
+        }
+
+        Assertions.assertTrue(map.size() <= 1000, "Map exceeds its maximum size: " + map.size());
+        Assertions.assertEquals(1, map.get(99999, -1, 999));
+        Assertions.assertEquals(-1, map.get(99999, -1, 1010), "Expired entry returned");
+
+        map.purge(2000);
+        Assertions.assertEquals(0, map.size());
+    }
+
+    @Test
+    void testMapEvictsOldest(){
+        StripedLongMap map = new StripedLongMap(6400, Long.MAX_VALUE);
+
+        for(long key = 0; key < 6400; key++){
+            map.getAndUpdate(key, -1, key, value -> 1);
+        }
+
+        //A new key into a full map evicts the oldest entries of its stripe, not the newest
+        map.getAndUpdate(6400, -1, 6400, value -> 1);
+        Assertions.assertTrue(map.size() < 6400, "Nothing evicted");
+        Assertions.assertEquals(1, map.get(6400, -1, 6400));
+
+        int[] evicted = new int[2];
+        for(long key = 0; key < 6400; key++){
+            if(map.get(key, -1, 6400) < 0){
+                evicted[key < 3200 ? 0 : 1]++;
+            }
+        }
+
+        Assertions.assertTrue(evicted[0] > 0, "No old entry evicted");
+        Assertions.assertEquals(0, evicted[1], "New entries evicted");
+    }
+
+    @Test
+    void testMapChurnCost(){
+        //Every insert into a full map is a new key, the cost per insert must not grow with the size of the map
+        long small = churnNanos(1 << 10);
+        long large = churnNanos(1 << 18);
+
+        Assertions.assertTrue(large < small * 16, "Insert into a full map costs " + small + "ns with 1024 entries but "
+                + large + "ns with 262144 entries");
+    }
+
+    /**
+     * @param maxEntries Maximum number of entries of the map
+     * @return best nanoseconds of 200000 inserts of new keys into the full map
+     */
+    private static long churnNanos(int maxEntries){
+        StripedLongMap map = new StripedLongMap(maxEntries, Long.MAX_VALUE);
+        long key = 0;
+
+        for(; key < maxEntries; key++){
+            map.getAndUpdate(key, 0, key, value -> value + 1);
+        }
+
+        long best = Long.MAX_VALUE;
+
+        for(int round = 0; round < 5; round++){
+            long start = System.nanoTime();
+
+            for(int i = 0; i < 200000; i++, key++){
+                map.getAndUpdate(key, 0, key, value -> value + 1);
+            }
+
+            best = Math.min(best, System.nanoTime() - start);
+            Assertions.assertTrue(map.size() <= maxEntries, "Map exceeds its maximum size: " + map.size());
+        }
+
+        return best;
+    }
+
+    @Test
+    void testMapRemove(){
+        StripedLongMap map = new StripedLongMap(100000, Long.MAX_VALUE);
+
+        for(long key = 0; key < 10000; key++){
+            map.getAndUpdate(key, 0, 0, value -> value + 1);
+        }
+
+        for(long key = 0; key < 10000; key += 2){
+            Assertions.assertTrue(map.remove(key));
+        }
+
+        for(long key = 0; key < 10000; key++){
+            Assertions.assertEquals(key % 2 == 0 ? 0 : 1, map.get(key, 0, 0), "Wrong value of key " + key);
+        }
+
+        Assertions.assertEquals(5000, map.size());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * JavaOATH - A Java JNI Binding for LibOATH
+ * Copyright (C) 2019  Maximilian Hippler
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.hiiw.oath;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Testing the validation throttle
+ */
+class ValidationThrottleTest {
+    private static OATH oath;
+    private byte[] secret = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @BeforeAll
+    static void setup(){
+        oath = OATH.getInstance();
+    }
+
+    @Test
+    void testBackoff(){
+        AtomicLong now = new AtomicLong();
+        ValidationThrottle throttle = new ValidationThrottle(oath, 2, 100, 1000, 100, now::get);
+        OATHKey key = new OATHKey(secret);
+
+        Assertions.assertFalse(OATH.isValidPosition(throttle.validateHotpPosition(1, key, 0, 0, "000000")));
+        //Locked for the base delay after the free attempts
+        Assertions.assertFalse(OATH.isValidPosition(throttle.validateHotpPosition(1, key, 0, 0, "000000")));
+        Assertions.assertEquals(100, throttle.getRetryAfterMillis(1));
+
+        //Even a valid otp is rejected while locked
+        OATHThrottledException exception = Assertions.assertThrows(OATHThrottledException.class,
+                () -> throttle.validateHotpPosition(1, key, 0, 0, oath.hotpGenerate(secret, 0, 6, 0)));
+        Assertions.assertEquals(100, exception.getRetryAfterMillis());
+        Assertions.assertEquals(OATHReturnCode.OATH_INVALID_OTP, exception.getErrorCode());
+        Assertions.assertEquals(1, throttle.getRejected());
+
+        //Other credentials are not affected
+        Assertions.assertEquals(0, throttle.validateHotpPosition(2, key, 0, 0, oath.hotpGenerate(secret, 0, 6, 0)));
+
+        long[] delays = {200, 400, 800, 1000, 1000};
+
+        for(long delay : delays){
+            now.addAndGet(throttle.getRetryAfterMillis(1));
+            Assertions.assertFalse(OATH.isValidPosition(throttle.validateTotpPosition(1, key, 1000, 30, 0, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1, "000000")));
+            Assertions.assertEquals(delay, throttle.getRetryAfterMillis(1));
+        }
+
+        //A valid otp resets the credential
+        now.addAndGet(1000);
+        Assertions.assertEquals(0, throttle.validateTotpPosition(1, secret, 1000, 30, 0, 0, OATHTotpFlag.OATH_TOTP_HMAC_SHA1,
+                oath.totpGenerate(secret, 1000, 30, 0, 6)));
+        Assertions.assertEquals(0, throttle.getRetryAfterMillis(1));
+        Assertions.assertEquals(0, throttle.size());
+
+        //Forgotten after twice the maximum delay without attempts
+        throttle.validateHotpPosition(3, secret, 0, 0, "000000");
+        throttle.validateHotpPosition(3, secret, 0, 0, "000000");
+        now.addAndGet(2001);
+        Assertions.assertEquals(0, throttle.getRetryAfterMillis(3));
+        Assertions.assertEquals(0, throttle.validateHotpPosition(3, secret, 0, 0, oath.hotpGenerate(secret, 0, 6, 0)));
+    }
+
+    @Test
+    void testConcurrentGuesses(){
+        ValidationThrottle throttle = new ValidationThrottle(oath, 5, 60000, 60000, 100);
+        OATHKey key = new OATHKey(secret);
+        AtomicInteger validated = new AtomicInteger();
+
+        IntStream.range(0, 1000).parallel().forEach(i -> {
+            try {
+                throttle.validateHotpPosition(1, key, 0, 0, String.format("%06d", i));
+                validated.incrementAndGet();
+            } catch (OATHThrottledException e) {
+                //rejected before validation
+            }
+        });
+
+        Assertions.assertEquals(5, validated.get(), "More guesses validated than allowed");
+        Assertions.assertEquals(995, throttle.getRejected());
+    }
+}